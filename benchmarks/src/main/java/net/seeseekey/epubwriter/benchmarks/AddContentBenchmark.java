@@ -0,0 +1,45 @@
+package net.seeseekey.epubwriter.benchmarks;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks adding many contents to a book, including the checks of ids and
+ * hrefs
+ */
+@State(Scope.Benchmark)
+public class AddContentBenchmark {
+
+    @Param({"1000", "50000"})
+    public int contentCount;
+
+    private String[] hrefs;
+
+    private final byte[] data = new byte[64];
+
+    @Setup
+    public void setup() {
+
+        hrefs = new String[contentCount];
+
+        for (int i = 0; i < contentCount; i++) {
+            hrefs[i] = "content/file-" + i + ".xhtml";
+        }
+    }
+
+    @Benchmark
+    public EpubBook addContent() {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:benchmark", "Benchmark", "epubwriter");
+
+        for (String href : hrefs) {
+            book.addContent(data, "application/xhtml+xml", href, true, true);
+        }
+
+        return book;
+    }
+}
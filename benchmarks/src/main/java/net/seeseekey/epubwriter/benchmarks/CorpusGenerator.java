@@ -0,0 +1,227 @@
+package net.seeseekey.epubwriter.benchmarks;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.TocLink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic books for the benchmarks. The corpus is deterministic
+ * for a seed, so results of different releases are comparable.
+ */
+public class CorpusGenerator {
+
+    private static final String[] WORDS = {
+            "lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "enim",
+            "ad", "minim", "veniam", "quis", "nostrud", "exercitation", "ullamco", "laboris", "nisi", "aliquip"
+    };
+
+    private long seed = 42;
+
+    /**
+     * Number of chapters
+     */
+    private int chapterCount = 100;
+
+    /**
+     * Approximate number of characters per chapter
+     */
+    private int chapterSize = 20_000;
+
+    /**
+     * Fraction of chapters which come with an image
+     */
+    private double imageRatio = 0.2;
+
+    /**
+     * Size of an image in bytes, images are random and do not compress
+     */
+    private int imageSize = 100_000;
+
+    /**
+     * Depth of the TOC, 1 links the chapters only, every further level adds
+     * two sections below each link
+     */
+    private int tocDepth = 1;
+
+    /**
+     * Generates a book with the configured corpus
+     *
+     * @return the generated book
+     */
+    public EpubBook generate() {
+
+        Random random = new Random(seed);
+
+        EpubBook book = new EpubBook("en", "urn:uuid:00000000-0000-0000-0000-" + String.format("%012d", seed),
+                "Benchmark", "epubwriter");
+        book.addContent(generateCss().getBytes(), "text/css", "css/style.css", false, false);
+
+        List<TocLink> links = new ArrayList<>(chapterCount);
+
+        for (int i = 0; i < chapterCount; i++) {
+
+            String href = "chapter-" + i + ".xhtml";
+            book.addTextContent("Chapter " + i, href, generateChapter(random, i));
+
+            if (random.nextDouble() < imageRatio) {
+
+                byte[] image = new byte[imageSize];
+                random.nextBytes(image);
+
+                book.addContent(image, i % 2 == 0 ? "image/png" : "image/jpeg",
+                        "images/image-" + i + (i % 2 == 0 ? ".png" : ".jpg"), false, false);
+            }
+
+            TocLink link = new TocLink(href, "Chapter " + i, null);
+            addSections(link, href, 1);
+            links.add(link);
+        }
+
+        book.setAutoToc(false);
+        book.setTocLinks(links);
+
+        return book;
+    }
+
+    /**
+     * Generates the body of a chapter from random words
+     *
+     * @param random the random source
+     * @param index  the index of the chapter
+     * @return the XHTML body of the chapter
+     */
+    public String generateChapter(Random random, int index) {
+
+        StringBuilder chapter = new StringBuilder(chapterSize + 256);
+        chapter.append("<h1>Chapter ").append(index).append("</h1>\n<p>");
+
+        int section = 0;
+
+        while (chapter.length() < chapterSize) {
+
+            chapter.append(WORDS[random.nextInt(WORDS.length)]);
+
+            int next = random.nextInt(100);
+
+            if (next < 2) {
+                chapter.append(".</p>\n<h2 id=\"section-").append(section++).append("\">Section</h2>\n<p>");
+            } else if (next < 10) {
+                chapter.append(". ");
+            } else {
+                chapter.append(' ');
+            }
+        }
+
+        return chapter.append("</p>").toString();
+    }
+
+    private void addSections(TocLink link, String href, int depth) {
+
+        if (depth >= tocDepth) {
+            return;
+        }
+
+        List<TocLink> sections = new ArrayList<>(2);
+
+        for (int i = 0; i < 2; i++) {
+
+            TocLink section = new TocLink(href + "#section-" + depth + "-" + i, "Section " + depth + "." + i, null);
+            addSections(section, href, depth + 1);
+            sections.add(section);
+        }
+
+        link.setTocChildLinks(sections);
+    }
+
+    private String generateCss() {
+        return "body { font-family: serif; margin: 0 5%; }\nh1, h2 { font-family: sans-serif; }\n".repeat(20);
+    }
+
+    /**
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seed the seed to set
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the chapterCount
+     */
+    public int getChapterCount() {
+        return chapterCount;
+    }
+
+    /**
+     * @param chapterCount the chapterCount to set
+     */
+    public void setChapterCount(int chapterCount) {
+        this.chapterCount = chapterCount;
+    }
+
+    /**
+     * @return the chapterSize
+     */
+    public int getChapterSize() {
+        return chapterSize;
+    }
+
+    /**
+     * @param chapterSize the chapterSize to set
+     */
+    public void setChapterSize(int chapterSize) {
+        this.chapterSize = chapterSize;
+    }
+
+    /**
+     * @return the imageRatio
+     */
+    public double getImageRatio() {
+        return imageRatio;
+    }
+
+    /**
+     * @param imageRatio the imageRatio to set
+     */
+    public void setImageRatio(double imageRatio) {
+        this.imageRatio = imageRatio;
+    }
+
+    /**
+     * @return the imageSize
+     */
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * @param imageSize the imageSize to set
+     */
+    public void setImageSize(int imageSize) {
+        this.imageSize = imageSize;
+    }
+
+    /**
+     * @return the tocDepth
+     */
+    public int getTocDepth() {
+        return tocDepth;
+    }
+
+    /**
+     * @param tocDepth the tocDepth to set
+     */
+    public void setTocDepth(int tocDepth) {
+        this.tocDepth = tocDepth;
+    }
+}
@@ -0,0 +1,69 @@
+package net.seeseekey.epubwriter.benchmarks;
+
+import net.seeseekey.epubwriter.impl.OpfCreatorDefault;
+import net.seeseekey.epubwriter.impl.OpfCreatorStreaming;
+import net.seeseekey.epubwriter.impl.TocCreatorDefault;
+import net.seeseekey.epubwriter.impl.TocCreatorStreaming;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the creation of the OPF and the navigation document
+ */
+@State(Scope.Benchmark)
+public class CreatorBenchmark {
+
+    @Param({"100", "5000"})
+    public int chapterCount;
+
+    @Param({"1", "3"})
+    public int tocDepth;
+
+    private EpubBook book;
+
+    private final OpfCreatorDefault opfCreatorDefault = new OpfCreatorDefault();
+
+    private final OpfCreatorStreaming opfCreatorStreaming = new OpfCreatorStreaming();
+
+    private final TocCreatorDefault tocCreatorDefault = new TocCreatorDefault();
+
+    private final TocCreatorStreaming tocCreatorStreaming = new TocCreatorStreaming();
+
+    @Setup
+    public void setup() {
+
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setChapterCount(chapterCount);
+        generator.setChapterSize(100);
+        generator.setImageRatio(0.2);
+        generator.setImageSize(16);
+        generator.setTocDepth(tocDepth);
+
+        book = generator.generate();
+    }
+
+    @Benchmark
+    public String opfCreatorDefault() {
+        return opfCreatorDefault.createOpfString(book);
+    }
+
+    @Benchmark
+    public String opfCreatorStreaming() {
+        return opfCreatorStreaming.createOpfString(book);
+    }
+
+    @Benchmark
+    public Content tocCreatorDefault() {
+        return tocCreatorDefault.createTocFromBook(book);
+    }
+
+    @Benchmark
+    public Content tocCreatorStreaming() {
+        return tocCreatorStreaming.createTocFromBook(book);
+    }
+}
@@ -0,0 +1,35 @@
+package net.seeseekey.epubwriter.benchmarks;
+
+import net.seeseekey.epubwriter.utils.DataUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Benchmarks reading streams with DataUtils.toByteArray
+ */
+@State(Scope.Benchmark)
+public class DataUtilsBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException {
+        return DataUtils.toByteArray(new ByteArrayInputStream(data));
+    }
+}
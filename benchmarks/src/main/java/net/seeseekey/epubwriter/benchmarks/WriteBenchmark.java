@@ -0,0 +1,53 @@
+package net.seeseekey.epubwriter.benchmarks;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Benchmarks the whole write pipeline of EpubWriter.writeEpubToStream
+ */
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    @Param({"10", "200"})
+    public int chapterCount;
+
+    @Param({"2000", "50000"})
+    public int chapterSize;
+
+    @Param({"0", "0.3"})
+    public double imageRatio;
+
+    @Param({"1", "3"})
+    public int tocDepth;
+
+    private EpubBook book;
+
+    private EpubWriter writer;
+
+    @Setup
+    public void setup() {
+
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.setChapterCount(chapterCount);
+        generator.setChapterSize(chapterSize);
+        generator.setImageRatio(imageRatio);
+        generator.setTocDepth(tocDepth);
+
+        book = generator.generate();
+        writer = new EpubWriter();
+    }
+
+    @Benchmark
+    public void writeEpubToStream() throws IOException {
+        writer.writeEpubToStream(book, OutputStream.nullOutputStream());
+    }
+}
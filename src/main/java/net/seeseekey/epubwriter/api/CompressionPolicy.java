@@ -0,0 +1,28 @@
+package net.seeseekey.epubwriter.api;
+
+/**
+ * Decides how the entries of the EPUB zip container are compressed.
+ * Implementations must be thread-safe, entries are compressed concurrently
+ */
+public interface CompressionPolicy {
+
+    /**
+     * Returns the Deflater compression level for an entry. An entry with
+     * level Deflater.NO_COMPRESSION is stored without compression
+     *
+     * @param href      the name of the entry
+     * @param mediaType the media type of the entry, may be null
+     * @return the compression level
+     */
+    int getCompressionLevel(String href, String mediaType);
+
+    /**
+     * Decides whether a deflated entry is kept compressed. If not, the entry
+     * is stored instead. This is only asked for entries held in memory
+     *
+     * @param size           the uncompressed size of the entry
+     * @param compressedSize the deflated size of the entry
+     * @return true if the deflated data should be used
+     */
+    boolean isCompressionWorthwhile(long size, long compressedSize);
+}
@@ -0,0 +1,126 @@
+package net.seeseekey.epubwriter.api;
+
+/**
+ * Receives events while the EpubWriter writes a book. All methods do nothing
+ * by default, so implementations only override the events they need.
+ * <p>
+ * Events of one write share a write id, which is unique within the JVM.
+ * Books may be written concurrently, so implementations must be thread-safe.
+ * The events are delivered on the writing thread and should return quickly,
+ * exceptions thrown by a listener abort the write.
+ */
+public interface EpubWriteListener {
+
+    /**
+     * The phases of writing a book
+     */
+    enum Phase {
+
+        /**
+         * Creation of the navigation document
+         */
+        TOC,
+
+        /**
+         * Creation and writing of the OPF
+         */
+        OPF,
+
+        /**
+         * Compression and writing of the contents
+         */
+        CONTENTS,
+
+        /**
+         * Writing of the zip central directory
+         */
+        CENTRAL_DIRECTORY
+    }
+
+    /**
+     * Called before anything of a book is written
+     *
+     * @param writeId the id of the write
+     * @param bookId  the id of the book
+     */
+    default void bookStarted(long writeId, String bookId) {
+    }
+
+    /**
+     * Called after the book has been written completely
+     *
+     * @param writeId the id of the write
+     * @param bytes   the size of the written EPUB
+     * @param nanos   the time since the write started
+     */
+    default void bookFinished(long writeId, long bytes, long nanos) {
+    }
+
+    /**
+     * Called if writing the book failed, no further events of the write
+     * follow
+     *
+     * @param writeId the id of the write
+     * @param failure the cause
+     */
+    default void bookFailed(long writeId, Throwable failure) {
+    }
+
+    /**
+     * Called when a phase starts
+     *
+     * @param writeId the id of the write
+     * @param phase   the phase
+     */
+    default void phaseStarted(long writeId, Phase phase) {
+    }
+
+    /**
+     * Called when a phase has finished
+     *
+     * @param writeId the id of the write
+     * @param phase   the phase
+     * @param nanos   the duration of the phase
+     */
+    default void phaseFinished(long writeId, Phase phase, long nanos) {
+    }
+
+    /**
+     * Called after a zip entry has been written
+     *
+     * @param writeId the id of the write
+     * @param entry   the written entry
+     */
+    default void entryWritten(long writeId, Entry entry) {
+    }
+
+    /**
+     * A written zip entry
+     *
+     * @param name             the name of the entry in the archive
+     * @param mediaType        the media type, null if unknown
+     * @param compressed       true if the entry is deflated, false if it is stored
+     * @param size             the uncompressed size
+     * @param compressedSize   the size in the archive
+     * @param compressionNanos the time spent compressing before the entry was
+     *                         written, 0 if it was compressed while writing
+     * @param writeNanos       the time spent writing the entry
+     */
+    record Entry(String name, String mediaType, boolean compressed, long size, long compressedSize,
+                 long compressionNanos, long writeNanos) {
+
+        /**
+         * @return the compressed size relative to the uncompressed size
+         */
+        public double compressionRatio() {
+            return size == 0 ? 1.0 : (double) compressedSize / size;
+        }
+
+        /**
+         * @return the time spent compressing and writing the entry
+         */
+        public long nanos() {
+            return compressionNanos + writeNanos;
+        }
+    }
+}
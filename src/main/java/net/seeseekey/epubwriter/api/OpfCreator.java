@@ -2,9 +2,14 @@ package net.seeseekey.epubwriter.api;
 
 import net.seeseekey.epubwriter.model.EpubBook;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Service to create the Package Document that carries bibliographic and
- * structural metadata about an EPUB Publication
+ * structural metadata about an EPUB Publication. Implementations must be
+ * thread-safe, as an EpubWriter may be shared between threads
  */
 public interface OpfCreator {
 
@@ -15,4 +20,16 @@ public interface OpfCreator {
      * @return the generated OPF markup
      */
     String createOpfString(EpubBook book);
+
+    /**
+     * Writes the OPF file as UTF-8 to the OutputStream, the OutputStream is
+     * not closed
+     *
+     * @param book the ePub book to generate the OPF for
+     * @param out  the OutputStream to write to
+     * @throws IOException if the OPF could not be written
+     */
+    default void writeOpf(EpubBook book, OutputStream out) throws IOException {
+        out.write(createOpfString(book).getBytes(StandardCharsets.UTF_8));
+    }
 }
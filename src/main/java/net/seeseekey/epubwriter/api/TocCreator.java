@@ -3,8 +3,11 @@ package net.seeseekey.epubwriter.api;
 import net.seeseekey.epubwriter.model.Content;
 import net.seeseekey.epubwriter.model.EpubBook;
 
+import java.util.List;
+
 /**
- * Service to create the EPUB navigation document
+ * Service to create the EPUB navigation document. Implementations must be
+ * thread-safe, as an EpubWriter may be shared between threads
  */
 public interface TocCreator {
 
@@ -15,4 +18,15 @@ public interface TocCreator {
      * @return the TOC Content object
      */
     Content createTocFromBook(EpubBook book);
+
+    /**
+     * Creates the EPUB TOC navigation document and any further documents the
+     * TOC is split into. The navigation document comes first
+     *
+     * @param book the EpubBook to create the TOC for
+     * @return the TOC Content objects
+     */
+    default List<Content> createTocContents(EpubBook book) {
+        return List.of(createTocFromBook(book));
+    }
 }
@@ -0,0 +1,16 @@
+package net.seeseekey.epubwriter.api;
+
+/**
+ * Converts XHTML content into well-formed XHTML before it is written.
+ * Implementations must be thread-safe, contents are normalized concurrently
+ */
+public interface XhtmlNormalizer {
+
+    /**
+     * Normalizes a document
+     *
+     * @param document the UTF-8 encoded document, it must not be changed
+     * @return the UTF-8 encoded well-formed XHTML document
+     */
+    byte[] normalize(byte[] document);
+}
@@ -0,0 +1,126 @@
+package net.seeseekey.epubwriter.impl;
+
+import net.seeseekey.epubwriter.api.CompressionPolicy;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Default implementation of the CompressionPolicy. Media which is already
+ * compressed, like JPEG, PNG, WOFF2 or MP3, is stored. All other entries are
+ * deflated with the configured level. It is thread-safe.
+ */
+public class CompressionPolicyDefault implements CompressionPolicy {
+
+    /**
+     * Media types which are stored without compression
+     */
+    private final Set<String> storedMediaTypes = concurrentSet(Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp",
+            "font/woff", "font/woff2", "application/font-woff", "application/font-woff2",
+            "audio/mpeg", "audio/mp4", "audio/ogg", "audio/opus", "video/mp4", "video/webm",
+            "application/zip", "application/epub+zip",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"));
+
+    /**
+     * File extensions which are stored without compression, used if an entry
+     * has no media type
+     */
+    private final Set<String> storedExtensions = concurrentSet(Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "woff", "woff2",
+            "mp3", "mp4", "m4a", "m4v", "ogg", "opus", "webm", "zip", "epub", "docx", "xlsx"));
+
+    /**
+     * Compression level of all deflated entries
+     */
+    private volatile int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Minimal relative size reduction a deflated entry must reach to be kept
+     * compressed. 0 disables the adaptive mode
+     */
+    private volatile double adaptiveThreshold = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCompressionLevel(String href, String mediaType) {
+
+        if (mediaType != null) {
+
+            if (storedMediaTypes.contains(mediaType.toLowerCase(Locale.ROOT))) {
+                return Deflater.NO_COMPRESSION;
+            }
+
+        } else if (href != null && storedExtensions.contains(href.substring(href.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT))) {
+            return Deflater.NO_COMPRESSION;
+        }
+
+        return compressionLevel;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCompressionWorthwhile(long size, long compressedSize) {
+        return adaptiveThreshold <= 0 || compressedSize <= size * (1 - adaptiveThreshold);
+    }
+
+    /**
+     * @return the storedMediaTypes, the set can be modified
+     */
+    public Set<String> getStoredMediaTypes() {
+        return storedMediaTypes;
+    }
+
+    /**
+     * @return the storedExtensions, the set can be modified
+     */
+    public Set<String> getStoredExtensions() {
+        return storedExtensions;
+    }
+
+    /**
+     * @return the compressionLevel
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the Deflater compression level to set
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the adaptiveThreshold
+     */
+    public double getAdaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+
+    /**
+     * Enables the adaptive mode. Entries whose deflated size is not at least
+     * reduced by this fraction (e.g. 0.05 for 5 %) are stored instead
+     *
+     * @param adaptiveThreshold the adaptiveThreshold to set, 0 to disable
+     */
+    public void setAdaptiveThreshold(double adaptiveThreshold) {
+        this.adaptiveThreshold = adaptiveThreshold;
+    }
+
+    private static Set<String> concurrentSet(Set<String> values) {
+
+        Set<String> set = ConcurrentHashMap.newKeySet();
+        set.addAll(values);
+
+        return set;
+    }
+}
@@ -0,0 +1,76 @@
+package net.seeseekey.epubwriter.impl;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.PrettyXmlSerializer;
+import org.htmlcleaner.Serializer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Pool of HtmlCleaner and serializer pairs. Neither of them is thread-safe,
+ * so each pair is used by one thread at a time and returned to the pool
+ * afterwards. The pool grows to the number of threads using it concurrently.
+ */
+class HtmlCleanerPool {
+
+    private final Consumer<CleanerProperties> configuration;
+
+    private final Function<CleanerProperties, Serializer> serializerFactory;
+
+    private final Queue<Tools> tools = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a new instance of HtmlCleanerPool with PrettyXmlSerializers
+     *
+     * @param configuration configures the properties of each new HtmlCleaner
+     */
+    HtmlCleanerPool(Consumer<CleanerProperties> configuration) {
+        this(configuration, PrettyXmlSerializer::new);
+    }
+
+    /**
+     * Creates a new instance of HtmlCleanerPool
+     *
+     * @param configuration     configures the properties of each new HtmlCleaner
+     * @param serializerFactory creates the serializer for the properties of a
+     *                          new HtmlCleaner
+     */
+    HtmlCleanerPool(Consumer<CleanerProperties> configuration, Function<CleanerProperties, Serializer> serializerFactory) {
+        this.configuration = configuration;
+        this.serializerFactory = serializerFactory;
+    }
+
+    /**
+     * Applies the function to a cleaner and serializer of the pool
+     */
+    <T> T apply(BiFunction<HtmlCleaner, Serializer, T> function) {
+
+        Tools borrowed = tools.poll();
+
+        if (borrowed == null) {
+            borrowed = createTools();
+        }
+
+        try {
+            return function.apply(borrowed.cleaner, borrowed.serializer);
+        } finally {
+            tools.offer(borrowed);
+        }
+    }
+
+    private Tools createTools() {
+
+        HtmlCleaner cleaner = new HtmlCleaner();
+        configuration.accept(cleaner.getProperties());
+
+        return new Tools(cleaner, serializerFactory.apply(cleaner.getProperties()));
+    }
+
+    private record Tools(HtmlCleaner cleaner, Serializer serializer) {
+    }
+}
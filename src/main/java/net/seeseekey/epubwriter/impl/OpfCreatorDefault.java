@@ -5,11 +5,7 @@ import net.seeseekey.epubwriter.api.OpfCreator;
 import net.seeseekey.epubwriter.model.Content;
 import net.seeseekey.epubwriter.model.EpubBook;
 import net.seeseekey.epubwriter.model.MetaTag;
-import org.htmlcleaner.CleanerProperties;
 import org.htmlcleaner.ContentNode;
-import org.htmlcleaner.HtmlCleaner;
-import org.htmlcleaner.PrettyXmlSerializer;
-import org.htmlcleaner.Serializer;
 import org.htmlcleaner.TagNode;
 
 import java.text.SimpleDateFormat;
@@ -18,7 +14,7 @@ import java.util.Map;
 
 /**
  * Default implementation of the OpfCreator. This follows EPUB3 standards to
- * create the OPF file content.
+ * create the OPF file content. It is thread-safe, the HtmlCleaners are pooled.
  */
 public class OpfCreatorDefault implements OpfCreator {
 
@@ -26,29 +22,17 @@ public class OpfCreatorDefault implements OpfCreator {
      * The template XML used to create the OPF file. This is settable if a
      * different template needs to be used.
      */
-    private String opfXML = EpubConstants.OPF_XML;
+    private volatile String opfXML = EpubConstants.OPF_XML;
 
     /**
-     * HtmlCleaner used to clean the XHTML document
+     * HtmlCleaners and XmlSerializers used to build the OPF, they are not
+     * thread-safe and therefore pooled
      */
-    private final HtmlCleaner cleaner;
-
-    /**
-     * XmlSerializer used to format to XML String output
-     */
-    private final Serializer htmlSetdown;
-
-    public OpfCreatorDefault() {
-
-        cleaner = new HtmlCleaner();
-        CleanerProperties htmlProperties = cleaner.getProperties();
-
+    private final HtmlCleanerPool cleaners = new HtmlCleanerPool(htmlProperties -> {
         htmlProperties.setOmitHtmlEnvelope(true);
         htmlProperties.setAdvancedXmlEscape(false);
         htmlProperties.setUseEmptyElementTags(true);
-
-        htmlSetdown = new PrettyXmlSerializer(htmlProperties);
-    }
+    });
 
     /**
      * {@inheritDoc}
@@ -56,13 +40,16 @@ public class OpfCreatorDefault implements OpfCreator {
     @Override
     public String createOpfString(EpubBook book) {
 
-        TagNode tagNode = cleaner.clean(opfXML);
+        return cleaners.apply((cleaner, htmlSetdown) -> {
+
+            TagNode tagNode = cleaner.clean(opfXML);
 
-        addMetaDataTags(tagNode, book);
-        addManifestTags(tagNode, book);
-        addSpineTags(tagNode, book);
+            addMetaDataTags(tagNode, book);
+            addManifestTags(tagNode, book);
+            addSpineTags(tagNode, book);
 
-        return htmlSetdown.getAsString(tagNode);
+            return htmlSetdown.getAsString(tagNode);
+        });
     }
 
     /**
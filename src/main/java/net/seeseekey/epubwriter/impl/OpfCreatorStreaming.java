@@ -0,0 +1,235 @@
+package net.seeseekey.epubwriter.impl;
+
+import net.seeseekey.epubwriter.api.OpfCreator;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.MetaTag;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+/**
+ * Implementation of the OpfCreator which writes the package document in a
+ * single pass, without parsing a template or building a node tree. The output
+ * is equal to the one of the OpfCreatorDefault. It is stateless and
+ * thread-safe.
+ */
+public class OpfCreatorStreaming implements OpfCreator {
+
+    /**
+     * Format of the dcterms:modified date, always in UTC
+     */
+    private static final DateTimeFormatter MODIFIED_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String createOpfString(EpubBook book) {
+
+        StringWriter out = new StringWriter();
+
+        try {
+            writeOpf(book, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeOpf(EpubBook book, OutputStream out) throws IOException {
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+        writeOpf(book, writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the OPF to the writer
+     *
+     * @param book the ePub book to generate the OPF for
+     * @param out  the writer
+     * @throws IOException if the OPF could not be written
+     */
+    public void writeOpf(EpubBook book, Writer out) throws IOException {
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<package xmlns=\"http://www.idpf.org/2007/opf\" version=\"3.0\" unique-identifier=\"uid\">\n");
+
+        writeMetadata(out, book);
+        writeManifest(out, book);
+        writeSpine(out, book);
+
+        out.write("</package>\n");
+    }
+
+    /**
+     * Writes the required metadata followed by the optional metadata
+     */
+    private void writeMetadata(Writer out, EpubBook book) throws IOException {
+
+        out.write("\t<metadata xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+
+        // If ISBN is set, use ISBN instead of generated UID
+        writeElement(out, "dc:identifier id=\"uid\"", "dc:identifier", book.getIsbn() != null ? book.getIsbn() : book.getId());
+        writeElement(out, "dc:title", "dc:title", book.getTitle());
+        writeElement(out, "dc:language", "dc:language", book.getLanguage());
+        writeElement(out, "meta property=\"dcterms:modified\"", "meta", MODIFIED_FORMAT.format(Instant.now()));
+
+        if (book.getIsbn() != null) {
+            // Define refining of UID to ONIX codelist, 15 is ISBN-13
+            writeElement(out, "meta refines=\"#uid\" property=\"identifier-type\" scheme=\"onix:codelist5\"", "meta", "15");
+        }
+
+        if (book.getAuthor() != null) {
+            writeElement(out, "dc:creator", "dc:creator", book.getAuthor());
+        }
+
+        if (book.getPublisher() != null) {
+            writeElement(out, "dc:publisher", "dc:publisher", book.getPublisher());
+        }
+
+        if (book.getRights() != null) {
+            writeElement(out, "dc:rights", "dc:rights", book.getRights());
+        }
+
+        for (MetaTag metaTag : book.getMetaTags()) {
+
+            out.write("\t\t<meta");
+
+            for (Map.Entry<String, String> tagAttribute : metaTag.getAttributes().entrySet()) {
+                writeAttribute(out, tagAttribute.getKey(), tagAttribute.getValue());
+            }
+
+            out.write(" />\n");
+        }
+
+        out.write("\t</metadata>\n");
+    }
+
+    /**
+     * Writes an item for each Content object
+     */
+    private void writeManifest(Writer out, EpubBook book) throws IOException {
+
+        out.write("\t<manifest>\n");
+
+        for (Content content : book.getContents()) {
+
+            out.write("\t\t<item");
+            writeAttribute(out, "href", content.getHref());
+            writeAttribute(out, "id", content.getId());
+            writeAttribute(out, "media-type", content.getMediaType());
+
+            if (content.getProperties() != null) {
+                writeAttribute(out, "properties", content.getProperties());
+            }
+
+            if (content.hasFallBack()) {
+                writeAttribute(out, "fallback", content.getFallBack().getId());
+            }
+
+            out.write(" />\n");
+        }
+
+        out.write("\t</manifest>\n");
+    }
+
+    /**
+     * Writes an itemref for each Content object in the spine
+     */
+    private void writeSpine(Writer out, EpubBook book) throws IOException {
+
+        out.write("\t<spine>\n");
+
+        for (Content content : book.getContents()) {
+
+            if (content.isSpine()) {
+
+                out.write("\t\t<itemref");
+                writeAttribute(out, "idref", content.getId());
+
+                if (!content.isLinear()) {
+                    writeAttribute(out, "linear", "no");
+                }
+
+                out.write(" />\n");
+            }
+        }
+
+        out.write("\t</spine>\n");
+    }
+
+    private void writeElement(Writer out, String startTag, String endTag, String value) throws IOException {
+
+        out.write("\t\t<");
+        out.write(startTag);
+        out.write('>');
+
+        if (value != null) {
+            escape(out, value);
+        }
+
+        out.write("</");
+        out.write(endTag);
+        out.write(">\n");
+    }
+
+    private void writeAttribute(Writer out, String name, String value) throws IOException {
+
+        out.write(' ');
+        out.write(name);
+        out.write("=\"");
+
+        if (value != null) {
+            escape(out, value);
+        }
+
+        out.write('"');
+    }
+
+    /**
+     * Escapes the XML special characters in text and attribute values
+     */
+    private static void escape(Writer out, String value) throws IOException {
+
+        int start = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+
+            String replacement = switch (value.charAt(i)) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '"' -> "&quot;";
+                case '\'' -> "&apos;";
+                default -> null;
+            };
+
+            if (replacement != null) {
+                out.write(value, start, i - start);
+                out.write(replacement);
+                start = i + 1;
+            }
+        }
+
+        out.write(value, start, value.length() - start);
+    }
+}
@@ -7,11 +7,7 @@ import net.seeseekey.epubwriter.model.EpubConstants;
 import net.seeseekey.epubwriter.model.Landmark;
 import net.seeseekey.epubwriter.model.TocLink;
 import net.seeseekey.epubwriter.utils.DataUtils;
-import org.htmlcleaner.CleanerProperties;
 import org.htmlcleaner.ContentNode;
-import org.htmlcleaner.HtmlCleaner;
-import org.htmlcleaner.PrettyXmlSerializer;
-import org.htmlcleaner.Serializer;
 import org.htmlcleaner.TagNode;
 
 import java.util.ArrayList;
@@ -19,37 +15,26 @@ import java.util.List;
 
 /**
  * Default implementation of the TocCreator. This follows EPUB3 standards to
- * create the Navigation Document file content.
+ * create the Navigation Document file content. It is thread-safe, the
+ * HtmlCleaners are pooled.
  */
 public class TocCreatorDefault implements TocCreator {
 
     private static final String EPUB_TYPE = "epub:type";
 
     /**
-     * HtmlCleaner used to alter the XHTML document
+     * HtmlCleaners and XmlSerializers used to build the XHTML document, they
+     * are not thread-safe and therefore pooled
      */
-    private final HtmlCleaner cleaner;
-
-    private String href = EpubConstants.TOC_FILE_NAME;
-
-    private String tocHtml = EpubConstants.TOC_XML;
-
-    /**
-     * XmlSerializer used to format to XML String output
-     */
-    private final Serializer htmlSetdown;
-
-    public TocCreatorDefault() {
-
-        cleaner = new HtmlCleaner();
-        CleanerProperties htmlProperties = cleaner.getProperties();
-
+    private final HtmlCleanerPool cleaners = new HtmlCleanerPool(htmlProperties -> {
         htmlProperties.setOmitHtmlEnvelope(false);
         htmlProperties.setAdvancedXmlEscape(false);
         htmlProperties.setUseEmptyElementTags(true);
+    });
 
-        htmlSetdown = new PrettyXmlSerializer(htmlProperties);
-    }
+    private volatile String href = EpubConstants.TOC_FILE_NAME;
+
+    private volatile String tocHtml = EpubConstants.TOC_XML;
 
     /**
      * {@inheritDoc}
@@ -80,15 +65,18 @@ public class TocCreatorDefault implements TocCreator {
      */
     private String createTocHtml(List<TocLink> links, List<Landmark> landmarks, String tocHtml) {
 
-        TagNode tagNode = cleaner.clean(tocHtml);
+        return cleaners.apply((cleaner, htmlSetdown) -> {
+
+            TagNode tagNode = cleaner.clean(tocHtml);
 
-        // Add TOC links, if not empty
-        addTocLinks(tagNode, links);
+            // Add TOC links, if not empty
+            addTocLinks(tagNode, links);
 
-        // Add landmarks, if not empty
-        addLandmarks(tagNode, landmarks);
+            // Add landmarks, if not empty
+            addLandmarks(tagNode, landmarks);
 
-        return htmlSetdown.getAsString(tagNode);
+            return htmlSetdown.getAsString(tagNode);
+        });
     }
 
     /**
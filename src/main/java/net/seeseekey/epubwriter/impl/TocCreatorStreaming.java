@@ -0,0 +1,473 @@
+package net.seeseekey.epubwriter.impl;
+
+import net.seeseekey.epubwriter.api.TocCreator;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentSource;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.model.Landmark;
+import net.seeseekey.epubwriter.model.TocLink;
+import net.seeseekey.epubwriter.utils.DataUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of the TocCreator which writes the Navigation Document in a
+ * single pass. Nested TOC links are written iteratively, so the time is
+ * linear in the number of links and the nesting depth is not limited by the
+ * stack. The documents are sources rendering directly into their zip
+ * entries, only the links are copied when the TOC is created, so later changes
+ * of the book do not change the documents.
+ * <p>
+ * Very large TOCs can be split across several documents. The Navigation
+ * Document then holds the first part of the TOC and the landmarks, every
+ * document ends with a link to the next continuation document. A top level
+ * link is never split from its nested links.
+ * <p>
+ * The TocCreatorStreaming is thread-safe.
+ */
+public class TocCreatorStreaming implements TocCreator {
+
+    private static final String MEDIA_TYPE = "application/xhtml+xml";
+
+    private static final int MAX_INDENT = 32;
+
+    private volatile String href = EpubConstants.TOC_FILE_NAME;
+
+    private volatile String title = "TOC";
+
+    /**
+     * Maximum number of links per document, 0 writes the whole TOC into the
+     * Navigation Document
+     */
+    private volatile int maxLinksPerDocument = 0;
+
+    /**
+     * Text of the link to the next continuation document
+     */
+    private volatile String continuationTitle = "Continued";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Content createTocFromBook(EpubBook book) {
+        return createTocContents(book).get(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Content> createTocContents(EpubBook book) {
+
+        List<TocLink> links = book.isAutoToc() ? generateAutoLinks(book) : copyLinks(book.getTocLinks());
+        List<Landmark> landmarks = copyLandmarks(book.getLandmarks());
+        List<List<TocLink>> parts = split(links);
+
+        String documentTitle = title;
+        String nextTitle = continuationTitle;
+
+        List<Content> contents = new ArrayList<>(parts.size());
+
+        for (int i = 0; i < parts.size(); i++) {
+
+            List<TocLink> part = parts.get(i);
+            List<Landmark> partLandmarks = i == 0 ? landmarks : null;
+            boolean navigation = i == 0;
+            String next = i + 1 < parts.size() ? getPartHref(i + 1) : null;
+
+            ContentSource document = out -> writeDocument(out, part, partLandmarks, navigation, next, documentTitle, nextTitle);
+
+            Content content = new Content(MEDIA_TYPE, getPartHref(i), document);
+            content.setId(i == 0 ? "toc" : "toc-" + (i + 1));
+
+            if (i == 0) {
+                content.setProperties("nav");
+            } else {
+                // Continuation documents are hyperlinked, so they must be in the spine
+                content.setLinear(false);
+            }
+
+            contents.add(content);
+        }
+
+        return contents;
+    }
+
+    /**
+     * Splits the top level links into parts of at most maxLinksPerDocument
+     * links including their nested links. A single top level link with more
+     * nested links forms a part of its own
+     */
+    private List<List<TocLink>> split(List<TocLink> links) {
+
+        if (maxLinksPerDocument <= 0) {
+            return List.of(links);
+        }
+
+        List<List<TocLink>> parts = new ArrayList<>();
+        List<TocLink> part = new ArrayList<>();
+        int count = 0;
+
+        for (TocLink link : links) {
+
+            int size = countLinks(link);
+
+            if (!part.isEmpty() && count + size > maxLinksPerDocument) {
+                parts.add(part);
+                part = new ArrayList<>();
+                count = 0;
+            }
+
+            part.add(link);
+            count += size;
+        }
+
+        parts.add(part);
+        return parts;
+    }
+
+    /**
+     * Counts a link and all of its nested links
+     */
+    private static int countLinks(TocLink link) {
+
+        int count = 0;
+        Deque<TocLink> pending = new ArrayDeque<>();
+        pending.push(link);
+
+        while (!pending.isEmpty()) {
+
+            TocLink current = pending.pop();
+            count++;
+
+            if (current.getTocChildLinks() != null) {
+                current.getTocChildLinks().forEach(pending::push);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Renders a document into the stream, which is flushed but not closed
+     */
+    private static void writeDocument(OutputStream document, List<TocLink> links, List<Landmark> landmarks,
+                                      boolean navigation, String next, String title, String continuationTitle)
+            throws IOException {
+
+        Writer out = new OutputStreamWriter(document, StandardCharsets.UTF_8);
+
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<html xmlns=\"http://www.w3.org/1999/xhtml\" xmlns:epub=\"http://www.idpf.org/2007/ops\">\n");
+        out.write("\t<head>\n\t\t<meta charset=\"utf-8\" />\n\t\t<title>");
+        escape(out, title);
+        out.write("</title>\n\t</head>\n\t<body>\n");
+
+        if (!DataUtils.isEmpty(links)) {
+
+            out.write(navigation ? "\t\t<nav epub:type=\"toc\" id=\"toc\">\n" : "\t\t<section>\n");
+            writeLinks(out, links);
+            out.write(navigation ? "\t\t</nav>\n" : "\t\t</section>\n");
+        }
+
+        if (!DataUtils.isEmpty(landmarks)) {
+            writeLandmarks(out, landmarks);
+        }
+
+        if (next != null) {
+            out.write("\t\t<p><a href=\"");
+            escape(out, next);
+            out.write("\">");
+            escape(out, continuationTitle);
+            out.write("</a></p>\n");
+        }
+
+        out.write("\t</body>\n</html>\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the nested lists of links, depth first with an explicit stack
+     */
+    private static void writeLinks(Writer out, List<TocLink> links) throws IOException {
+
+        Deque<Iterator<TocLink>> stack = new ArrayDeque<>();
+
+        indent(out, 0);
+        out.write("<ol>\n");
+        stack.push(links.iterator());
+
+        while (!stack.isEmpty()) {
+
+            Iterator<TocLink> iterator = stack.peek();
+            int depth = stack.size();
+
+            if (!iterator.hasNext()) {
+
+                stack.pop();
+                indent(out, 2 * depth - 2);
+                out.write("</ol>\n");
+
+                if (!stack.isEmpty()) {
+                    indent(out, 2 * depth - 3);
+                    out.write("</li>\n");
+                }
+
+                continue;
+            }
+
+            TocLink link = iterator.next();
+
+            indent(out, 2 * depth - 1);
+            out.write("<li>\n");
+            indent(out, 2 * depth);
+            out.write("<a href=\"");
+            escape(out, link.getHref());
+            out.write('"');
+
+            if (link.getAltTitle() != null) {
+                out.write(" title=\"");
+                escape(out, link.getAltTitle());
+                out.write('"');
+            }
+
+            out.write('>');
+            escape(out, link.getTitle());
+            out.write("</a>\n");
+
+            if (DataUtils.isEmpty(link.getTocChildLinks())) {
+                indent(out, 2 * depth - 1);
+                out.write("</li>\n");
+            } else {
+                indent(out, 2 * depth);
+                out.write("<ol>\n");
+                stack.push(link.getTocChildLinks().iterator());
+            }
+        }
+    }
+
+    private static void writeLandmarks(Writer out, List<Landmark> landmarks) throws IOException {
+
+        out.write("\t\t<nav epub:type=\"landmarks\" hidden=\"hidden\">\n\t\t\t<ol>\n");
+
+        for (Landmark landmark : landmarks) {
+
+            out.write("\t\t\t\t<li>\n\t\t\t\t\t<a href=\"");
+            escape(out, landmark.getHref());
+            out.write("\" epub:type=\"");
+            escape(out, landmark.getType());
+            out.write("\">");
+            escape(out, landmark.getTitle());
+            out.write("</a>\n\t\t\t\t</li>\n");
+        }
+
+        out.write("\t\t\t</ol>\n\t\t</nav>\n");
+    }
+
+    /**
+     * Writes the indentation of a line below the nav element, deeply nested
+     * lines are not indented further
+     */
+    private static void indent(Writer out, int depth) throws IOException {
+
+        for (int i = 0; i < Math.min(depth, MAX_INDENT) + 3; i++) {
+            out.write('\t');
+        }
+    }
+
+    /**
+     * Escapes the XML special characters in text and attribute values
+     */
+    private static void escape(Writer out, String value) throws IOException {
+
+        if (value == null) {
+            return;
+        }
+
+        int start = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+
+            String replacement = switch (value.charAt(i)) {
+                case '&' -> "&amp;";
+                case '<' -> "&lt;";
+                case '>' -> "&gt;";
+                case '"' -> "&quot;";
+                case '\'' -> "&apos;";
+                default -> null;
+            };
+
+            if (replacement != null) {
+                out.write(value, start, i - start);
+                out.write(replacement);
+                start = i + 1;
+            }
+        }
+
+        out.write(value, start, value.length() - start);
+    }
+
+    /**
+     * Generates a list of TocLinks for all Content that should be included in
+     * the Navigation Document. This will only be used when auto TOC is set
+     */
+    private List<TocLink> generateAutoLinks(EpubBook book) {
+
+        List<TocLink> links = new ArrayList<>();
+
+        for (Content content : book.getContents()) {
+
+            if (content.isToc()) {
+                links.add(new TocLink(content.getHref(), content.getId(), null));
+            }
+        }
+
+        return links;
+    }
+
+    /**
+     * Copies the nested links iteratively, so the documents do not depend on
+     * later changes of the book
+     */
+    private static List<TocLink> copyLinks(List<TocLink> links) {
+
+        List<TocLink> copies = new ArrayList<>();
+
+        if (links == null) {
+            return copies;
+        }
+
+        Deque<List<TocLink>> sources = new ArrayDeque<>();
+        Deque<List<TocLink>> targets = new ArrayDeque<>();
+        sources.push(links);
+        targets.push(copies);
+
+        while (!sources.isEmpty()) {
+
+            List<TocLink> target = targets.pop();
+
+            for (TocLink link : sources.pop()) {
+
+                TocLink copy = new TocLink(link.getHref(), link.getTitle(), link.getAltTitle());
+
+                if (!DataUtils.isEmpty(link.getTocChildLinks())) {
+
+                    List<TocLink> children = new ArrayList<>(link.getTocChildLinks().size());
+                    copy.setTocChildLinks(children);
+
+                    sources.push(link.getTocChildLinks());
+                    targets.push(children);
+                }
+
+                target.add(copy);
+            }
+        }
+
+        return copies;
+    }
+
+    private static List<Landmark> copyLandmarks(List<Landmark> landmarks) {
+
+        if (landmarks == null) {
+            return null;
+        }
+
+        List<Landmark> copies = new ArrayList<>(landmarks.size());
+
+        for (Landmark landmark : landmarks) {
+
+            Landmark copy = new Landmark();
+            copy.setHref(landmark.getHref());
+            copy.setTitle(landmark.getTitle());
+            copy.setType(landmark.getType());
+            copies.add(copy);
+        }
+
+        return copies;
+    }
+
+    /**
+     * Returns the href of a part, the first part is the Navigation Document
+     */
+    private String getPartHref(int part) {
+
+        if (part == 0) {
+            return href;
+        }
+
+        int extension = href.lastIndexOf('.');
+
+        return extension < 0
+                ? href + "-" + (part + 1)
+                : href.substring(0, extension) + "-" + (part + 1) + href.substring(extension);
+    }
+
+    /**
+     * @return the HREF
+     */
+    public String getHref() {
+        return href;
+    }
+
+    /**
+     * @param href the HREF to set
+     */
+    public void setHref(String href) {
+        this.href = href;
+    }
+
+    /**
+     * @return the title
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @param title the title of the documents to set
+     */
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    /**
+     * @return the maxLinksPerDocument
+     */
+    public int getMaxLinksPerDocument() {
+        return maxLinksPerDocument;
+    }
+
+    /**
+     * Sets the maximum number of links per document, 0 disables splitting
+     *
+     * @param maxLinksPerDocument the maxLinksPerDocument to set
+     */
+    public void setMaxLinksPerDocument(int maxLinksPerDocument) {
+        this.maxLinksPerDocument = maxLinksPerDocument;
+    }
+
+    /**
+     * @return the continuationTitle
+     */
+    public String getContinuationTitle() {
+        return continuationTitle;
+    }
+
+    /**
+     * @param continuationTitle the text of the link to the next document to set
+     */
+    public void setContinuationTitle(String continuationTitle) {
+        this.continuationTitle = continuationTitle;
+    }
+}
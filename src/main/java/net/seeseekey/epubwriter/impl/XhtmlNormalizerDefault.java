@@ -0,0 +1,195 @@
+package net.seeseekey.epubwriter.impl;
+
+import net.seeseekey.epubwriter.api.XhtmlNormalizer;
+import net.seeseekey.epubwriter.utils.DataUtils;
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.SimpleXmlSerializer;
+import org.htmlcleaner.TagNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Implementation of the XhtmlNormalizer which cleans documents with
+ * HtmlCleaner. The HtmlCleaners and serializers are pooled, so any number of
+ * threads can normalize documents at the same time.
+ * <p>
+ * Normalized documents are cached by the SHA-256 hash of the original
+ * document. A normalizer kept between builds of a book therefore only cleans
+ * the documents which changed. The cache is bounded by the total size of the
+ * normalized documents and evicts the least recently used ones.
+ */
+public class XhtmlNormalizerDefault implements XhtmlNormalizer {
+
+    private static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+
+    /**
+     * Default maximum size of the cached documents
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Memory used by a cached document in addition to its data
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final HtmlCleanerPool cleaners;
+
+    private final long maxCacheBytes;
+
+    /**
+     * Normalized documents in access order
+     */
+    private final LinkedHashMap<String, byte[]> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cacheBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a normalizer with the default cache size
+     */
+    public XhtmlNormalizerDefault() {
+        this(DEFAULT_CACHE_BYTES, properties -> {
+        });
+    }
+
+    /**
+     * Creates a normalizer
+     *
+     * @param maxCacheBytes maximum size of the cached documents, 0 disables
+     *                      the cache
+     * @param configuration configures the properties of each HtmlCleaner after
+     *                      the defaults of the normalizer have been applied
+     */
+    public XhtmlNormalizerDefault(long maxCacheBytes, Consumer<CleanerProperties> configuration) {
+
+        this.maxCacheBytes = maxCacheBytes;
+        this.cleaners = new HtmlCleanerPool(properties -> {
+            properties.setOmitHtmlEnvelope(false);
+            properties.setOmitXmlDeclaration(false);
+            properties.setOmitDoctypeDeclaration(true);
+            properties.setUseEmptyElementTags(true);
+            properties.setNamespacesAware(true);
+            properties.setTranslateSpecialEntities(true);
+            properties.setTransResCharsToNCR(false);
+            configuration.accept(properties);
+        }, SimpleXmlSerializer::new);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] normalize(byte[] document) {
+
+        String key = maxCacheBytes > 0 ? DataUtils.sha256(document) : null;
+
+        if (key != null) {
+
+            byte[] normalized;
+
+            synchronized (documents) {
+                normalized = documents.get(key);
+            }
+
+            if (normalized != null) {
+                hits.incrementAndGet();
+                return normalized;
+            }
+        }
+
+        misses.incrementAndGet();
+
+        byte[] normalized = cleaners.apply((cleaner, serializer) -> {
+
+            TagNode html = cleaner.clean(new String(document, StandardCharsets.UTF_8));
+
+            if (html.getAttributeByName("xmlns") == null) {
+                html.addAttribute("xmlns", XHTML_NAMESPACE);
+            }
+
+            return serializer.getAsString(html, StandardCharsets.UTF_8.name());
+
+        }).getBytes(StandardCharsets.UTF_8);
+
+        if (key != null) {
+            put(key, normalized);
+        }
+
+        return normalized;
+    }
+
+    private void put(String key, byte[] normalized) {
+
+        long entryBytes = normalized.length + ENTRY_OVERHEAD;
+
+        if (entryBytes > maxCacheBytes) {
+            return;
+        }
+
+        synchronized (documents) {
+
+            byte[] previous = documents.put(key, normalized);
+
+            if (previous != null) {
+                cacheBytes -= previous.length + ENTRY_OVERHEAD;
+            }
+
+            cacheBytes += entryBytes;
+
+            Iterator<byte[]> iterator = documents.values().iterator();
+
+            while (cacheBytes > maxCacheBytes && iterator.hasNext()) {
+                cacheBytes -= iterator.next().length + ENTRY_OVERHEAD;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached documents
+     */
+    public void clear() {
+
+        synchronized (documents) {
+            documents.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    /**
+     * @return the maxCacheBytes
+     */
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    /**
+     * @return the number of documents taken from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of documents which had to be cleaned
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the size of the cached documents including overhead
+     */
+    public long getCacheBytes() {
+        synchronized (documents) {
+            return cacheBytes;
+        }
+    }
+}
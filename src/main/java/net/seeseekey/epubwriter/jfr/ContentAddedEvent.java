@@ -0,0 +1,33 @@
+package net.seeseekey.epubwriter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a content added to an EpubBook
+ */
+@Name("net.seeseekey.epubwriter.ContentAdded")
+@Label("Content Added")
+@Category({"EPUB Writer", "Book"})
+@Description("A content has been added to a book")
+@StackTrace(false)
+public final class ContentAddedEvent extends jdk.jfr.Event {
+
+    @Label("Book Id")
+    public String bookId;
+
+    @Label("Href")
+    public String href;
+
+    @Label("Media Type")
+    public String mediaType;
+
+    @Label("Bytes")
+    @Description("Size of the content held in memory, -1 for content streamed from a source")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,50 @@
+package net.seeseekey.epubwriter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of a zip entry written by the EpubWriter. The
+ * duration covers writing the entry, including compression if the entry is
+ * streamed
+ */
+@Name("net.seeseekey.epubwriter.EntryWritten")
+@Label("Entry Written")
+@Category({"EPUB Writer", "Writer"})
+@Description("A zip entry of a book has been written")
+@StackTrace(false)
+public final class EntryWrittenEvent extends jdk.jfr.Event {
+
+    @Label("Book Id")
+    public String bookId;
+
+    @Label("Href")
+    @Description("Name of the entry in the archive")
+    public String href;
+
+    @Label("Media Type")
+    public String mediaType;
+
+    @Label("Method")
+    @Description("Compression method, DEFLATED or STORED")
+    public String method;
+
+    @Label("Bytes")
+    @Description("Uncompressed size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compressed Bytes")
+    @DataAmount
+    public long compressedBytes;
+
+    @Label("Compression Time")
+    @Description("Time spent compressing before the entry was written")
+    @Timespan
+    public long compressionNanos;
+}
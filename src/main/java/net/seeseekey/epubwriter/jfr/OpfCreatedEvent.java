@@ -0,0 +1,29 @@
+package net.seeseekey.epubwriter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the creation of the OPF
+ */
+@Name("net.seeseekey.epubwriter.OpfCreated")
+@Label("OPF Created")
+@Category({"EPUB Writer", "Writer"})
+@Description("The package document of a book has been created")
+@StackTrace(false)
+public final class OpfCreatedEvent extends jdk.jfr.Event {
+
+    @Label("Book Id")
+    public String bookId;
+
+    @Label("OPF Creator")
+    public Class<?> creator;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,34 @@
+package net.seeseekey.epubwriter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of the creation of the navigation document
+ */
+@Name("net.seeseekey.epubwriter.TocCreated")
+@Label("TOC Created")
+@Category({"EPUB Writer", "Writer"})
+@Description("The navigation document of a book has been created")
+@StackTrace(false)
+public final class TocCreatedEvent extends jdk.jfr.Event {
+
+    @Label("Book Id")
+    public String bookId;
+
+    @Label("TOC Creator")
+    public Class<?> creator;
+
+    @Label("Documents")
+    @Description("Number of created documents, including continuation documents")
+    public int documents;
+
+    @Label("Bytes")
+    @Description("Size of the created documents, documents whose source can not be read again are not counted")
+    @DataAmount
+    public long bytes;
+}
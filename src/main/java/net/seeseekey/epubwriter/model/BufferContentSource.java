@@ -0,0 +1,146 @@
+package net.seeseekey.epubwriter.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * ContentSource backed by one or more ByteBuffers, usually direct buffers
+ * allocated by a ContentArena. The EpubWriter compresses and writes the
+ * buffers directly, so the payload is never copied onto the heap as a whole.
+ */
+public class BufferContentSource implements ContentSource {
+
+    /**
+     * Size of the chunks used to copy direct buffers into an OutputStream
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The arena owning the buffers, null if they are not owned by an arena
+     */
+    private final ContentArena arena;
+
+    /**
+     * Read-only views on the payload in order
+     */
+    private final List<ByteBuffer> buffers;
+
+    private final long length;
+
+    /**
+     * Creates a new instance of BufferContentSource. The remaining bytes of
+     * the buffer are the payload, the buffer must not be changed afterwards
+     *
+     * @param buffer the buffer containing the payload
+     */
+    public BufferContentSource(ByteBuffer buffer) {
+        this(null, List.of(buffer.slice()));
+    }
+
+    BufferContentSource(ContentArena arena, List<ByteBuffer> buffers) {
+
+        this.arena = arena;
+        this.buffers = buffers.stream().map(ByteBuffer::asReadOnlyBuffer).toList();
+
+        long total = 0;
+
+        for (ByteBuffer buffer : this.buffers) {
+            total += buffer.remaining();
+        }
+
+        this.length = total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+
+        byte[] chunk = null;
+
+        for (ByteBuffer buffer : getBuffers()) {
+
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                continue;
+            }
+
+            if (chunk == null) {
+                chunk = new byte[(int) Math.min(CHUNK_SIZE, length)];
+            }
+
+            while (buffer.hasRemaining()) {
+                int count = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffers directly to the channel
+     *
+     * @param target the channel to write to
+     * @throws IOException if the buffers could not be written
+     */
+    @Override
+    public void transferTo(WritableByteChannel target) throws IOException {
+
+        for (ByteBuffer buffer : getBuffers()) {
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Calculates the CRC32 of the payload
+     *
+     * @return the CRC32
+     */
+    public long getCrc() {
+
+        CRC32 crc = new CRC32();
+
+        for (ByteBuffer buffer : getBuffers()) {
+            crc.update(buffer);
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Returns new read-only views on the payload, which can be consumed by
+     * the caller
+     *
+     * @return the buffers in order
+     * @throws IllegalStateException if the arena of the buffers has been closed
+     */
+    public ByteBuffer[] getBuffers() {
+
+        if (arena != null) {
+            arena.checkOpen();
+        }
+
+        ByteBuffer[] views = new ByteBuffer[buffers.size()];
+
+        for (int i = 0; i < views.length; i++) {
+            views[i] = buffers.get(i).duplicate();
+        }
+
+        return views;
+    }
+}
@@ -3,8 +3,12 @@ package net.seeseekey.epubwriter.model;
 import net.seeseekey.epubwriter.utils.DataUtils;
 import net.seeseekey.epubwriter.utils.MediaTypeUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 /**
  * Representation of content in the book
@@ -39,6 +43,12 @@ public class Content {
      */
     private byte[] content;
 
+    /**
+     * The source the file content is streamed from when the book is written.
+     * If this is set the content byte array is not used
+     */
+    private ContentSource source;
+
     /**
      * Specifies if it is a linear item in the spine
      */
@@ -59,6 +69,17 @@ public class Content {
      */
     private Content fallBack;
 
+    /**
+     * The list of a book the content belongs to, it follows changes of the id
+     * and href
+     */
+    ContentList owner;
+
+    /**
+     * The block of the owner holding the content
+     */
+    ContentList.Block block;
+
     /**
      * Creates new instance of Content
      *
@@ -174,6 +195,82 @@ public class Content {
         this(MediaTypeUtil.getMediaTypeFromFilename(href), href, id, properties, DataUtils.toByteArray(content));
     }
 
+    /**
+     * Creates new instance of Content whose payload is streamed from the
+     * source when the book is written
+     *
+     * @param mediaType the mime type
+     * @param href      the link to the content item
+     * @param source    the source of the file content
+     */
+    public Content(String mediaType, String href, ContentSource source) {
+        this(mediaType, href, (byte[]) null);
+        this.source = source;
+    }
+
+    /**
+     * Creates new instance of Content whose payload is read from the file
+     * when the book is written
+     *
+     * @param mediaType the mime type
+     * @param href      the link to the content item
+     * @param path      the file containing the content
+     */
+    public Content(String mediaType, String href, Path path) {
+        this(mediaType, href, ContentSource.ofPath(path));
+    }
+
+    /**
+     * Creates new instance of Content whose payload is read from the file
+     * when the book is written
+     *
+     * @param href the link to the content item
+     * @param path the file containing the content
+     */
+    public Content(String href, Path path) {
+        this(MediaTypeUtil.getMediaTypeFromFilename(href), href, path);
+    }
+
+    /**
+     * Writes the file content to the OutputStream. Content with a source is
+     * streamed, the stream is not closed
+     *
+     * @param out the OutputStream to write to
+     * @throws IOException if the content could not be written
+     */
+    public void writeContent(OutputStream out) throws IOException {
+
+        if (source != null) {
+            source.writeTo(out);
+        } else if (content != null) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Returns the length of the file content
+     *
+     * @return the length in bytes or -1 if it is not known in advance
+     * @throws IOException if the length of the source could not be determined
+     */
+    public long getContentLength() throws IOException {
+
+        if (source != null) {
+            return source.getLength();
+        }
+
+        return content == null ? 0 : content.length;
+    }
+
+    /**
+     * Indicates whether the file content is held in memory as byte array
+     *
+     * @return true if no source has been set
+     */
+    public boolean isBuffered() {
+        return source == null;
+    }
+
     /**
      * Indicates whether a fallback content has been set
      *
@@ -208,7 +305,13 @@ public class Content {
      * @param href the HREF to set
      */
     public void setHref(String href) {
+
+        String previous = this.href;
         this.href = href;
+
+        if (owner != null) {
+            owner.hrefChanged(this, previous);
+        }
     }
 
     /**
@@ -222,7 +325,13 @@ public class Content {
      * @param id the id to set
      */
     public void setId(String id) {
+
+        String previous = this.id;
         this.id = id;
+
+        if (owner != null) {
+            owner.idChanged(this, previous);
+        }
     }
 
     /**
@@ -240,17 +349,59 @@ public class Content {
     }
 
     /**
+     * Returns the file content.
+     * <p>
+     * <b>If the content has a source, every call reads the whole source into
+     * a new byte array.</b> A file backed content is read from disk again and
+     * its full size is allocated on each call, so the result should be kept
+     * instead of calling this method repeatedly. Use
+     * {@link #writeContent(OutputStream)} or {@link #getSource()} to stream
+     * the content and {@link #getContentLength()} to get its size.
+     *
      * @return the content
+     * @see #isBuffered()
      */
     public byte[] getContent() {
+
+        if (source != null) {
+
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                source.writeTo(out);
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read content " + href, e);
+            }
+        }
+
         return content;
     }
 
     /**
+     * Sets the file content and removes the source if one has been set
+     *
      * @param content the content to set
      */
     public void setContent(byte[] content) {
         this.content = content;
+        this.source = null;
+    }
+
+    /**
+     * @return the source or null if the content is held in memory
+     */
+    public ContentSource getSource() {
+        return source;
+    }
+
+    /**
+     * Sets the source of the file content and releases the byte array content
+     *
+     * @param source the source to set
+     */
+    public void setSource(ContentSource source) {
+        this.source = source;
+        this.content = null;
     }
 
     /**
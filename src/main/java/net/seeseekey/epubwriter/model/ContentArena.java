@@ -0,0 +1,233 @@
+package net.seeseekey.epubwriter.model;
+
+import net.seeseekey.epubwriter.utils.BufferPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap storage for the payloads of a book. Payloads are copied into
+ * direct slabs taken from a BufferPool, large payloads span several slabs, so
+ * no payload ever becomes a large object on the heap.
+ * <p>
+ * Closing the arena returns all slabs to the pool at once, afterwards the
+ * sources of the arena can not be written any more. An EpubBook closes its
+ * arena after it has been written with writeToStream, writeToChannel or
+ * writeToFile. The arena is thread-safe.
+ */
+public class ContentArena implements Closeable {
+
+    /**
+     * Default size of a slab
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    /**
+     * Slab pool shared by all arenas created without a pool
+     */
+    private static final BufferPool SHARED_SLAB_POOL = new BufferPool(DEFAULT_SLAB_SIZE,
+            4 * Runtime.getRuntime().availableProcessors());
+
+    private final BufferPool slabPool;
+
+    /**
+     * All slabs taken from the pool
+     */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * The slab payloads are currently appended to, its position is the used
+     * part
+     */
+    private ByteBuffer current;
+
+    private long usedBytes;
+
+    private boolean closed;
+
+    /**
+     * Creates an arena using slabs of a pool shared by all such arenas
+     */
+    public ContentArena() {
+        this(SHARED_SLAB_POOL);
+    }
+
+    /**
+     * Creates an arena using slabs of the pool
+     *
+     * @param slabPool the pool the slabs are taken from and returned to
+     */
+    public ContentArena(BufferPool slabPool) {
+        this.slabPool = slabPool;
+    }
+
+    /**
+     * Copies data into the arena
+     *
+     * @param data the data
+     * @return the source of the stored data
+     */
+    public synchronized BufferContentSource store(byte[] data) {
+
+        checkOpen();
+
+        List<ByteBuffer> segments = new ArrayList<>(1);
+        int offset = 0;
+
+        while (offset < data.length) {
+
+            ByteBuffer slab = currentSlab();
+            int start = slab.position();
+            int count = Math.min(slab.remaining(), data.length - offset);
+
+            slab.put(data, offset, count);
+            segments.add(slab.slice(start, count));
+            offset += count;
+        }
+
+        usedBytes += data.length;
+        return new BufferContentSource(this, segments);
+    }
+
+    /**
+     * Reads a stream into the arena. The stream is not closed
+     *
+     * @param in the stream
+     * @return the source of the stored data
+     * @throws IOException if the stream could not be read
+     */
+    public synchronized BufferContentSource store(InputStream in) throws IOException {
+
+        checkOpen();
+
+        List<ByteBuffer> segments = new ArrayList<>(1);
+        ReadableByteChannel channel = Channels.newChannel(in);
+
+        while (true) {
+
+            ByteBuffer slab = currentSlab();
+            int start = slab.position();
+            int read = channel.read(slab);
+
+            if (slab.position() > start) {
+                segments.add(slab.slice(start, slab.position() - start));
+                usedBytes += slab.position() - start;
+            }
+
+            if (read < 0) {
+                break;
+            }
+        }
+
+        return new BufferContentSource(this, segments);
+    }
+
+    /**
+     * Encodes text as UTF-8 directly into the arena
+     *
+     * @param text the text
+     * @return the source of the encoded text
+     */
+    public synchronized BufferContentSource store(CharSequence text) {
+
+        checkOpen();
+
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        List<ByteBuffer> segments = new ArrayList<>(1);
+        CharBuffer chars = CharBuffer.wrap(text);
+
+        while (true) {
+
+            ByteBuffer slab = currentSlab();
+            int start = slab.position();
+            CoderResult result = encoder.encode(chars, slab, true);
+
+            if (slab.position() > start) {
+                segments.add(slab.slice(start, slab.position() - start));
+                usedBytes += slab.position() - start;
+            }
+
+            if (result.isUnderflow()) {
+                break;
+            }
+
+            // The remainder of the slab is too small for the next character
+            current = null;
+        }
+
+        return new BufferContentSource(this, segments);
+    }
+
+    /**
+     * Returns all slabs to the pool. Sources of the arena can not be written
+     * afterwards
+     */
+    @Override
+    public synchronized void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        current = null;
+
+        for (ByteBuffer slab : slabs) {
+            slabPool.release(slab);
+        }
+
+        slabs.clear();
+    }
+
+    /**
+     * @return true if the arena has not been closed
+     */
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * @return the number of bytes taken from the pool
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * slabPool.getBufferSize();
+    }
+
+    /**
+     * @return the number of bytes of the stored payloads
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    synchronized void checkOpen() {
+
+        if (closed) {
+            throw new IllegalStateException("Content arena is closed");
+        }
+    }
+
+    private ByteBuffer currentSlab() {
+
+        if (current == null || !current.hasRemaining()) {
+            current = slabPool.acquire();
+            slabs.add(current);
+        }
+
+        return current;
+    }
+}
@@ -0,0 +1,566 @@
+package net.seeseekey.epubwriter.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * List of the contents of a book in spine order, indexed by id and href.
+ * <p>
+ * The contents are held in blocks of limited size, so inserting, removing or
+ * moving a content only shifts the contents of one block. Looking up a
+ * content by id or href takes constant time. Reading the list does not
+ * change it, the offsets of the blocks are updated with every change.
+ * <p>
+ * A content belongs to the first list it is added to until it is removed
+ * from it. This list follows changes of its id and href and finds its
+ * position without searching. Other lists holding the same content, like the
+ * list of a copied book, index it by the id and href it had when it was
+ * added.
+ * <p>
+ * The ContentList is not thread-safe.
+ */
+public class ContentList extends AbstractList<Content> implements RandomAccess {
+
+    /**
+     * Maximum number of contents per block, a larger block is split in halves
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    private final List<Block> blocks = new ArrayList<>();
+
+    /**
+     * Index of the first content of each block
+     */
+    private int[] offsets = new int[16];
+
+    private int size;
+
+    private final Index contentsById = new Index();
+
+    private final Index contentsByHref = new Index();
+
+    /**
+     * Number of contents the indexes are sized for
+     */
+    private int indexCapacity;
+
+    /**
+     * Called with every removed content, null if nobody listens
+     */
+    private Consumer<Content> removalListener;
+
+    /**
+     * Creates an empty ContentList
+     */
+    public ContentList() {
+    }
+
+    /**
+     * Creates a ContentList holding the contents in the order of the
+     * collection
+     *
+     * @param contents the contents
+     */
+    public ContentList(Collection<? extends Content> contents) {
+        addAll(contents);
+    }
+
+    @Override
+    public Content get(int index) {
+
+        Objects.checkIndex(index, size);
+        int block = findBlock(index);
+
+        return blocks.get(block).contents.get(index - offsets[block]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Content set(int index, Content content) {
+
+        Objects.requireNonNull(content, "content");
+        Objects.checkIndex(index, size);
+
+        int position = findBlock(index);
+        Block block = blocks.get(position);
+        Content previous = block.contents.get(index - offsets[position]);
+
+        if (previous != content) {
+
+            checkNotContained(content);
+            unindex(previous);
+            block.contents.set(index - offsets[position], content);
+
+            if (content.owner == null) {
+                content.owner = this;
+                content.block = block;
+            }
+
+            index(content);
+        }
+
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Content content) {
+
+        Objects.requireNonNull(content, "content");
+        Objects.checkIndex(index, size + 1);
+        checkNotContained(content);
+
+        if (content.owner == null) {
+            content.owner = this;
+        }
+
+        attach(index, content);
+        index(content);
+    }
+
+    @Override
+    public Content remove(int index) {
+
+        Objects.checkIndex(index, size);
+
+        Content content = detach(index);
+        unindex(content);
+
+        return content;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+
+        int index = indexOf(o);
+
+        if (index < 0) {
+            return false;
+        }
+
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+
+        if (!(o instanceof Content content)) {
+            return -1;
+        }
+
+        if (content.owner == this) {
+            return positionOf(content);
+        }
+
+        for (int i = 0, offset = 0; i < blocks.size(); offset += blocks.get(i).contents.size(), i++) {
+
+            int position = indexOfIdentity(blocks.get(i).contents, content);
+
+            if (position >= 0) {
+                return offset + position;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public void clear() {
+
+        List<Block> removed = new ArrayList<>(blocks);
+
+        blocks.clear();
+        contentsById.clear();
+        contentsByHref.clear();
+        size = 0;
+        modCount++;
+
+        for (Block block : removed) {
+            for (Content content : block.contents) {
+                release(content);
+                removed(content);
+            }
+        }
+    }
+
+    /**
+     * Sizes the indexes for the number of contents, so adding them does not
+     * rehash the indexes repeatedly
+     *
+     * @param capacity the expected number of contents
+     */
+    public void ensureCapacity(int capacity) {
+
+        if (capacity <= indexCapacity || capacity <= size) {
+            return;
+        }
+
+        contentsById.resize(capacity);
+        contentsByHref.resize(capacity);
+        indexCapacity = capacity;
+    }
+
+    /**
+     * Moves a content of the list to another position. The contents between
+     * the old and the new position are shifted by one
+     *
+     * @param content the content to move
+     * @param index   the new position of the content
+     * @return false if the content is not in the list
+     */
+    public boolean move(Content content, int index) {
+
+        int from = indexOf(content);
+
+        if (from < 0) {
+            return false;
+        }
+
+        Objects.checkIndex(index, size);
+
+        if (from != index) {
+            detach(from);
+            attach(index, content);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the content with the id. If several contents have the same id,
+     * the one added last is returned
+     *
+     * @param id the id of the content
+     * @return the content or null if there is none
+     */
+    public Content getById(String id) {
+
+        Content content = contentsById.get(id);
+        return content != null && id.equals(content.getId()) ? content : null;
+    }
+
+    /**
+     * Returns the content with the href. If several contents have the same
+     * href, the one added last is returned
+     *
+     * @param href the href of the content
+     * @return the content or null if there is none
+     */
+    public Content getByHref(String href) {
+
+        Content content = contentsByHref.get(href);
+        return content != null && href.equals(content.getHref()) ? content : null;
+    }
+
+    /**
+     * @param href the href
+     * @return true if a content of the list has the href
+     */
+    public boolean containsHref(String href) {
+        return getByHref(href) != null;
+    }
+
+    /**
+     * @return an unmodifiable view of the hrefs of the contents
+     */
+    public Set<String> getHrefs() {
+        return Collections.unmodifiableSet(contentsByHref.keys());
+    }
+
+    /**
+     * Sets the listener called with every content removed from the list,
+     * moving a content does not remove it
+     */
+    void setRemovalListener(Consumer<Content> removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Updates the index after the id of an owned content changed
+     */
+    void idChanged(Content content, String previous) {
+        reindex(contentsById, content, previous, content.getId());
+    }
+
+    /**
+     * Updates the index after the href of an owned content changed
+     */
+    void hrefChanged(Content content, String previous) {
+        reindex(contentsByHref, content, previous, content.getHref());
+    }
+
+    private static void reindex(Index index, Content content, String previous, String key) {
+
+        if (previous != null) {
+            index.remove(previous, content);
+        }
+
+        if (key != null) {
+            index.put(key, content);
+        }
+    }
+
+    private void index(Content content) {
+        reindex(contentsById, content, null, content.getId());
+        reindex(contentsByHref, content, null, content.getHref());
+    }
+
+    private void unindex(Content content) {
+
+        reindex(contentsById, content, content.getId(), null);
+        reindex(contentsByHref, content, content.getHref(), null);
+        release(content);
+        removed(content);
+    }
+
+    private void removed(Content content) {
+
+        if (removalListener != null) {
+            removalListener.accept(content);
+        }
+    }
+
+    private void release(Content content) {
+
+        if (content.owner == this) {
+            content.owner = null;
+            content.block = null;
+        }
+    }
+
+    private void checkNotContained(Content content) {
+
+        if (content.owner == this) {
+            throw new IllegalArgumentException("Content " + content.getHref() + " is already in the list");
+        }
+    }
+
+    /**
+     * Inserts a content into the blocks without indexing it
+     */
+    private void attach(int index, Content content) {
+
+        int position;
+
+        if (blocks.isEmpty() || index == size && blocks.get(blocks.size() - 1).contents.size() >= BLOCK_SIZE) {
+            // Appending starts a new block instead of splitting a full one
+            blocks.add(new Block());
+            position = blocks.size() - 1;
+            updateOffsets(position);
+        } else {
+            position = index == size ? blocks.size() - 1 : findBlock(index);
+        }
+
+        Block block = blocks.get(position);
+        block.contents.add(index - offsets[position], content);
+
+        if (content.owner == this) {
+            content.block = block;
+        }
+
+        size++;
+        modCount++;
+
+        if (block.contents.size() > BLOCK_SIZE) {
+            split(position);
+        }
+
+        updateOffsets(position + 1);
+    }
+
+    /**
+     * Removes a content from the blocks without removing it from the index
+     */
+    private Content detach(int index) {
+
+        int position = findBlock(index);
+        Block block = blocks.get(position);
+        Content content = block.contents.remove(index - offsets[position]);
+
+        size--;
+        modCount++;
+
+        if (block.contents.isEmpty()) {
+            blocks.remove(position);
+        }
+
+        updateOffsets(position);
+
+        return content;
+    }
+
+    private void split(int position) {
+
+        Block block = blocks.get(position);
+        List<Content> tail = block.contents.subList(block.contents.size() / 2, block.contents.size());
+
+        Block next = new Block();
+        next.contents.addAll(tail);
+        tail.clear();
+
+        for (Content content : next.contents) {
+            if (content.owner == this) {
+                content.block = next;
+            }
+        }
+
+        blocks.add(position + 1, next);
+    }
+
+    /**
+     * Returns the position of a content owned by the list
+     */
+    private int positionOf(Content content) {
+
+        int position = indexOfIdentity(blocks, content.block);
+
+        return offsets[position] + indexOfIdentity(content.block.contents, content);
+    }
+
+    /**
+     * Returns the block holding the content at the index
+     */
+    private int findBlock(int index) {
+
+        int low = 0;
+        int high = blocks.size() - 1;
+
+        while (low < high) {
+
+            int middle = (low + high + 1) >>> 1;
+
+            if (offsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Recalculates the offsets of the blocks from the position on, after the
+     * blocks before it did not change
+     */
+    private void updateOffsets(int position) {
+
+        if (offsets.length < blocks.size()) {
+            offsets = Arrays.copyOf(offsets, Math.max(blocks.size(), offsets.length * 2));
+        }
+
+        for (int i = Math.max(position, 1); i < blocks.size(); i++) {
+            offsets[i] = offsets[i - 1] + blocks.get(i - 1).contents.size();
+        }
+    }
+
+    private static int indexOfIdentity(List<?> list, Object element) {
+
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Index of the contents by id or href. A key held by several contents
+     * maps to the one indexed last, the others are kept, so removing that
+     * content uncovers the previous one with the key
+     */
+    private static final class Index {
+
+        private Map<String, Content> contents = new HashMap<>();
+
+        /**
+         * Further contents of the keys held by several contents, in the
+         * order they were indexed
+         */
+        private final Map<String, List<Content>> shadowed = new HashMap<>();
+
+        Content get(String key) {
+            return contents.get(key);
+        }
+
+        void put(String key, Content content) {
+
+            Content previous = contents.put(key, content);
+
+            if (previous != null && previous != content) {
+                shadowed.computeIfAbsent(key, ignored -> new ArrayList<>()).add(previous);
+            }
+        }
+
+        void remove(String key, Content content) {
+
+            List<Content> others = shadowed.get(key);
+
+            if (contents.get(key) == content) {
+
+                if (others == null) {
+                    contents.remove(key);
+                    return;
+                }
+
+                contents.put(key, others.remove(others.size() - 1));
+
+            } else if (others != null) {
+
+                int position = indexOfIdentity(others, content);
+
+                if (position >= 0) {
+                    others.remove(position);
+                }
+            }
+
+            if (others != null && others.isEmpty()) {
+                shadowed.remove(key);
+            }
+        }
+
+        Set<String> keys() {
+            return contents.keySet();
+        }
+
+        void clear() {
+            contents.clear();
+            shadowed.clear();
+        }
+
+        void resize(int capacity) {
+
+            Map<String, Content> resized = new HashMap<>((int) (capacity / 0.75f) + 1);
+            resized.putAll(contents);
+            contents = resized;
+        }
+    }
+
+    /**
+     * Consecutive contents of the list
+     */
+    static final class Block {
+
+        private final List<Content> contents = new ArrayList<>();
+    }
+}
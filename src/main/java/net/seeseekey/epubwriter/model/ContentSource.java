@@ -0,0 +1,100 @@
+package net.seeseekey.epubwriter.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Source of a Content payload that is not held in memory. The payload is
+ * streamed into the zip entry when the book is written.
+ * <p>
+ * As functional interface a source can also be a generator callback that
+ * renders the payload directly into the open zip entry:
+ * <pre>
+ * book.addContent(out -&gt; renderChapter(row, out), "application/xhtml+xml", "chapter.xhtml", true, true);
+ * </pre>
+ */
+@FunctionalInterface
+public interface ContentSource {
+
+    /**
+     * Writes the complete payload to the OutputStream. The stream must not be
+     * closed by the implementation
+     *
+     * @param out the OutputStream to write to
+     * @throws IOException if the payload could not be written
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Writes the complete payload to the channel. The channel must not be
+     * closed by the implementation
+     *
+     * @param target the channel to write to
+     * @throws IOException if the payload could not be written
+     */
+    default void transferTo(WritableByteChannel target) throws IOException {
+        writeTo(Channels.newOutputStream(target));
+    }
+
+    /**
+     * Returns the length of the payload in bytes
+     *
+     * @return the length or -1 if it is not known in advance
+     * @throws IOException if the length could not be determined
+     */
+    default long getLength() throws IOException {
+        return -1;
+    }
+
+    /**
+     * Indicates whether writeTo can be called more than once, each time
+     * producing the same payload
+     *
+     * @return the repeatable flag
+     */
+    default boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Creates a source backed by a file
+     *
+     * @param path the file containing the payload
+     * @return the ContentSource
+     */
+    static ContentSource ofPath(Path path) {
+        return new PathContentSource(path);
+    }
+
+    /**
+     * Creates a source backed by a reopenable stream. The supplier is called
+     * for every write and the returned stream is closed afterwards
+     *
+     * @param supplier the supplier opening a new stream on the payload
+     * @return the ContentSource
+     */
+    static ContentSource ofStream(StreamSupplier supplier) {
+        return out -> {
+            try (InputStream in = supplier.openStream()) {
+                in.transferTo(out);
+            }
+        };
+    }
+
+    /**
+     * Opens a new InputStream on a payload
+     */
+    @FunctionalInterface
+    interface StreamSupplier {
+
+        /**
+         * @return a new InputStream positioned at the start of the payload
+         * @throws IOException if the stream could not be opened
+         */
+        InputStream openStream() throws IOException;
+    }
+}
@@ -1,26 +1,61 @@
 package net.seeseekey.epubwriter.model;
 
+import net.seeseekey.epubwriter.jfr.ContentAddedEvent;
+import net.seeseekey.epubwriter.utils.CompiledEpub;
+import net.seeseekey.epubwriter.utils.DataUtils;
 import net.seeseekey.epubwriter.utils.EpubWriter;
+import net.seeseekey.epubwriter.utils.MediaTypeUtil;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.text.MessageFormat;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Representation of an EPUB book
+ * Representation of an EPUB book.
+ * <p>
+ * A book may hold temporary storage for its payloads, a content arena or the
+ * spill store of its memory budget. The storage is released after the book
+ * has been written by writeToStream, writeToChannel or writeToFile, or when
+ * the book is closed.
  */
-public class EpubBook {
+public class EpubBook implements Closeable {
+
+    /**
+     * Characters of the book id which are replaced in generated content ids
+     */
+    private static final Pattern INVALID_ID_CHARACTERS = Pattern.compile("[^a-zA-Z0-9\\-]");
 
     /**
      * A list of the the content files, this includes the cover, HTML pages, CSS
      * JavaScript or any other resource
      */
-    private List<Content> contents;
+    private final ContentList contents;
 
     /**
      * Indicates whether the TOC must be created automatically. If this is false
@@ -83,11 +118,6 @@ public class EpubBook {
      */
     private final EpubWriter epubCreator;
 
-    /**
-     * Unique set of href's used to make sure we do not add duplicates
-     */
-    private final Set<String> uniqueHrefs;
-
     /**
      * List of additional meta tags
      */
@@ -100,14 +130,89 @@ public class EpubBook {
      */
     private int hrefUniquePostfix = 1;
 
+    /**
+     * Template of the XHTML documents created by addTextContent
+     */
+    private XhtmlTemplate textTemplate = XhtmlTemplate.DEFAULT;
+
+    /**
+     * Prefix of the generated content ids and the book id it was created for
+     */
+    private String uidPrefix;
+
+    private String uidPrefixId;
+
+    /**
+     * Off-heap storage for the payloads added to the book, null to keep them
+     * on the heap
+     */
+    private ContentArena contentArena;
+
+    /**
+     * Maximum number of payload bytes held on the heap, -1 for no limit
+     */
+    private long memoryBudget = -1;
+
+    /**
+     * Number of payload bytes of added contents held on the heap
+     */
+    private long retainedBytes;
+
+    /**
+     * Parent directory of the spill store, null for the default temporary
+     * directory
+     */
+    private Path spillDirectory;
+
+    /**
+     * Store of the payloads exceeding the memory budget, created on demand
+     */
+    private SpillStore spillStore;
+
+    /**
+     * Flag whether identical payloads held on the heap are shared
+     */
+    private boolean deduplicatePayloads = false;
+
+    /**
+     * The interned payloads by their SHA-256 hash
+     */
+    private final Map<String, RetainedPayload> payloads = new HashMap<>();
+
+    /**
+     * The accounted or interned payloads of the contents in the book
+     */
+    private final Map<Content, RetainedPayload> retainedPayloads = new IdentityHashMap<>();
+
+    /**
+     * Set while setContents replaces the contents, so the payloads of the
+     * contents staying in the book are not released
+     */
+    private boolean replacingContents;
+
+    /**
+     * Number of payload bytes saved by sharing identical payloads
+     */
+    private long deduplicatedBytes;
+
     /**
      * Constructs EPUBBook
      */
     public EpubBook() {
-        this.epubCreator = new EpubWriter();
-        this.contents = new ArrayList<>();
+        this(new EpubWriter());
+    }
+
+    /**
+     * Constructs EPUBBook which is written by a shared EpubWriter. The
+     * EpubWriter is thread-safe and can be used by any number of books
+     *
+     * @param epubCreator the EpubWriter used to write the book
+     */
+    public EpubBook(EpubWriter epubCreator) {
+        this.epubCreator = epubCreator;
+        this.contents = new ContentList();
+        this.contents.setRemovalListener(this::removed);
         this.tocLinks = new ArrayList<>();
-        this.uniqueHrefs = new HashSet<>();
         this.metaTags = new ArrayList<>();
     }
 
@@ -121,22 +226,63 @@ public class EpubBook {
      * @param author   the author, this is set as the meta data dc:creator value
      */
     public EpubBook(String language, String id, String title, String author) {
-        this();
+        this(new EpubWriter(), language, id, title, author);
+    }
+
+    /**
+     * Constructs EPUBBook which is written by a shared EpubWriter
+     *
+     * @param epubCreator the EpubWriter used to write the book
+     * @param language    the 2 letter language code set in the dc:language meta
+     *                    data
+     * @param id          the id used as the meta data dc:identifier
+     * @param title       the title of the book
+     * @param author      the author, this is set as the meta data dc:creator value
+     */
+    public EpubBook(EpubWriter epubCreator, String language, String id, String title, String author) {
+        this(epubCreator);
         this.language = language;
         this.id = id;
         this.title = title;
         this.author = author;
     }
 
+    /**
+     * Creates a copy of the book, the lists of the copy can be changed without
+     * affecting the book while the Content, TocLink and MetaTag objects are
+     * shared
+     *
+     * @return the copy of the book
+     */
+    public EpubBook copy() {
+
+        EpubBook copy = new EpubBook(epubCreator);
+        copy.contents.addAll(contents);
+        copy.autoToc = autoToc;
+        copy.language = language;
+        copy.id = id;
+        copy.title = title;
+        copy.author = author;
+        copy.publisher = publisher;
+        copy.rights = rights;
+        copy.isbn = isbn;
+        copy.contentId = contentId;
+        copy.tocLinks = tocLinks == null ? null : new ArrayList<>(tocLinks);
+        copy.landmarks = landmarks == null ? null : new ArrayList<>(landmarks);
+        copy.metaTags.addAll(metaTags);
+        copy.hrefUniquePostfix = hrefUniquePostfix;
+
+        return copy;
+    }
+
     /**
      * Checks if href unique, adds postfix if not
      */
     private void checkHref(Content content) {
         content.setHref(removeLeadingFileSeparator(content.getHref()));
-        if (uniqueHrefs.contains(content.getHref())) {
+        if (contents.containsHref(content.getHref())) {
             content.setHref(incrementHref(content.getHref()));
         }
-        uniqueHrefs.add(content.getHref());
     }
 
     /**
@@ -144,7 +290,7 @@ public class EpubBook {
      */
     private String checkHref(String href) {
         href = removeLeadingFileSeparator(href);
-        if (uniqueHrefs.contains(href)) {
+        if (contents.containsHref(href)) {
             return incrementHref(href);
         }
         return href;
@@ -191,9 +337,7 @@ public class EpubBook {
      * @param content the EpubBook content - TOC, pages, files
      */
     public void addContent(Content content) {
-        checkContentId(content);
-        checkHref(content);
-        contents.add(content);
+        add(content, contents.size(), null);
     }
 
     /**
@@ -204,15 +348,360 @@ public class EpubBook {
      * @return boolean indicating if the content has been added
      */
     public boolean insertContent(Content content, int index) {
+        add(content, index, null);
+        return true;
+    }
+
+    /**
+     * Adds contents to the book in the order of the collection. The ids and
+     * hrefs are assigned in order, so the book is equal to one the contents
+     * were added to one by one. Only the hashes of deduplicated payloads are
+     * calculated in parallel, on the executor of the EpubWriter or the common
+     * pool if it has none, without deduplication the contents are added on
+     * the calling thread
+     *
+     * @param contents the contents to add
+     */
+    public void addContents(Collection<? extends Content> contents) {
+
+        List<Content> added = List.copyOf(contents);
+        List<String> hashes = null;
+
+        if (deduplicatePayloads) {
+            hashes = prepareAll(added, content -> content.isBuffered() && content.getContent() != null
+                    ? DataUtils.sha256(content.getContent())
+                    : null);
+        }
+
+        addAll(added, hashes);
+    }
+
+    /**
+     * Adds contents to the book in the encounter order of the stream, see
+     * {@link #addContents(Collection)}
+     *
+     * @param contents the contents to add
+     */
+    public void addContents(Stream<? extends Content> contents) {
+        addContents(contents.collect(Collectors.toList()));
+    }
+
+    /**
+     * Reads files into the book. The href of a content is the path of its
+     * file relative to the directory, the media type is derived from the
+     * file name. The contents are added in the order of the files, so the
+     * book is equal to one the files were added to one by one.
+     * <p>
+     * Files held on the heap are read ahead in parallel on the executor of
+     * the EpubWriter, or the common pool if it has none. At most twice the
+     * number of processors files are read ahead, and with a memory budget
+     * only as many as fit into the rest of the budget. Files which do not
+     * fit are copied to the spill store, if the book has a content arena
+     * all files are copied into it, both one by one when they are added. If
+     * a file can not be read, none of the files is added
+     *
+     * @param directory the directory the hrefs are relative to
+     * @param files     the files within the directory
+     * @param toc       flag whether the contents must be added to the TOC
+     * @param spine     flag whether the contents must be added to the spine
+     * @return the added contents
+     * @throws IOException if a file could not be read
+     */
+    public List<Content> addFiles(Path directory, Collection<Path> files, boolean toc, boolean spine) throws IOException {
+
+        Executor executor = epubCreator.getExecutor() != null ? epubCreator.getExecutor() : ForkJoinPool.commonPool();
+        int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        boolean hash = deduplicatePayloads && contentArena == null;
+
+        List<Content> added = new ArrayList<>(files.size());
+        Deque<PendingFile> pending = new ArrayDeque<>();
+
+        // Bytes of the files read ahead, which are not accounted yet
+        long reading = 0;
+
+        contents.ensureCapacity(contents.size() + files.size());
+
+        try {
+            for (Path file : files) {
+
+                if (pending.size() >= maxPending) {
+                    reading -= addFile(pending.poll(), toc, spine, added);
+                }
+
+                String href = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                long size = memoryBudget >= 0 ? Files.size(file) : 0;
+
+                if (contentArena != null || memoryBudget >= 0 && retainedBytes + reading + size > memoryBudget) {
+                    pending.add(new PendingFile(file, href, null, 0));
+                    continue;
+                }
+
+                CompletableFuture<ReadFile> future = CompletableFuture.supplyAsync(() -> {
+
+                    try {
+                        byte[] data = Files.readAllBytes(file);
+                        return new ReadFile(data, hash ? DataUtils.sha256(data) : null);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not read " + file, e);
+                    }
+                }, executor);
+
+                pending.add(new PendingFile(file, href, future, size));
+                reading += size;
+            }
+
+            while (!pending.isEmpty()) {
+                addFile(pending.poll(), toc, spine, added);
+            }
+
+        } catch (IOException | RuntimeException e) {
+
+            for (PendingFile file : pending) {
+                if (file.future != null) {
+                    file.future.cancel(false);
+                }
+            }
+
+            for (Content content : added) {
+                removeContent(content);
+            }
+
+            throw e;
+        }
+
+        return added;
+    }
+
+    /**
+     * Adds a file read ahead or copies it into the content arena or the spill
+     * store
+     *
+     * @return the bytes of the file which have been read ahead
+     */
+    private long addFile(PendingFile file, boolean toc, boolean spine, List<Content> added) throws IOException {
+
+        String mediaType = MediaTypeUtil.getMediaTypeFromFilename(file.href);
+        Content content;
+        String hash = null;
+
+        if (file.future != null) {
+
+            ReadFile readFile;
+
+            try {
+                readFile = file.future.join();
+            } catch (CompletionException e) {
+
+                if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                    throw uncheckedIOException.getCause();
+                }
+
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+
+                throw e;
+            }
+
+            content = new Content(mediaType, file.href, readFile.data);
+            hash = readFile.hash;
+
+        } else {
+
+            try (InputStream in = Files.newInputStream(file.path)) {
+                content = new Content(mediaType, file.href,
+                        contentArena != null ? contentArena.store(in) : getSpillStore().store(in));
+            }
+        }
+
+        content.setToc(toc);
+        content.setSpine(spine);
+
+        add(content, contents.size(), hash);
+        added.add(content);
+
+        return file.size;
+    }
+
+    /**
+     * Applies the preparer to all items on the executor of the EpubWriter, or
+     * the common pool if it has none, and returns the results in the order of
+     * the items
+     */
+    private <T, R> List<R> prepareAll(List<T> items, Function<? super T, ? extends R> preparer) {
+
+        Executor executor = epubCreator.getExecutor() != null ? epubCreator.getExecutor() : ForkJoinPool.commonPool();
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+
+        for (T item : items) {
+            futures.add(CompletableFuture.supplyAsync(() -> preparer.apply(item), executor));
+        }
+
+        List<R> results = new ArrayList<>(items.size());
+
+        try {
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+
+            futures.forEach(future -> future.cancel(false));
+
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+
+            throw e;
+        }
+
+        return results;
+    }
+
+    /**
+     * Adds prepared contents in order
+     *
+     * @param hashes the hashes of the payloads of the contents, null if they
+     *               are not deduplicated
+     */
+    private void addAll(List<Content> added, List<String> hashes) {
+
+        contents.ensureCapacity(contents.size() + added.size());
+
+        for (int i = 0; i < added.size(); i++) {
+            add(added.get(i), contents.size(), hashes == null ? null : hashes.get(i));
+        }
+    }
+
+    /**
+     * Checks the id and href of a content and adds it at the index
+     *
+     * @param hash the hash of the payload if already known, otherwise null
+     */
+    private void add(Content content, int index, String hash) {
+
+        ContentAddedEvent event = new ContentAddedEvent();
+        event.begin();
+
         checkContentId(content);
         checkHref(content);
+        retain(content, hash);
         contents.add(index, content);
-        return true;
+
+        commit(event, content);
+    }
+
+    /**
+     * Accounts the payload of a content held on the heap against the memory
+     * budget. A payload exceeding the budget is moved to the spill store. If
+     * payloads are deduplicated, a payload equal to an interned one is
+     * replaced by it and not accounted again
+     */
+    private void retain(Content content, String hash) {
+
+        if (!content.isBuffered() || content.getContent() == null) {
+            return;
+        }
+
+        byte[] data = content.getContent();
+
+        if (deduplicatePayloads) {
+
+            if (hash == null) {
+                hash = DataUtils.sha256(data);
+            }
+
+            RetainedPayload payload = payloads.get(hash);
+
+            if (payload != null) {
+                content.setContent(payload.data);
+                deduplicatedBytes += data.length;
+                reference(content, payload);
+                return;
+            }
+        }
+
+        long bytes = 0;
+
+        if (memoryBudget >= 0) {
+
+            if (retainedBytes + data.length > memoryBudget) {
+
+                try {
+                    content.setSource(getSpillStore().store(data));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not spill content " + content.getHref(), e);
+                }
+
+                return;
+            }
+
+            bytes = data.length;
+            retainedBytes += bytes;
+        }
+
+        if (deduplicatePayloads) {
+            RetainedPayload payload = new RetainedPayload(hash, data, bytes);
+            payloads.put(hash, payload);
+            reference(content, payload);
+        } else if (bytes > 0) {
+            reference(content, new RetainedPayload(null, data, bytes));
+        }
+    }
+
+    private void reference(Content content, RetainedPayload payload) {
+        payload.references++;
+        retainedPayloads.put(content, payload);
     }
 
     /**
-     * Wraps a String in the HTML wrapper and adds create a content object that
-     * is added to the content list. Returns null if the href is not unique
+     * Releases the share of a content leaving the book in its payload. The
+     * last content sharing a payload subtracts it from the retained bytes and
+     * removes it from the interned payloads
+     */
+    private void removed(Content content) {
+
+        if (replacingContents) {
+            return;
+        }
+
+        RetainedPayload payload = retainedPayloads.remove(content);
+
+        if (payload == null || --payload.references > 0) {
+            return;
+        }
+
+        retainedBytes -= payload.bytes;
+
+        if (payload.hash != null) {
+            payloads.remove(payload.hash, payload);
+        }
+    }
+
+    /**
+     * Commits the flight recorder event of an added content
+     */
+    private void commit(ContentAddedEvent event, Content content) {
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.bookId = id;
+            event.href = content.getHref();
+            event.mediaType = content.getMediaType();
+
+            if (!content.isBuffered()) {
+                event.bytes = -1;
+            } else if (content.getContent() != null) {
+                event.bytes = content.getContent().length;
+            }
+
+            event.commit();
+        }
+    }
+
+    /**
+     * Wraps a String in the text template and adds create a content object
+     * that is added to the content list
      *
      * @param title   the title of the page
      * @param href    used as unique link
@@ -220,9 +709,67 @@ public class EpubBook {
      * @return the Content object generated from the text
      */
     public Content addTextContent(String title, String href, String content) {
+        return addTextContent(title, href, (CharSequence) content);
+    }
+
+    /**
+     * Wraps a text in the text template and adds it as content. The document
+     * is encoded to UTF-8 directly
+     *
+     * @param title   the title of the page
+     * @param href    used as unique link
+     * @param content text content to be added
+     * @return the Content object generated from the text
+     */
+    public Content addTextContent(String title, String href, CharSequence content) {
+        return addTextDocument(href, textTemplate.render(title, content));
+    }
+
+    /**
+     * Wraps a text read from a Reader in the text template and adds it as
+     * content. The text is encoded to UTF-8 while it is read, so it is never
+     * held as a single String
+     *
+     * @param title   the title of the page
+     * @param href    used as unique link
+     * @param content the reader of the text content, it is read to the end
+     *                but not closed
+     * @return the Content object generated from the text
+     * @throws IOException if the text could not be read
+     */
+    public Content addTextContent(String title, String href, Reader content) throws IOException {
+        return addTextDocument(href, textTemplate.render(title, content));
+    }
+
+    private Content addTextDocument(String href, byte[] document) {
+
+        href = checkHref(href);
+
+        Content textContent = contentArena != null
+                ? new Content("application/xhtml+xml", href, contentArena.store(document))
+                : new Content("application/xhtml+xml", href, document);
+        addContent(textContent);
+        return textContent;
+    }
+
+    /**
+     * Wraps the output of a generator in the text template and adds it as
+     * content. The generator is called when the book is written and renders
+     * the body directly into the zip entry
+     *
+     * @param title     the title of the page
+     * @param href      used as unique link
+     * @param generator writes the body of the page, it must not close the
+     *                  stream
+     * @return the Content object generated from the text
+     */
+    public Content addTextContent(String title, String href, ContentSource generator) {
+
         href = checkHref(href);
-        String contentString = MessageFormat.format(EpubConstants.HTML_WRAPPER, title, content);
-        Content textContent = new Content("application/xhtml+xml", href, contentString.getBytes());
+
+        XhtmlTemplate template = textTemplate;
+        Content textContent = new Content("application/xhtml+xml", href, out -> template.writeTo(out, title, generator));
+
         addContent(textContent);
         return textContent;
     }
@@ -238,7 +785,9 @@ public class EpubBook {
      * @return a reference to the newly created Content object
      */
     public Content addContent(byte[] contents, String mediaType, String href, boolean toc, boolean spine) {
-        Content content = new Content(mediaType, href, contents);
+        Content content = contentArena != null
+                ? new Content(mediaType, href, contentArena.store(contents))
+                : new Content(mediaType, href, contents);
         content.setToc(toc);
         content.setSpine(spine);
         addContent(content);
@@ -259,7 +808,16 @@ public class EpubBook {
      */
     public Content addContent(InputStream contents, String mediaType, String href, boolean toc, boolean spine) throws IOException {
 
-        Content content = new Content(mediaType, href, contents);
+        Content content;
+
+        if (contentArena != null) {
+            content = new Content(mediaType, href, contentArena.store(contents));
+        } else if (memoryBudget >= 0 && retainedBytes >= memoryBudget) {
+            // The budget is exhausted, so the stream is copied to disk without buffering it
+            content = new Content(mediaType, href, getSpillStore().store(contents));
+        } else {
+            content = new Content(mediaType, href, contents);
+        }
 
         content.setToc(toc);
         content.setSpine(spine);
@@ -269,13 +827,54 @@ public class EpubBook {
         return content;
     }
 
+    /**
+     * Creates and adds file Content to the book. The file is not read before
+     * the book is written
+     *
+     * @param path      the file containing the content
+     * @param mediaType the mime type
+     * @param href      used as unique link
+     * @param toc       flag whether it must be added to the TOC
+     * @param spine     flag whether it must be added to the spine
+     * @return a reference to the newly created Content object
+     */
+    public Content addContent(Path path, String mediaType, String href, boolean toc, boolean spine) {
+        return addContent(ContentSource.ofPath(path), mediaType, href, toc, spine);
+    }
+
+    /**
+     * Creates and adds Content to the book whose payload is streamed from the
+     * source when the book is written
+     *
+     * @param source    the source of the content
+     * @param mediaType the mime type
+     * @param href      used as unique link
+     * @param toc       flag whether it must be added to the TOC
+     * @param spine     flag whether it must be added to the spine
+     * @return a reference to the newly created Content object
+     */
+    public Content addContent(ContentSource source, String mediaType, String href, boolean toc, boolean spine) {
+        Content content = new Content(mediaType, href, source);
+        content.setToc(toc);
+        content.setSpine(spine);
+        addContent(content);
+        return content;
+    }
+
     /**
      * Checks if Content object has an id and adds a unique if not
      */
     private void checkContentId(Content content) {
 
         if (content.getId() == null) {
-            content.setId("uid-" + id.replaceAll("[^a-zA-Z0-9\\-]", "_") + "_" + (contentId++));
+
+            // The sanitized book id is cached, as it is the same for every content
+            if (uidPrefix == null || !id.equals(uidPrefixId)) {
+                uidPrefix = "uid-" + INVALID_ID_CHARACTERS.matcher(id).replaceAll("_") + "_";
+                uidPrefixId = id;
+            }
+
+            content.setId(uidPrefix + (contentId++));
         }
     }
 
@@ -289,7 +888,9 @@ public class EpubBook {
     public void addCoverImage(byte[] coverImage, String mediaType, String href) {
 
         // Set cover image
-        Content cover = new Content(mediaType, href, coverImage);
+        Content cover = contentArena != null
+                ? new Content(mediaType, href, contentArena.store(coverImage))
+                : new Content(mediaType, href, coverImage);
         cover.setProperties("cover-image");
         cover.setSpine(false);
         addContent(cover);
@@ -303,23 +904,206 @@ public class EpubBook {
     }
 
     /**
-     * Creates the EPUB zip container and writes it to the OutputStream
+     * Creates the EPUB zip container and writes it to the OutputStream.
+     * The storage of the book is released afterwards
      *
      * @param out the OutputStream
      * @throws IOException if the content can not be zipped and written
      */
     public void writeToStream(OutputStream out) throws IOException {
-        epubCreator.writeEpubToStream(this, out);
+
+        try {
+            epubCreator.writeEpubToStream(this, out);
+        } finally {
+            releaseStorage();
+        }
     }
 
     /**
-     * Creates the EPUB zip container and writes it to the File
+     * Creates the EPUB zip container and writes it to the channel, the
+     * channel is not closed. The storage of the book is released afterwards
+     *
+     * @param channel the channel
+     * @throws IOException if the content can not be zipped and written
+     */
+    public void writeToChannel(WritableByteChannel channel) throws IOException {
+
+        try {
+            epubCreator.writeEpubToChannel(this, channel);
+        } finally {
+            releaseStorage();
+        }
+    }
+
+    /**
+     * Compiles the book into an immutable snapshot, which can be written any
+     * number of times, also concurrently. Later changes of the book do not
+     * affect the snapshot
+     *
+     * @return the compiled book
+     * @throws IOException if the content can not be compressed
+     */
+    public CompiledEpub compile() throws IOException {
+        return epubCreator.compile(this);
+    }
+
+    /**
+     * Creates the EPUB zip container and writes it to the File.
+     * The storage of the book is released afterwards
      *
      * @param fileName to store as
      * @throws IOException if the content can not be zipped and stored
      */
     public void writeToFile(String fileName) throws IOException {
-        epubCreator.writeEpubToFile(this, fileName);
+
+        try {
+            epubCreator.writeEpubToFile(this, fileName);
+        } finally {
+            releaseStorage();
+        }
+    }
+
+    /**
+     * Releases the content arena and the spill store of the book. Contents
+     * stored in them can not be written afterwards
+     */
+    @Override
+    public void close() {
+        payloads.clear();
+        releaseStorage();
+    }
+
+    private void releaseStorage() {
+
+        if (contentArena != null) {
+            contentArena.close();
+        }
+
+        if (spillStore != null) {
+            spillStore.close();
+            spillStore = null;
+        }
+    }
+
+    /**
+     * @return the contentArena
+     */
+    public ContentArena getContentArena() {
+        return contentArena;
+    }
+
+    /**
+     * Sets the arena the payloads of added byte arrays, streams and texts are
+     * stored in instead of the heap. The arena is closed after the book has
+     * been written with writeToStream, writeToChannel or writeToFile, so the
+     * book can be written only once that way. To write it several times use
+     * the EpubWriter and close the arena afterwards
+     *
+     * @param contentArena the contentArena to set, null to store payloads on the heap
+     */
+    public void setContentArena(ContentArena contentArena) {
+        this.contentArena = contentArena;
+    }
+
+    /**
+     * @return the memoryBudget
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the maximum number of payload bytes the book holds on the heap.
+     * Payloads added once the budget is exhausted are written to a spill
+     * store of temporary files and streamed from there when the book is
+     * written. Only payloads added afterwards are accounted
+     *
+     * @param memoryBudget the memoryBudget to set, -1 for no limit
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the number of payload bytes of added contents held on the heap
+     */
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * @return the spillDirectory
+     */
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @param spillDirectory the directory the spill store is created in, null
+     *                       for the default temporary directory
+     */
+    public void setSpillDirectory(Path spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Returns the spill store of the book, it is created on first use
+     *
+     * @return the spill store
+     * @throws IOException if the store could not be created
+     */
+    public SpillStore getSpillStore() throws IOException {
+
+        if (spillStore == null) {
+            spillStore = spillDirectory == null ? new SpillStore() : new SpillStore(spillDirectory);
+        }
+
+        return spillStore;
+    }
+
+    /**
+     * @return the textTemplate
+     */
+    public XhtmlTemplate getTextTemplate() {
+        return textTemplate;
+    }
+
+    /**
+     * Sets the template text contents are wrapped in, it applies to contents
+     * added afterwards
+     *
+     * @param textTemplate the textTemplate to set
+     */
+    public void setTextTemplate(XhtmlTemplate textTemplate) {
+        this.textTemplate = Objects.requireNonNull(textTemplate, "textTemplate");
+    }
+
+    /**
+     * @return the deduplicatePayloads
+     */
+    public boolean isDeduplicatePayloads() {
+        return deduplicatePayloads;
+    }
+
+    /**
+     * Sets whether identical payloads are held only once. A payload added to
+     * the heap is looked up by its SHA-256 hash and replaced by an equal
+     * payload added before, so the contents share one byte array which the
+     * EpubWriter compresses only once. The shared array must not be changed
+     * afterwards. Payloads in the content arena or the spill store are not
+     * deduplicated
+     *
+     * @param deduplicatePayloads the deduplicatePayloads to set
+     */
+    public void setDeduplicatePayloads(boolean deduplicatePayloads) {
+        this.deduplicatePayloads = deduplicatePayloads;
+    }
+
+    /**
+     * @return the number of payload bytes saved by deduplicated payloads
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes;
     }
 
     /**
@@ -330,10 +1114,81 @@ public class EpubBook {
     }
 
     /**
+     * @return the contents as ContentList, indexed by id and href
+     */
+    public ContentList getContentList() {
+        return contents;
+    }
+
+    /**
+     * Replaces the contents of the book. The ids and hrefs of the contents
+     * are not checked. The payloads of contents which are not part of the
+     * new contents are released from the memory budget
+     *
      * @param contents the content to set
      */
     public void setContents(List<Content> contents) {
-        this.contents = contents;
+
+        List<Content> replacement = new ArrayList<>(contents);
+        Set<Content> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(replacement);
+
+        for (Content content : List.copyOf(this.contents)) {
+            if (!kept.contains(content)) {
+                removed(content);
+            }
+        }
+
+        replacingContents = true;
+
+        try {
+            this.contents.clear();
+        } finally {
+            replacingContents = false;
+        }
+
+        this.contents.addAll(replacement);
+    }
+
+    /**
+     * Returns the content with the id
+     *
+     * @param id the id of the content
+     * @return the content or null if there is none
+     */
+    public Content getContentById(String id) {
+        return contents.getById(id);
+    }
+
+    /**
+     * Returns the content with the href
+     *
+     * @param href the href of the content
+     * @return the content or null if there is none
+     */
+    public Content getContentByHref(String href) {
+        return contents.getByHref(href);
+    }
+
+    /**
+     * Removes a content from the book, its href may be used again afterwards
+     *
+     * @param content the content to remove
+     * @return true if the content has been removed
+     */
+    public boolean removeContent(Content content) {
+        return contents.remove(content);
+    }
+
+    /**
+     * Moves a content of the book to another position in the spine
+     *
+     * @param content the content to move
+     * @param index   the new position of the content
+     * @return false if the content is not part of the book
+     */
+    public boolean moveContent(Content content, int index) {
+        return contents.move(content, index);
     }
 
     /**
@@ -484,9 +1339,51 @@ public class EpubBook {
     }
 
     /**
-     * @return the uniqueHrefs
+     * @return an unmodifiable view of the hrefs of the contents
      */
     public Set<String> getUniqueHrefs() {
-        return uniqueHrefs;
+        return contents.getHrefs();
+    }
+
+    /**
+     * Payload held on the heap, shared by all contents with an interned
+     * payload
+     */
+    private static final class RetainedPayload {
+
+        /**
+         * Hash of the interned payload, null if it is not interned
+         */
+        private final String hash;
+
+        private final byte[] data;
+
+        /**
+         * Bytes accounted against the memory budget
+         */
+        private final long bytes;
+
+        /**
+         * Number of contents of the book holding the payload
+         */
+        private int references;
+
+        RetainedPayload(String hash, byte[] data, long bytes) {
+            this.hash = hash;
+            this.data = data;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * File of addFiles, read ahead if the future is set
+     */
+    private record PendingFile(Path path, String href, CompletableFuture<ReadFile> future, long size) {
+    }
+
+    /**
+     * Payload and hash of a file read ahead
+     */
+    private record ReadFile(byte[] data, String hash) {
     }
 }
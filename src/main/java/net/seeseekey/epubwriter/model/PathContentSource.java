@@ -0,0 +1,84 @@
+package net.seeseekey.epubwriter.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ContentSource backed by a file. The file is read when the book is written,
+ * so the payload never has to be buffered on the heap.
+ */
+public class PathContentSource implements ContentSource {
+
+    /**
+     * The file containing the payload
+     */
+    private final Path path;
+
+    /**
+     * Creates a new instance of PathContentSource
+     *
+     * @param path the file containing the payload
+     */
+    public PathContentSource(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        transferTo(Channels.newChannel(out));
+    }
+
+    /**
+     * Transfers the file into the channel using FileChannel.transferTo, which
+     * avoids copying through the heap where the platform supports it
+     *
+     * @param target the channel to write to
+     * @throws IOException if the file could not be transferred, an
+     *                     EOFException if it has been truncated meanwhile
+     */
+    @Override
+    public void transferTo(WritableByteChannel target) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+
+                long transferred = channel.transferTo(position, size - position, target);
+
+                if (transferred <= 0) {
+                    throw new EOFException("File " + path + " ended after " + position + " of " + size + " bytes");
+                }
+
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() throws IOException {
+        return Files.size(path);
+    }
+
+    /**
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+}
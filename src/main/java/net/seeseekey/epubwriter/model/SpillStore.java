@@ -0,0 +1,155 @@
+package net.seeseekey.epubwriter.model;
+
+import net.seeseekey.epubwriter.utils.Logging;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporary file store for payloads which do not fit into the memory budget
+ * of a book. Every payload is written to its own file in a temporary
+ * directory and streamed back when the book is written.
+ * <p>
+ * Closing the store deletes the files and the directory. The store is
+ * thread-safe.
+ */
+public class SpillStore implements Closeable {
+
+    private static final Logger log = Logging.getLogger();
+
+    /**
+     * The directory holding the files of the store
+     */
+    private final Path directory;
+
+    private final List<Path> files = new ArrayList<>();
+
+    private long bytes;
+
+    private boolean closed;
+
+    /**
+     * Creates a store in a new directory in the default temporary directory
+     *
+     * @throws IOException if the directory could not be created
+     */
+    public SpillStore() throws IOException {
+        this.directory = Files.createTempDirectory("epubwriter-");
+    }
+
+    /**
+     * Creates a store in a new directory below the parent directory
+     *
+     * @param parent the directory the store directory is created in
+     * @throws IOException if the directory could not be created
+     */
+    public SpillStore(Path parent) throws IOException {
+        Files.createDirectories(parent);
+        this.directory = Files.createTempDirectory(parent, "epubwriter-");
+    }
+
+    /**
+     * Writes data to a new file of the store
+     *
+     * @param data the data
+     * @return the source reading the file
+     * @throws IOException if the file could not be written
+     */
+    public PathContentSource store(byte[] data) throws IOException {
+
+        Path file = createFile();
+        Files.write(file, data);
+
+        return stored(file, data.length);
+    }
+
+    /**
+     * Copies a stream to a new file of the store. The stream is not closed
+     *
+     * @param in the stream
+     * @return the source reading the file
+     * @throws IOException if the stream could not be copied
+     */
+    public PathContentSource store(InputStream in) throws IOException {
+
+        Path file = createFile();
+        long length = Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+
+        return stored(file, length);
+    }
+
+    /**
+     * Deletes all files and the directory of the store. Files which can not
+     * be deleted are logged
+     */
+    @Override
+    public synchronized void close() {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        for (Path file : files) {
+            delete(file);
+        }
+
+        files.clear();
+        delete(directory);
+    }
+
+    /**
+     * @return the directory holding the files of the store
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of bytes written to the store
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of files in the store
+     */
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    private synchronized Path createFile() throws IOException {
+
+        if (closed) {
+            throw new IllegalStateException("Spill store is closed");
+        }
+
+        Path file = Files.createTempFile(directory, "content-", ".tmp");
+        files.add(file);
+
+        return file;
+    }
+
+    private synchronized PathContentSource stored(Path file, long length) {
+        bytes += length;
+        return new PathContentSource(file);
+    }
+
+    private static void delete(Path path) {
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete spilled content {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package net.seeseekey.epubwriter.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precompiled template of a XHTML document with a title and a body.
+ * <p>
+ * The pattern contains the placeholder {0} for the title and the placeholder
+ * {1} for the body, like {@link EpubConstants#HTML_WRAPPER}. Unlike
+ * MessageFormat the pattern is parsed only once and all other characters,
+ * quotes and braces included, are copied as they are. Documents are encoded
+ * to UTF-8 directly, the title and the body are never joined into a single
+ * String.
+ * <p>
+ * The XhtmlTemplate is immutable and thread-safe.
+ */
+public final class XhtmlTemplate {
+
+    /**
+     * Template of the HTML wrapper, which escapes the title and inserts the
+     * body as it is
+     */
+    public static final XhtmlTemplate DEFAULT = new XhtmlTemplate(EpubConstants.HTML_WRAPPER);
+
+    private static final String TITLE = "{0}";
+
+    private static final String BODY = "{1}";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] AMP = ascii("&amp;");
+
+    private static final byte[] LT = ascii("&lt;");
+
+    private static final byte[] GT = ascii("&gt;");
+
+    private static final byte[] QUOT = ascii("&quot;");
+
+    private static final byte[] APOS = ascii("&apos;");
+
+    /**
+     * How a value is inserted into the document
+     */
+    public enum Escaping {
+
+        /**
+         * The value is inserted as it is, so it must be well-formed XHTML
+         */
+        NONE,
+
+        /**
+         * The XML special characters of the value are escaped, so it is
+         * inserted as text
+         */
+        TEXT
+    }
+
+    private final Escaping titleEscaping;
+
+    private final Escaping bodyEscaping;
+
+    /**
+     * The encoded literals before the body, null entries stand for the title
+     */
+    private final List<byte[]> prefix;
+
+    /**
+     * The encoded literals after the body, null entries stand for the title
+     */
+    private final List<byte[]> suffix;
+
+    private final int literalLength;
+
+    /**
+     * Creates a template which escapes the title and inserts the body as it
+     * is
+     *
+     * @param pattern the pattern of the document
+     */
+    public XhtmlTemplate(String pattern) {
+        this(pattern, Escaping.TEXT, Escaping.NONE);
+    }
+
+    /**
+     * Creates a template
+     *
+     * @param pattern       the pattern of the document, it must contain the
+     *                      body placeholder exactly once
+     * @param titleEscaping how the title is inserted
+     * @param bodyEscaping  how the body is inserted
+     */
+    public XhtmlTemplate(String pattern, Escaping titleEscaping, Escaping bodyEscaping) {
+
+        int body = pattern.indexOf(BODY);
+
+        if (body < 0 || pattern.indexOf(BODY, body + BODY.length()) >= 0) {
+            throw new IllegalArgumentException("The pattern must contain the body placeholder " + BODY + " once");
+        }
+
+        this.titleEscaping = titleEscaping;
+        this.bodyEscaping = bodyEscaping;
+        this.prefix = parse(pattern.substring(0, body));
+        this.suffix = parse(pattern.substring(body + BODY.length()));
+        this.literalLength = pattern.length();
+    }
+
+    /**
+     * Splits a part of the pattern into encoded literals and title
+     * placeholders
+     */
+    private static List<byte[]> parse(String part) {
+
+        List<byte[]> segments = new ArrayList<>();
+        int start = 0;
+        int title;
+
+        while ((title = part.indexOf(TITLE, start)) >= 0) {
+
+            segments.add(part.substring(start, title).getBytes(StandardCharsets.UTF_8));
+            segments.add(null);
+            start = title + TITLE.length();
+        }
+
+        segments.add(part.substring(start).getBytes(StandardCharsets.UTF_8));
+
+        return segments;
+    }
+
+    /**
+     * Renders the document
+     *
+     * @param title the title, null for an empty title
+     * @param body  the body
+     * @return the UTF-8 encoded document
+     */
+    public byte[] render(String title, CharSequence body) {
+
+        Utf8Sink sink = new Utf8Sink(literalLength + length(title) * 2 + body.length() + 16, null);
+
+        try {
+            writeSegments(sink, prefix, title);
+            sink.write(body, 0, body.length(), bodyEscaping == Escaping.TEXT);
+            writeSegments(sink, suffix, title);
+        } catch (IOException e) {
+            // Not thrown, as the sink is not written to a stream
+            throw new UncheckedIOException(e);
+        }
+
+        return sink.toByteArray();
+    }
+
+    /**
+     * Renders the document, the body is read in chunks
+     *
+     * @param title the title, null for an empty title
+     * @param body  the body, it is read to the end but not closed
+     * @return the UTF-8 encoded document
+     * @throws IOException if the body could not be read
+     */
+    public byte[] render(String title, Reader body) throws IOException {
+
+        Utf8Sink sink = new Utf8Sink(BUFFER_SIZE, null);
+
+        writeSegments(sink, prefix, title);
+        writeBody(sink, body);
+        writeSegments(sink, suffix, title);
+
+        return sink.toByteArray();
+    }
+
+    /**
+     * Writes the document to a stream
+     *
+     * @param out   the stream, it is not closed
+     * @param title the title, null for an empty title
+     * @param body  the body
+     * @throws IOException if the document could not be written
+     */
+    public void writeTo(OutputStream out, String title, CharSequence body) throws IOException {
+
+        Utf8Sink sink = new Utf8Sink(BUFFER_SIZE, out);
+
+        writeSegments(sink, prefix, title);
+        sink.write(body, 0, body.length(), bodyEscaping == Escaping.TEXT);
+        writeSegments(sink, suffix, title);
+        sink.flush();
+    }
+
+    /**
+     * Writes the document to a stream, the body is read in chunks
+     *
+     * @param out   the stream, it is not closed
+     * @param title the title, null for an empty title
+     * @param body  the body, it is read to the end but not closed
+     * @throws IOException if the body could not be read or the document could
+     *                     not be written
+     */
+    public void writeTo(OutputStream out, String title, Reader body) throws IOException {
+
+        Utf8Sink sink = new Utf8Sink(BUFFER_SIZE, out);
+
+        writeSegments(sink, prefix, title);
+        writeBody(sink, body);
+        writeSegments(sink, suffix, title);
+        sink.flush();
+    }
+
+    /**
+     * Writes the document to a stream. The generator writes the encoded body,
+     * it is not escaped
+     *
+     * @param out       the stream, it is not closed
+     * @param title     the title, null for an empty title
+     * @param generator writes the body, it must not close the stream
+     * @throws IOException if the document could not be written
+     */
+    public void writeTo(OutputStream out, String title, ContentSource generator) throws IOException {
+
+        Utf8Sink sink = new Utf8Sink(BUFFER_SIZE, out);
+
+        writeSegments(sink, prefix, title);
+        sink.flush();
+        generator.writeTo(out);
+        writeSegments(sink, suffix, title);
+        sink.flush();
+    }
+
+    /**
+     * Returns a source which renders the document whenever it is written
+     *
+     * @param title the title, null for an empty title
+     * @param body  the body, it must not be changed until the source has been
+     *              written
+     * @return the source of the document
+     */
+    public ContentSource toSource(String title, CharSequence body) {
+        return out -> writeTo(out, title, body);
+    }
+
+    /**
+     * @return the titleEscaping
+     */
+    public Escaping getTitleEscaping() {
+        return titleEscaping;
+    }
+
+    /**
+     * @return the bodyEscaping
+     */
+    public Escaping getBodyEscaping() {
+        return bodyEscaping;
+    }
+
+    private void writeSegments(Utf8Sink sink, List<byte[]> segments, String title) throws IOException {
+
+        for (byte[] segment : segments) {
+
+            if (segment != null) {
+                sink.write(segment);
+            } else if (title != null) {
+                sink.write(title, 0, title.length(), titleEscaping == Escaping.TEXT);
+            }
+        }
+    }
+
+    /**
+     * Encodes the body read from the reader. A high surrogate at the end of a
+     * chunk is kept for the next chunk
+     */
+    private void writeBody(Utf8Sink sink, Reader body) throws IOException {
+
+        boolean escape = bodyEscaping == Escaping.TEXT;
+        char[] chars = new char[BUFFER_SIZE];
+        CharBuffer text = CharBuffer.wrap(chars);
+        int carry = 0;
+        int read;
+
+        while ((read = body.read(chars, carry, chars.length - carry)) != -1) {
+
+            int end = carry + read;
+            int limit = end > 0 && Character.isHighSurrogate(chars[end - 1]) ? end - 1 : end;
+
+            sink.write(text, 0, limit, escape);
+
+            carry = end - limit;
+
+            if (carry > 0) {
+                chars[0] = chars[end - 1];
+            }
+        }
+
+        sink.write(text, 0, carry, escape);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Buffer of UTF-8 encoded bytes, which either grows or is flushed to a
+     * stream when it is full
+     */
+    private static final class Utf8Sink {
+
+        private final OutputStream out;
+
+        private byte[] buffer;
+
+        private int length;
+
+        Utf8Sink(int capacity, OutputStream out) {
+            this.buffer = new byte[Math.max(capacity, 64)];
+            this.out = out;
+        }
+
+        void write(byte[] bytes) throws IOException {
+
+            if (out != null && bytes.length > buffer.length) {
+                flush();
+                out.write(bytes);
+                return;
+            }
+
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        /**
+         * Encodes the characters, unpaired surrogates are replaced by a
+         * question mark
+         */
+        void write(CharSequence text, int start, int end, boolean escape) throws IOException {
+
+            for (int i = start; i < end; i++) {
+
+                char c = text.charAt(i);
+
+                if (escape) {
+
+                    byte[] replacement = switch (c) {
+                        case '&' -> AMP;
+                        case '<' -> LT;
+                        case '>' -> GT;
+                        case '"' -> QUOT;
+                        case '\'' -> APOS;
+                        default -> null;
+                    };
+
+                    if (replacement != null) {
+                        write(replacement);
+                        continue;
+                    }
+                }
+
+                ensure(4);
+
+                if (c < 0x80) {
+                    buffer[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[length++] = (byte) (0xC0 | c >> 6);
+                    buffer[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+                } else if (Character.isSurrogate(c)) {
+                    buffer[length++] = '?';
+                } else {
+                    buffer[length++] = (byte) (0xE0 | c >> 12);
+                    buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    buffer[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+        }
+
+        void flush() throws IOException {
+
+            if (length > 0) {
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+
+        byte[] toByteArray() {
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+
+        private void ensure(int count) throws IOException {
+
+            if (length + count <= buffer.length) {
+                return;
+            }
+
+            if (out != null) {
+                flush();
+            } else {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+        }
+    }
+}
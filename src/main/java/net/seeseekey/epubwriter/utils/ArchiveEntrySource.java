@@ -0,0 +1,72 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.ContentSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ContentSource reading an entry of an existing zip archive. EpubWriter copies
+ * the compressed data of such an entry verbatim instead of recompressing it.
+ */
+class ArchiveEntrySource implements ContentSource {
+
+    private final ZipArchiveReader reader;
+
+    private final ZipArchiveReader.Entry entry;
+
+    ArchiveEntrySource(ZipArchiveReader reader, ZipArchiveReader.Entry entry) {
+        this.reader = reader;
+        this.entry = entry;
+    }
+
+    /**
+     * Writes the uncompressed data of the entry
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+
+        try (InputStream in = reader.openStream(entry)) {
+            in.transferTo(out);
+        }
+    }
+
+    @Override
+    public long getLength() {
+        return entry.getSize();
+    }
+
+    /**
+     * @return the entry in the archive
+     */
+    ZipArchiveReader.Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Returns a source of the raw compressed data of the entry
+     */
+    ContentSource raw() {
+
+        return new ContentSource() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                reader.transferRawTo(entry, Channels.newChannel(out));
+            }
+
+            @Override
+            public void transferTo(WritableByteChannel target) throws IOException {
+                reader.transferRawTo(entry, target);
+            }
+
+            @Override
+            public long getLength() {
+                return entry.getCompressedSize();
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Sequential WritableByteChannel on top of an AsynchronousFileChannel. Each
+ * write is issued at the current position, a write only waits for the
+ * previous one, so compression and file IO overlap.
+ */
+class AsynchronousFileChannelWriter implements WritableByteChannel {
+
+    private final AsynchronousFileChannel channel;
+
+    private long position;
+
+    /**
+     * Data of the write in progress, owned by the channel until it completes
+     */
+    private ByteBuffer pending;
+
+    private Future<Integer> pendingWrite;
+
+    /**
+     * Two copy buffers used alternately, one is written while the other is
+     * filled
+     */
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+
+    private int nextBuffer;
+
+    AsynchronousFileChannelWriter(AsynchronousFileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+
+        int length = src.remaining();
+
+        // The caller reuses its buffer, so the data is copied for the asynchronous write
+        ByteBuffer copy = buffers[nextBuffer];
+
+        if (copy == null || copy.capacity() < length) {
+            copy = ByteBuffer.allocateDirect(Math.max(length, BufferPool.DEFAULT_BUFFER_SIZE));
+            buffers[nextBuffer] = copy;
+        }
+
+        copy.clear();
+        copy.put(src).flip();
+        nextBuffer ^= 1;
+
+        awaitPendingWrite();
+
+        pending = copy;
+        pendingWrite = channel.write(pending, position);
+
+        return length;
+    }
+
+    /**
+     * Waits until all data has been written
+     *
+     * @return the position behind the written data
+     */
+    long finish() throws IOException {
+        awaitPendingWrite();
+        return position;
+    }
+
+    private void awaitPendingWrite() throws IOException {
+
+        while (pendingWrite != null) {
+
+            try {
+                position += pendingWrite.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ioException ? ioException : new IOException(e.getCause());
+            }
+
+            pendingWrite = pending.hasRemaining() ? channel.write(pending, position) : null;
+        }
+
+        pending = null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() {
+        // The channel is owned by the caller
+    }
+}
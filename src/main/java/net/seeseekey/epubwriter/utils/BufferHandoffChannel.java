@@ -0,0 +1,29 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channel which takes over the buffers of a ZipArchiveWriter instead of
+ * copying them. The archive fills buffers provided by the channel and hands
+ * each one over once it is full, prepared entry data is handed over as a
+ * read-only view. Only data the archive does not own, like entries copied
+ * from another archive, is passed to write.
+ */
+interface BufferHandoffChannel extends WritableByteChannel {
+
+    /**
+     * @return an empty heap buffer for the archive to fill
+     */
+    ByteBuffer nextBuffer();
+
+    /**
+     * Takes over a buffer, flipped for reading. The archive does not access
+     * the buffer afterwards
+     *
+     * @param buffer the buffer
+     * @throws IOException if the buffer can not be taken over
+     */
+    void handoff(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,151 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of direct ByteBuffers of a fixed size, used for the write
+ * buffers of the zip archives. Direct buffers are freed only after garbage
+ * collection, reusing them keeps the native memory of many writes flat.
+ * <p>
+ * Released buffers are cleared and kept while fewer than maxIdle buffers are
+ * idle. A pool with maxIdle 0 does not pool at all. The pool is thread-safe
+ * and can be shared by several EpubWriter instances.
+ */
+public class BufferPool {
+
+    /**
+     * Default size of the buffers, large enough for any zip header
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+
+    private final Queue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final int bufferSize;
+
+    private final int maxIdle;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * Creates a pool of buffers of the default size, keeping at most two idle
+     * buffers per available processor
+     */
+    public BufferPool() {
+        this(DEFAULT_BUFFER_SIZE, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param bufferSize the size of the buffers, at least DEFAULT_BUFFER_SIZE
+     * @param maxIdle    the maximum number of idle buffers
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+
+        if (bufferSize < DEFAULT_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at least " + DEFAULT_BUFFER_SIZE + " bytes");
+        }
+
+        this.bufferSize = bufferSize;
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    /**
+     * Returns a cleared buffer, either an idle one or a new one. It must be
+     * released afterwards
+     *
+     * @return the buffer
+     */
+    public ByteBuffer acquire() {
+
+        ByteBuffer buffer = idle.poll();
+        inUse.incrementAndGet();
+
+        if (buffer != null) {
+            idleCount.decrementAndGet();
+            reused.incrementAndGet();
+            return buffer;
+        }
+
+        created.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. It must not be used afterwards
+     *
+     * @param buffer the buffer
+     */
+    public void release(ByteBuffer buffer) {
+
+        inUse.decrementAndGet();
+
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            discarded.incrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    /**
+     * @return the bufferSize
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return the maxIdle
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @return the number of buffers created by the pool
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of times an idle buffer has been reused
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * @return the number of released buffers which have been dropped as the
+     * pool was full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * @return the number of acquired buffers which have not been released
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return the number of idle buffers
+     */
+    public int getIdle() {
+        return idleCount.get();
+    }
+}
@@ -0,0 +1,217 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.api.EpubWriteListener;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report of a single write of a book, created by the BuildReportCollector.
+ * It holds the totals of all entries, the duration of each phase and the
+ * slowest entries.
+ */
+public final class BuildReport {
+
+    private final String bookId;
+
+    private final long bytes;
+
+    private final long nanos;
+
+    private final int entryCount;
+
+    private final long size;
+
+    private final long compressedSize;
+
+    private final long compressionNanos;
+
+    private final long writeNanos;
+
+    private final Map<EpubWriteListener.Phase, Long> phaseNanos;
+
+    private final List<EpubWriteListener.Entry> slowestEntries;
+
+    BuildReport(String bookId, long bytes, long nanos, int entryCount, long size, long compressedSize,
+                long compressionNanos, long writeNanos, Map<EpubWriteListener.Phase, Long> phaseNanos,
+                List<EpubWriteListener.Entry> slowestEntries) {
+
+        this.bookId = bookId;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.entryCount = entryCount;
+        this.size = size;
+        this.compressedSize = compressedSize;
+        this.compressionNanos = compressionNanos;
+        this.writeNanos = writeNanos;
+        this.phaseNanos = Collections.unmodifiableMap(new EnumMap<>(phaseNanos));
+        this.slowestEntries = List.copyOf(slowestEntries);
+    }
+
+    /**
+     * @return the id of the book
+     */
+    public String getBookId() {
+        return bookId;
+    }
+
+    /**
+     * @return the size of the written EPUB
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the duration of the whole write
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the number of zip entries
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the uncompressed size of all entries
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the size of all entries in the archive
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return the compressed size of all entries relative to their
+     * uncompressed size
+     */
+    public double getCompressionRatio() {
+        return size == 0 ? 1.0 : (double) compressedSize / size;
+    }
+
+    /**
+     * @return the time spent compressing entries ahead of writing them, on
+     * all threads
+     */
+    public long getCompressionNanos() {
+        return compressionNanos;
+    }
+
+    /**
+     * @return the time spent writing entries
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return the duration of each phase which took place
+     */
+    public Map<EpubWriteListener.Phase, Long> getPhaseNanos() {
+        return phaseNanos;
+    }
+
+    /**
+     * @return the slowest entries, the slowest first
+     */
+    public List<EpubWriteListener.Entry> getSlowestEntries() {
+        return slowestEntries;
+    }
+
+    /**
+     * Returns the report as JSON object
+     *
+     * @return the JSON representation
+     */
+    public String toJson() {
+
+        StringBuilder json = new StringBuilder(512 + slowestEntries.size() * 160);
+
+        json.append("{\"bookId\":");
+        appendString(json, bookId);
+        json.append(",\"bytes\":").append(bytes)
+                .append(",\"nanos\":").append(nanos)
+                .append(",\"entryCount\":").append(entryCount)
+                .append(",\"size\":").append(size)
+                .append(",\"compressedSize\":").append(compressedSize)
+                .append(",\"compressionRatio\":").append(getCompressionRatio())
+                .append(",\"compressionNanos\":").append(compressionNanos)
+                .append(",\"writeNanos\":").append(writeNanos)
+                .append(",\"phases\":{");
+
+        String separator = "";
+
+        for (Map.Entry<EpubWriteListener.Phase, Long> phase : phaseNanos.entrySet()) {
+            json.append(separator).append('"').append(phase.getKey()).append("\":").append(phase.getValue());
+            separator = ",";
+        }
+
+        json.append("},\"slowestEntries\":[");
+        separator = "";
+
+        for (EpubWriteListener.Entry entry : slowestEntries) {
+
+            json.append(separator).append("{\"name\":");
+            appendString(json, entry.name());
+            json.append(",\"mediaType\":");
+            appendString(json, entry.mediaType());
+            json.append(",\"compressed\":").append(entry.compressed())
+                    .append(",\"size\":").append(entry.size())
+                    .append(",\"compressedSize\":").append(entry.compressedSize())
+                    .append(",\"compressionNanos\":").append(entry.compressionNanos())
+                    .append(",\"writeNanos\":").append(entry.writeNanos())
+                    .append('}');
+            separator = ",";
+        }
+
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char character = value.charAt(i);
+
+            switch (character) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (character < 0x20) {
+                        json.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        json.append(character);
+                    }
+                }
+            }
+        }
+
+        json.append('"');
+    }
+}
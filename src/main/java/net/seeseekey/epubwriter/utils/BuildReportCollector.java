@@ -0,0 +1,231 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.api.EpubWriteListener;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * EpubWriteListener which collects a BuildReport for every written book.
+ * <p>
+ * Finished reports are handed to a consumer, e.g. to log or export them.
+ * Without a consumer the report of the last write of each book is kept until
+ * it is taken. Reports of failed writes are dropped. The collector is
+ * thread-safe and can be attached to an EpubWriter shared by many threads.
+ */
+public class BuildReportCollector implements EpubWriteListener {
+
+    private static final Logger log = Logging.getLogger();
+
+    /**
+     * Reports of the writes in progress by write id
+     */
+    private final Map<Long, ReportBuilder> builders = new ConcurrentHashMap<>();
+
+    /**
+     * Finished reports by book id, only used without consumer
+     */
+    private final Map<String, BuildReport> reports = new ConcurrentHashMap<>();
+
+    private final Consumer<BuildReport> consumer;
+
+    /**
+     * Number of slowest entries in a report
+     */
+    private volatile int maxSlowestEntries = 10;
+
+    /**
+     * Creates a collector which keeps the reports until they are taken
+     */
+    public BuildReportCollector() {
+        this(null);
+    }
+
+    /**
+     * Creates a collector which hands every report to the consumer and keeps
+     * none of them
+     *
+     * @param consumer the consumer of the reports, called on the writing thread
+     */
+    public BuildReportCollector(Consumer<BuildReport> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Returns and removes the report of the last write of a book
+     *
+     * @param bookId the id of the book
+     * @return the report or null if there is none
+     */
+    public BuildReport takeReport(String bookId) {
+        return reports.remove(bookId);
+    }
+
+    /**
+     * @return the reports which have not been taken yet
+     */
+    public List<BuildReport> getReports() {
+        return new ArrayList<>(reports.values());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bookStarted(long writeId, String bookId) {
+        builders.put(writeId, new ReportBuilder(bookId, maxSlowestEntries));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bookFinished(long writeId, long bytes, long nanos) {
+
+        ReportBuilder builder = builders.remove(writeId);
+
+        if (builder == null) {
+            return;
+        }
+
+        BuildReport report = builder.build(bytes, nanos);
+
+        if (consumer != null) {
+            consumer.accept(report);
+        } else if (report.getBookId() != null) {
+            reports.put(report.getBookId(), report);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bookFailed(long writeId, Throwable failure) {
+
+        ReportBuilder builder = builders.remove(writeId);
+
+        if (builder != null) {
+            log.debug("Dropping build report of book {}, writing failed", builder.bookId, failure);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void phaseFinished(long writeId, Phase phase, long nanos) {
+
+        ReportBuilder builder = builders.get(writeId);
+
+        if (builder != null) {
+            builder.addPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void entryWritten(long writeId, Entry entry) {
+
+        ReportBuilder builder = builders.get(writeId);
+
+        if (builder != null) {
+            builder.addEntry(entry);
+        }
+    }
+
+    /**
+     * @return the maxSlowestEntries
+     */
+    public int getMaxSlowestEntries() {
+        return maxSlowestEntries;
+    }
+
+    /**
+     * Sets the number of slowest entries kept in a report, applies to books
+     * started afterwards
+     *
+     * @param maxSlowestEntries the maxSlowestEntries to set
+     */
+    public void setMaxSlowestEntries(int maxSlowestEntries) {
+        this.maxSlowestEntries = Math.max(0, maxSlowestEntries);
+    }
+
+    /**
+     * Collects the events of one write. Entries of one write are signalled by
+     * the writing thread only, phases as well, so the builder is confined to
+     * that thread
+     */
+    private static class ReportBuilder {
+
+        private static final Comparator<Entry> BY_NANOS = Comparator.comparingLong(Entry::nanos);
+
+        private final String bookId;
+
+        private final int maxSlowestEntries;
+
+        private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+
+        /**
+         * The slowest entries, the fastest of them at the head
+         */
+        private final PriorityQueue<Entry> slowestEntries = new PriorityQueue<>(BY_NANOS);
+
+        private int entryCount;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long compressionNanos;
+
+        private long writeNanos;
+
+        ReportBuilder(String bookId, int maxSlowestEntries) {
+            this.bookId = bookId;
+            this.maxSlowestEntries = maxSlowestEntries;
+        }
+
+        void addPhase(Phase phase, long nanos) {
+            phaseNanos.merge(phase, nanos, Long::sum);
+        }
+
+        void addEntry(Entry entry) {
+
+            entryCount++;
+            size += entry.size();
+            compressedSize += entry.compressedSize();
+            compressionNanos += entry.compressionNanos();
+            writeNanos += entry.writeNanos();
+
+            if (maxSlowestEntries == 0) {
+                return;
+            }
+
+            if (slowestEntries.size() < maxSlowestEntries) {
+                slowestEntries.add(entry);
+            } else if (BY_NANOS.compare(entry, slowestEntries.peek()) > 0) {
+                slowestEntries.poll();
+                slowestEntries.add(entry);
+            }
+        }
+
+        BuildReport build(long bytes, long nanos) {
+
+            List<Entry> slowest = new ArrayList<>(slowestEntries);
+            slowest.sort(BY_NANOS.reversed());
+
+            return new BuildReport(bookId, bytes, nanos, entryCount, size, compressedSize, compressionNanos,
+                    writeNanos, phaseNanos, slowest);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Immutable snapshot of an EpubBook, created by {@link EpubWriter#compile}.
+ * <p>
+ * The OPF, the navigation document and the compressed in memory content are
+ * generated once, writing the snapshot only copies them into the zip
+ * container. Any number of threads may write the snapshot at the same time.
+ * Content with a source is read again for every write, so the source must
+ * stay available and repeatable as long as the snapshot is used.
+ */
+public final class CompiledEpub {
+
+    private final EpubWriter epubWriter;
+
+    private final String bookId;
+
+    private final String opf;
+
+    private final Content navigation;
+
+    /**
+     * The zip entries behind the mimetype in archive order
+     */
+    private final List<Entry> entries;
+
+    CompiledEpub(EpubWriter epubWriter, String bookId, String opf, Content navigation, List<Entry> entries) {
+        this.epubWriter = epubWriter;
+        this.bookId = bookId;
+        this.opf = opf;
+        this.navigation = navigation;
+        this.entries = List.copyOf(entries);
+    }
+
+    /**
+     * Writes the EPUB zip container to a file
+     *
+     * @param fileName name of the file to be written
+     * @throws IOException if file could not be written
+     */
+    public void writeToFile(String fileName) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Path.of(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeToChannel(channel);
+        }
+    }
+
+    /**
+     * Writes the EPUB zip container to an OutputStream. The OutputStream is
+     * closed afterwards
+     *
+     * @param out the OutputStream to write to
+     * @throws IOException if the EPUB could not be written
+     */
+    public void writeToStream(OutputStream out) throws IOException {
+
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeToChannel(channel);
+        }
+    }
+
+    /**
+     * Writes the EPUB zip container to a channel. The channel is not closed
+     *
+     * @param channel the channel to write to
+     * @throws IOException if the EPUB could not be written
+     */
+    public void writeToChannel(WritableByteChannel channel) throws IOException {
+
+        WriteObserver observer = WriteObserver.start(epubWriter.getWriteListener(), bookId);
+        ZipArchiveWriter archive = epubWriter.createArchive(channel, observer);
+
+        try {
+            epubWriter.addMimeType(archive);
+
+            for (Entry entry : entries) {
+
+                if (entry.prepared != null) {
+                    epubWriter.writeEntry(archive, entry.prepared, entry.mediaType, 0);
+                } else {
+                    epubWriter.addStreamedContent(archive, entry.name, entry.mediaType, entry.source);
+                }
+            }
+
+            epubWriter.finish(archive);
+
+        } catch (IOException | RuntimeException e) {
+            observer.failed(e);
+            throw e;
+        } finally {
+            archive.release();
+        }
+    }
+
+    /**
+     * @return the generated OPF
+     */
+    public String getOpf() {
+        return opf;
+    }
+
+    /**
+     * @return a copy of the generated navigation document
+     */
+    public Content getNavigation() {
+
+        Content copy = navigation.isBuffered()
+                ? new Content(navigation.getMediaType(), navigation.getHref(), navigation.getContent().clone())
+                : new Content(navigation.getMediaType(), navigation.getHref(), navigation.getSource());
+
+        copy.setId(navigation.getId());
+        copy.setProperties(navigation.getProperties());
+        copy.setToc(navigation.isToc());
+        copy.setSpine(navigation.isSpine());
+        copy.setLinear(navigation.isLinear());
+
+        return copy;
+    }
+
+    /**
+     * A zip entry which is either already compressed or streamed from a
+     * source
+     */
+    static final class Entry {
+
+        private final PreparedEntry prepared;
+
+        private final String name;
+
+        private final String mediaType;
+
+        private final ContentSource source;
+
+        Entry(PreparedEntry prepared, String mediaType) {
+            this.prepared = prepared;
+            this.name = prepared.getName();
+            this.mediaType = mediaType;
+            this.source = null;
+        }
+
+        Entry(String name, String mediaType, ContentSource source) {
+            this.prepared = null;
+            this.name = name;
+            this.mediaType = mediaType;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package net.seeseekey.epubwriter.utils;
+
+import org.slf4j.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Cache of compressed zip entry data which can be shared between books and
+ * EpubWriter instances. Entries are keyed by the SHA-256 hash of their
+ * uncompressed data and the compression level, and hold the compressed data
+ * together with CRC and sizes. The EpubWriter splices cached data into the
+ * archive without compressing it again.
+ * <p>
+ * The in memory tier is bounded by the total size of the compressed data and
+ * evicts the least recently used entries. An optional directory tier keeps
+ * the entries across restarts. It is bounded by the size of its files and
+ * evicts the least recently used files, the order is kept across restarts by
+ * the modification time of the files. Entries read from the directory are
+ * checked against their CRC and size, corrupt files are deleted.
+ * <p>
+ * The cache assumes the same CompressionPolicy for all writers using it.
+ */
+public class CompressedEntryCache {
+
+    private static final Logger log = Logging.getLogger();
+
+    private static final int FILE_MAGIC = 0x45504331;
+
+    /**
+     * Size of the file header in front of the compressed data
+     */
+    private static final int FILE_HEADER = 28;
+
+    /**
+     * Default maximum size of the files of the on disk tier
+     */
+    public static final long DEFAULT_MAX_DISK_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Memory used by an entry in addition to its data
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * Maximum size of the compressed data held in memory
+     */
+    private final long maxBytes;
+
+    /**
+     * Directory of the on disk tier, null if there is none
+     */
+    private final Path directory;
+
+    /**
+     * Maximum size of the files of the on disk tier
+     */
+    private final long maxDiskBytes;
+
+    /**
+     * Sizes of the files of the on disk tier in access order, loaded from the
+     * directory on first use
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean filesLoaded;
+
+    private long diskBytes;
+
+    /**
+     * Cached entries in access order
+     */
+    private final LinkedHashMap<String, PreparedEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Media types which are not cached, as they are unlikely to be shared
+     */
+    private final Set<String> excludedMediaTypes = new HashSet<>(Set.of("application/xhtml+xml"));
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * Creates a cache held in memory only
+     *
+     * @param maxBytes maximum size of the compressed data held in memory
+     */
+    public CompressedEntryCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Creates a cache with an additional on disk tier of the default size
+     *
+     * @param maxBytes  maximum size of the compressed data held in memory
+     * @param directory directory for the on disk tier, null for none
+     */
+    public CompressedEntryCache(long maxBytes, Path directory) {
+        this(maxBytes, directory, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    /**
+     * Creates a cache with an additional on disk tier
+     *
+     * @param maxBytes     maximum size of the compressed data held in memory
+     * @param directory    directory for the on disk tier, null for none
+     * @param maxDiskBytes maximum size of the files in the directory
+     */
+    public CompressedEntryCache(long maxBytes, Path directory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Indicates whether content of the media type is cached
+     *
+     * @param mediaType the media type of the content
+     * @return false if the media type is excluded
+     */
+    public boolean isCacheable(String mediaType) {
+        return mediaType == null || !excludedMediaTypes.contains(mediaType);
+    }
+
+    /**
+     * Returns the cached entry for the data and compression level or compresses
+     * and caches it
+     */
+    PreparedEntry getOrCompress(String name, byte[] data, int level, Supplier<PreparedEntry> compressor) {
+
+        String key = DataUtils.sha256(data) + "-" + level;
+        PreparedEntry entry;
+
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.withName(name);
+        }
+
+        entry = readFromDisk(key, data);
+
+        if (entry != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            entry = compressor.get().trimmed();
+            writeToDisk(key, entry);
+        }
+
+        put(key, entry);
+        return entry.withName(name);
+    }
+
+    private void put(String key, PreparedEntry entry) {
+
+        long entryBytes = entry.getCompressedSize() + ENTRY_OVERHEAD;
+
+        if (entryBytes > maxBytes) {
+            return;
+        }
+
+        synchronized (entries) {
+
+            PreparedEntry previous = entries.put(key, entry);
+
+            if (previous != null) {
+                bytes -= previous.getCompressedSize() + ENTRY_OVERHEAD;
+            }
+
+            bytes += entryBytes;
+
+            Iterator<Map.Entry<String, PreparedEntry>> iterator = entries.entrySet().iterator();
+
+            while (bytes > maxBytes && iterator.hasNext()) {
+
+                PreparedEntry eldest = iterator.next().getValue();
+                iterator.remove();
+
+                bytes -= eldest.getCompressedSize() + ENTRY_OVERHEAD;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads an entry of the on disk tier. The entry is only used if its CRC
+     * and size match the uncompressed data, otherwise the file is deleted
+     */
+    private PreparedEntry readFromDisk(String key, byte[] expected) {
+
+        if (directory == null || !touchFile(key)) {
+            return null;
+        }
+
+        Path file = directory.resolve(key);
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Invalid file header");
+            }
+
+            int method = in.readInt();
+            long crc = in.readLong();
+            long size = in.readLong();
+            int length = in.readInt();
+
+            if (size != expected.length || crc != PreparedEntry.calculateCrc(expected)
+                    || length < 0 || length != Files.size(file) - FILE_HEADER) {
+                throw new IOException("Header does not match the data");
+            }
+
+            byte[] data = new byte[length];
+            in.readFully(data);
+
+            PreparedEntry entry = new PreparedEntry(null, method, crc, size, data, data.length);
+            verify(entry);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+
+            return entry;
+
+        } catch (NoSuchFileException e) {
+            removeFile(key);
+            return null;
+        } catch (IOException e) {
+            log.warn("Discarding corrupt cached entry {}", key, e);
+            deleteFile(key);
+            return null;
+        }
+    }
+
+    /**
+     * Checks the CRC and size of the data of an entry read from disk
+     */
+    private static void verify(PreparedEntry entry) throws IOException {
+
+        CRC32 crc = new CRC32();
+        long size;
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+
+            crc.update(entry.getData(), 0, (int) entry.getCompressedSize());
+            size = entry.getCompressedSize();
+
+        } else if (entry.getMethod() == ZipEntry.DEFLATED) {
+
+            Inflater inflater = new Inflater(true);
+
+            try {
+                inflater.setInput(entry.getData(), 0, (int) entry.getCompressedSize());
+                byte[] buffer = new byte[8192];
+                size = 0;
+
+                while (!inflater.finished()) {
+
+                    int read = inflater.inflate(buffer);
+
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed data");
+                    }
+
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+
+                if (inflater.getRemaining() > 0) {
+                    throw new IOException("Trailing data after the compressed data");
+                }
+
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data", e);
+            } finally {
+                inflater.end();
+            }
+
+        } else {
+            throw new IOException("Unknown compression method " + entry.getMethod());
+        }
+
+        if (crc.getValue() != entry.getCrc() || size != entry.getSize()) {
+            throw new IOException("CRC or size does not match");
+        }
+    }
+
+    private void writeToDisk(String key, PreparedEntry entry) {
+
+        if (directory == null) {
+            return;
+        }
+
+        long fileBytes = FILE_HEADER + entry.getCompressedSize();
+
+        if (fileBytes > maxDiskBytes) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+
+            try {
+                try (OutputStream file = Files.newOutputStream(temp);
+                     DataOutputStream out = new DataOutputStream(file)) {
+
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(entry.getMethod());
+                    out.writeLong(entry.getCrc());
+                    out.writeLong(entry.getSize());
+                    out.writeInt((int) entry.getCompressedSize());
+                    out.write(entry.getData(), 0, (int) entry.getCompressedSize());
+                }
+
+                Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+            addFile(key, fileBytes);
+
+        } catch (IOException e) {
+            log.warn("Could not write cached entry {}", key, e);
+        }
+    }
+
+    /**
+     * Marks a file of the on disk tier as used
+     *
+     * @return false if there is no file for the key
+     */
+    private boolean touchFile(String key) {
+
+        synchronized (files) {
+            loadFiles();
+            return files.get(key) != null;
+        }
+    }
+
+    /**
+     * Records a written file and deletes the least recently used files until
+     * the on disk tier fits into its limit
+     */
+    private void addFile(String key, long fileBytes) {
+
+        List<String> evicted = new ArrayList<>();
+
+        synchronized (files) {
+
+            loadFiles();
+
+            Long previous = files.put(key, fileBytes);
+            diskBytes += fileBytes - (previous == null ? 0 : previous);
+
+            Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+
+            while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+
+                Map.Entry<String, Long> eldest = iterator.next();
+
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+
+                iterator.remove();
+                diskBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+            }
+        }
+
+        for (String eldest : evicted) {
+
+            diskEvictions.incrementAndGet();
+
+            try {
+                Files.deleteIfExists(directory.resolve(eldest));
+            } catch (IOException e) {
+                log.warn("Could not delete cached entry {}", eldest, e);
+            }
+        }
+    }
+
+    private void removeFile(String key) {
+
+        synchronized (files) {
+
+            Long fileBytes = files.remove(key);
+
+            if (fileBytes != null) {
+                diskBytes -= fileBytes;
+            }
+        }
+    }
+
+    private void deleteFile(String key) {
+
+        removeFile(key);
+
+        try {
+            Files.deleteIfExists(directory.resolve(key));
+        } catch (IOException e) {
+            log.warn("Could not delete cached entry {}", key, e);
+        }
+    }
+
+    /**
+     * Loads the files of the directory, oldest first. Leftover temporary
+     * files are deleted and the limit is applied, as it may have been lowered
+     * since the files were written
+     */
+    private void loadFiles() {
+
+        if (filesLoaded) {
+            return;
+        }
+
+        filesLoaded = true;
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        record CachedFile(Path path, long size, FileTime modified) {
+        }
+
+        List<CachedFile> found = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.list(directory)) {
+
+            for (Path path : (Iterable<Path>) paths::iterator) {
+
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+
+                if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(path);
+                } else {
+                    found.add(new CachedFile(path, Files.size(path), Files.getLastModifiedTime(path)));
+                }
+            }
+
+        } catch (IOException e) {
+            log.warn("Could not list cached entries in {}", directory, e);
+        }
+
+        found.sort(Comparator.comparing(CachedFile::modified));
+
+        for (CachedFile file : found) {
+            files.put(file.path().getFileName().toString(), file.size());
+            diskBytes += file.size();
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+
+        while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            diskBytes -= eldest.getValue();
+            diskEvictions.incrementAndGet();
+
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                log.warn("Could not delete cached entry {}", eldest.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries held in memory. The on disk tier is kept
+     */
+    public void clear() {
+
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * @return the excludedMediaTypes, the set can be modified before the
+     * cache is used
+     */
+    public Set<String> getExcludedMediaTypes() {
+        return excludedMediaTypes;
+    }
+
+    /**
+     * @return the number of entries found in memory
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of entries found in the on disk tier
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of entries which had to be compressed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries evicted from memory
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of files evicted from the on disk tier
+     */
+    public long getDiskEvictions() {
+        return diskEvictions.get();
+    }
+
+    /**
+     * @return the maxDiskBytes
+     */
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    /**
+     * @return the size of the files of the on disk tier, 0 if there is none
+     */
+    public long getDiskBytes() {
+
+        if (directory == null) {
+            return 0;
+        }
+
+        synchronized (files) {
+            loadFiles();
+            return diskBytes;
+        }
+    }
+
+    /**
+     * @return the size of the data held in memory including overhead
+     */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the number of entries held in memory
+     */
+    public int getCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Counts the bytes written through the stream and optionally calculates their
+ * CRC32. Closing the stream does not close the underlying stream.
+ */
+class CountingOutputStream extends NonClosingOutputStream {
+
+    private final CRC32 crc;
+
+    private long count;
+
+    /**
+     * @param out the OutputStream to write to
+     * @param crc the CRC32 to update, null if no checksum is needed
+     */
+    CountingOutputStream(OutputStream out, CRC32 crc) {
+        super(out);
+        this.crc = crc;
+    }
+
+    @Override
+    public void write(int data) throws IOException {
+        out.write(data);
+        count++;
+
+        if (crc != null) {
+            crc.update(data);
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+        count += length;
+
+        if (crc != null) {
+            crc.update(data, offset, length);
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the CRC32 value of the bytes written
+     */
+    long getCrc() {
+        return crc.getValue();
+    }
+}
@@ -1,9 +1,11 @@
 package net.seeseekey.epubwriter.utils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
+import java.util.HexFormat;
 
 /**
  * Utility class for data specific operations
@@ -25,20 +27,21 @@ public class DataUtils {
      * @return Byte array with data
      */
     public static byte[] toByteArray(InputStream stream) throws IOException {
+        return stream.readAllBytes();
+    }
 
-        // Create data
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        // Read data
-        byte[] data = new byte[4];
-        int nRead;
+    /**
+     * Calculates the SHA-256 hash of the data
+     *
+     * @param data the data
+     * @return the hash as lower case hex string
+     */
+    public static String sha256(byte[] data) {
 
-        while ((nRead = stream.readNBytes(data, 0, data.length)) != 0) {
-            buffer.write(data, 0, nRead);
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
-
-        // Flush buffer and return array
-        buffer.flush();
-        return buffer.toByteArray();
     }
 }
@@ -0,0 +1,183 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of raw Deflaters by compression level. A Deflater holds native
+ * memory until it is ended, reusing it saves allocating and freeing that
+ * memory for every zip entry.
+ * <p>
+ * Released Deflaters are reset and kept while fewer than maxIdlePerLevel
+ * Deflaters of their level are idle, otherwise they are ended. A pool with
+ * maxIdlePerLevel 0 does not pool at all. The pool is thread-safe and can be
+ * shared by several EpubWriter instances.
+ */
+public class DeflaterPool {
+
+    /**
+     * Idle Deflaters, indexed by compression level + 1 to include
+     * Deflater.DEFAULT_COMPRESSION
+     */
+    private final Queue<Deflater>[] idle;
+
+    private final AtomicInteger[] idleCounts;
+
+    private final int maxIdlePerLevel;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * Creates a pool keeping at most two idle Deflaters per level and
+     * available processor
+     */
+    public DeflaterPool() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param maxIdlePerLevel the maximum number of idle Deflaters per compression level
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DeflaterPool(int maxIdlePerLevel) {
+
+        this.maxIdlePerLevel = Math.max(0, maxIdlePerLevel);
+        this.idle = new Queue[Deflater.BEST_COMPRESSION + 2];
+        this.idleCounts = new AtomicInteger[idle.length];
+
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new ConcurrentLinkedQueue<>();
+            idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Returns a Deflater for raw deflate data, either an idle one or a new
+     * one. It must be released afterwards
+     *
+     * @param level the compression level
+     * @return the Deflater
+     */
+    public Deflater acquire(int level) {
+
+        int index = index(level);
+        Deflater deflater = idle[index].poll();
+
+        inUse.incrementAndGet();
+
+        if (deflater != null) {
+            idleCounts[index].decrementAndGet();
+            reused.incrementAndGet();
+            return deflater;
+        }
+
+        created.incrementAndGet();
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Returns a Deflater to the pool. It is reset, or ended if the pool of
+     * its level is full
+     *
+     * @param deflater the Deflater
+     * @param level    the compression level it has been acquired with
+     */
+    public void release(Deflater deflater, int level) {
+
+        int index = index(level);
+        inUse.decrementAndGet();
+
+        if (idleCounts[index].incrementAndGet() > maxIdlePerLevel) {
+            idleCounts[index].decrementAndGet();
+            discarded.incrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        deflater.reset();
+        idle[index].offer(deflater);
+    }
+
+    /**
+     * Ends all idle Deflaters
+     */
+    public void clear() {
+
+        for (int i = 0; i < idle.length; i++) {
+
+            Deflater deflater;
+
+            while ((deflater = idle[i].poll()) != null) {
+                idleCounts[i].decrementAndGet();
+                deflater.end();
+            }
+        }
+    }
+
+    private static int index(int level) {
+
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+
+        return level + 1;
+    }
+
+    /**
+     * @return the maxIdlePerLevel
+     */
+    public int getMaxIdlePerLevel() {
+        return maxIdlePerLevel;
+    }
+
+    /**
+     * @return the number of Deflaters created by the pool
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the number of times an idle Deflater has been reused
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * @return the number of released Deflaters which have been ended as the
+     * pool was full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * @return the number of acquired Deflaters which have not been released
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return the number of idle Deflaters of all levels
+     */
+    public int getIdle() {
+
+        int count = 0;
+
+        for (AtomicInteger idleCount : idleCounts) {
+            count += idleCount.get();
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,505 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes many books concurrently while keeping the memory used by the books
+ * below a budget.
+ * <p>
+ * Books are created from suppliers, so a book only exists while it is
+ * written. Before a supplier is called, the writer waits until the books in
+ * flight leave room in the budget for an average book. Once a book has been
+ * created, its memory is estimated from its contents, see
+ * {@link #estimateMemory(EpubBook)}. A book larger than its reservation is
+ * not written before its estimate fits into the budget, while it waits no
+ * further books are admitted. A book larger than the whole budget is written
+ * when no other book is in flight. Books are closed after they have been
+ * written, which releases their temporary storage.
+ * <p>
+ * Books are written on virtual threads if the runtime supports them,
+ * otherwise on a pool of platform threads.
+ */
+public class EpubBatchWriter {
+
+    private static final Logger log = Logging.getLogger();
+
+    /**
+     * Memory used by the writer for a book, besides its contents
+     */
+    private static final long BOOK_OVERHEAD = 256 * 1024L;
+
+    private EpubWriter epubWriter = new EpubWriter();
+
+    /**
+     * Memory budget for all books in flight in bytes
+     */
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Maximum number of books in flight
+     */
+    private int maxConcurrentBooks = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Writes the books, each to the file returned by the target function.
+     * Failures of single books are reported in the result and do not stop
+     * the batch
+     *
+     * @param books   suppliers of the books to write
+     * @param targets returns the file for a book
+     * @return the result with the outcome of every book
+     * @throws InterruptedException if the thread is interrupted while waiting for memory
+     */
+    public BatchResult writeAll(Stream<? extends Supplier<EpubBook>> books, Function<EpubBook, Path> targets)
+            throws InterruptedException {
+
+        long start = System.nanoTime();
+
+        MemoryBudget budget = new MemoryBudget(memoryBudget);
+        Semaphore slots = new Semaphore(maxConcurrentBooks);
+        List<BookResult> results = Collections.synchronizedList(new ArrayList<>());
+
+        ExecutorService executor = createExecutor();
+
+        try {
+            Iterator<? extends Supplier<EpubBook>> iterator = books.iterator();
+            int index = 0;
+
+            while (iterator.hasNext()) {
+
+                Supplier<EpubBook> supplier = iterator.next();
+                int bookIndex = index++;
+
+                slots.acquire();
+                long reserved;
+
+                try {
+                    reserved = budget.awaitAdmission();
+                } catch (InterruptedException e) {
+                    slots.release();
+                    throw e;
+                }
+
+                executor.execute(() -> {
+                    try {
+                        results.add(writeBook(bookIndex, supplier, targets, budget, reserved));
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+
+        } finally {
+            executor.shutdown();
+
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Waiting for {} books in flight", maxConcurrentBooks - slots.availablePermits());
+            }
+        }
+
+        results.sort((first, second) -> Integer.compare(first.getIndex(), second.getIndex()));
+
+        BatchResult result = new BatchResult(results, Duration.ofNanos(System.nanoTime() - start));
+        log.info("Wrote {} books ({} failed) in {}", result.getSucceeded(), result.getFailed(), result.getElapsed());
+
+        return result;
+    }
+
+    /**
+     * Estimates the heap memory needed to write a book. Buffered contents are
+     * held twice, uncompressed and compressed, while contents backed by a
+     * source are streamed. A payload shared by several contents, like a
+     * deduplicated one, is counted once
+     *
+     * @param book the book
+     * @return the estimated memory in bytes
+     */
+    public long estimateMemory(EpubBook book) {
+
+        long memory = BOOK_OVERHEAD;
+        Set<byte[]> payloads = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Content content : book.getContents()) {
+
+            if (content.isBuffered()) {
+
+                byte[] payload = content.getContent();
+
+                if (payload != null && payloads.add(payload)) {
+                    memory += 2L * payload.length;
+                }
+            }
+        }
+
+        return memory;
+    }
+
+    private BookResult writeBook(int index, Supplier<EpubBook> supplier, Function<EpubBook, Path> targets,
+                                 MemoryBudget budget, long reserved) {
+
+        long start = System.nanoTime();
+        Path target = null;
+        EpubBook book = null;
+
+        try {
+            book = supplier.get();
+            target = targets.apply(book);
+
+            reserved = budget.resize(reserved, estimateMemory(book));
+
+            epubWriter.writeEpubToFile(book, target.toString());
+
+            return new BookResult(index, target, Files.size(target), Duration.ofNanos(System.nanoTime() - start), null);
+
+        } catch (IOException | RuntimeException | InterruptedException e) {
+
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (book == null) {
+                log.warn("Could not create book {}", index, e);
+            } else {
+                log.warn("Could not write book {} to {}", index, target, e);
+            }
+
+            return new BookResult(index, target, 0, Duration.ofNanos(System.nanoTime() - start), e);
+
+        } finally {
+
+            // Releases the temporary storage of the book
+            if (book != null) {
+                book.close();
+            }
+
+            budget.release(reserved);
+        }
+    }
+
+    private ExecutorService createExecutor() {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Virtual threads are not available, using platform threads");
+            return Executors.newFixedThreadPool(maxConcurrentBooks);
+        }
+    }
+
+    /**
+     * @return the EpubWriter used for all books
+     */
+    public EpubWriter getEpubWriter() {
+        return epubWriter;
+    }
+
+    /**
+     * Sets the EpubWriter used for all books, it is used by several threads
+     * at the same time
+     *
+     * @param epubWriter the epubWriter to set
+     */
+    public void setEpubWriter(EpubWriter epubWriter) {
+        this.epubWriter = epubWriter;
+    }
+
+    /**
+     * @return the memory budget in bytes
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget for all books in flight, the default is half of
+     * the maximum heap
+     *
+     * @param memoryBudget the memory budget in bytes
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return the maxConcurrentBooks
+     */
+    public int getMaxConcurrentBooks() {
+        return maxConcurrentBooks;
+    }
+
+    /**
+     * Sets the maximum number of books in flight, the default is twice the
+     * number of processors
+     *
+     * @param maxConcurrentBooks the maxConcurrentBooks to set
+     */
+    public void setMaxConcurrentBooks(int maxConcurrentBooks) {
+        this.maxConcurrentBooks = Math.max(1, maxConcurrentBooks);
+    }
+
+    /**
+     * Bookkeeping of the memory reserved by the books in flight. It uses a
+     * lock instead of monitors, so waiting virtual threads do not pin their
+     * carrier threads
+     */
+    private static class MemoryBudget {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition released = lock.newCondition();
+
+        private final long limit;
+
+        private long used;
+
+        private long admitted;
+
+        private long estimated;
+
+        /**
+         * Number of books waiting for their estimate to fit, new books are
+         * not admitted while there are any
+         */
+        private int growing;
+
+        MemoryBudget(long limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Waits until an average book fits into the budget or no book is in
+         * flight and reserves the memory of an average book
+         */
+        long awaitAdmission() throws InterruptedException {
+
+            lock.lock();
+
+            try {
+                long average = getAverage();
+
+                while (used > 0 && (growing > 0 || used + average > limit)) {
+                    released.await();
+                    average = getAverage();
+                }
+
+                used += average;
+                return average;
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Replaces a reservation by the estimate of the book. A larger
+         * estimate waits until it fits into the budget or no other book is in
+         * flight
+         */
+        long resize(long reserved, long bytes) throws InterruptedException {
+
+            lock.lock();
+
+            try {
+                admitted++;
+                estimated += bytes;
+                used -= reserved;
+
+                if (bytes > reserved) {
+
+                    growing++;
+
+                    try {
+                        while (used > 0 && used + bytes > limit) {
+                            released.await();
+                        }
+                    } catch (InterruptedException e) {
+                        used += reserved;
+                        throw e;
+                    } finally {
+                        growing--;
+                    }
+                }
+
+                used += bytes;
+                released.signalAll();
+
+                return bytes;
+
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long bytes) {
+
+            lock.lock();
+
+            try {
+                used -= bytes;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long getAverage() {
+            return admitted == 0 ? BOOK_OVERHEAD : estimated / admitted;
+        }
+    }
+
+    /**
+     * Outcome of writing a single book
+     */
+    public static class BookResult {
+
+        private final int index;
+
+        private final Path target;
+
+        private final long size;
+
+        private final Duration elapsed;
+
+        private final Throwable error;
+
+        BookResult(int index, Path target, long size, Duration elapsed, Throwable error) {
+            this.index = index;
+            this.target = target;
+            this.size = size;
+            this.elapsed = elapsed;
+            this.error = error;
+        }
+
+        /**
+         * @return the position of the book in the stream
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the file written, null if the book could not be created
+         */
+        public Path getTarget() {
+            return target;
+        }
+
+        /**
+         * @return the size of the written file in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the time needed to create and write the book
+         */
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return the error or null if the book was written
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return true if the book was written
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Outcome of a batch
+     */
+    public static class BatchResult {
+
+        private final List<BookResult> books;
+
+        private final Duration elapsed;
+
+        BatchResult(List<BookResult> books, Duration elapsed) {
+            this.books = Collections.unmodifiableList(books);
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * @return the results of all books in stream order
+         */
+        public List<BookResult> getBooks() {
+            return books;
+        }
+
+        /**
+         * @return the time needed for the whole batch
+         */
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /**
+         * @return the number of books written
+         */
+        public long getSucceeded() {
+            return books.stream().filter(BookResult::isSuccess).count();
+        }
+
+        /**
+         * @return the number of books which could not be written
+         */
+        public long getFailed() {
+            return books.size() - getSucceeded();
+        }
+
+        /**
+         * @return the total size of all written files in bytes
+         */
+        public long getBytesWritten() {
+            return books.stream().mapToLong(BookResult::getSize).sum();
+        }
+
+        /**
+         * @return the written books per second
+         */
+        public double getBooksPerSecond() {
+            return getSucceeded() / seconds();
+        }
+
+        /**
+         * @return the written bytes per second
+         */
+        public double getBytesPerSecond() {
+            return getBytesWritten() / seconds();
+        }
+
+        private double seconds() {
+            return Math.max(elapsed.toNanos(), 1) / 1e9;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes the bytes of an EPUB to a single subscriber. The book is written
+ * step by step on the executor, one entry per step, and only while the
+ * subscriber has outstanding demand. Without demand no thread is held, the
+ * next request schedules the write again.
+ * <p>
+ * The archive hands its filled buffers over to the subscriber instead of
+ * copying them. A large entry produces several buffers in one step, while it
+ * is written at most MAX_QUEUED buffers are held back, beyond that the write
+ * waits for demand on a lock, which does not pin a virtual thread.
+ */
+class EpubPublisher implements Flow.Publisher<ByteBuffer> {
+
+    /**
+     * Maximum number of buffers held back while an entry is written
+     */
+    private static final int MAX_QUEUED = 4;
+
+    private final EpubWriter epubWriter;
+
+    private final EpubBook book;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    EpubPublisher(EpubWriter epubWriter, EpubBook book, Executor executor) {
+        this.epubWriter = epubWriter;
+        this.book = book;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+
+        if (!subscribed.compareAndSet(false, true)) {
+
+            subscriber.onSubscribe(new Flow.Subscription() {
+
+                @Override
+                public void request(long n) {
+                    // Nothing to publish
+                }
+
+                @Override
+                public void cancel() {
+                    // Nothing to cancel
+                }
+            });
+
+            subscriber.onError(new IllegalStateException("The EPUB can only be published to one subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new BookSubscription(subscriber));
+    }
+
+    /**
+     * Subscription which is also the channel the book is written to
+     */
+    private class BookSubscription implements Flow.Subscription, BufferHandoffChannel {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition demanded = lock.newCondition();
+
+        /**
+         * Buffers written but not yet delivered
+         */
+        private final Deque<ByteBuffer> queue = new ArrayDeque<>();
+
+        private long demand;
+
+        private boolean cancelled;
+
+        private Throwable error;
+
+        /**
+         * Set while a drain is scheduled or running, and after the
+         * subscription has terminated
+         */
+        private boolean running;
+
+        /**
+         * Accessed by the drain only
+         */
+        private EpubWriter.BookWrite write;
+
+        private boolean complete;
+
+        BookSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+
+            lock.lock();
+
+            try {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Requested " + n + " buffers");
+                    cancelled = true;
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+
+                demanded.signalAll();
+
+                if (running) {
+                    return;
+                }
+
+                running = true;
+
+            } finally {
+                lock.unlock();
+            }
+
+            executor.execute(this::drain);
+        }
+
+        @Override
+        public void cancel() {
+
+            lock.lock();
+
+            try {
+                cancelled = true;
+                demanded.signalAll();
+
+                if (running) {
+                    return;
+                }
+
+                running = true;
+
+            } finally {
+                lock.unlock();
+            }
+
+            // Releases the write
+            executor.execute(this::drain);
+        }
+
+        /**
+         * Delivers queued buffers and writes the next entries while the
+         * subscriber has demand, returns the thread once the demand is used
+         * up
+         */
+        private void drain() {
+
+            Throwable failure = null;
+
+            try {
+                while (true) {
+
+                    ByteBuffer next;
+
+                    lock.lock();
+
+                    try {
+                        if (cancelled) {
+                            break;
+                        }
+
+                        if (demand == 0) {
+                            running = false;
+                            return;
+                        }
+
+                        next = queue.poll();
+
+                        if (next != null) {
+                            demand--;
+                        } else if (complete) {
+                            break;
+                        }
+
+                    } finally {
+                        lock.unlock();
+                    }
+
+                    if (next != null) {
+                        subscriber.onNext(next);
+                    } else {
+
+                        if (write == null) {
+                            write = epubWriter.new BookWrite(book, this, List.of());
+                        }
+
+                        complete = !write.writeNext();
+                    }
+                }
+
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+
+            if (write != null) {
+                write.close();
+            }
+
+            terminate(failure);
+        }
+
+        /**
+         * Signals the end of the subscription, the subscription is not
+         * drained again
+         */
+        private void terminate(Throwable failure) {
+
+            lock.lock();
+
+            try {
+                running = true;
+                queue.clear();
+
+                if (error != null) {
+                    failure = error;
+                } else if (cancelled) {
+                    return;
+                }
+
+                cancelled = true;
+
+            } finally {
+                lock.unlock();
+            }
+
+            if (failure != null) {
+                subscriber.onError(failure);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public ByteBuffer nextBuffer() {
+            return ByteBuffer.allocate(BufferPool.DEFAULT_BUFFER_SIZE);
+        }
+
+        @Override
+        public void handoff(ByteBuffer buffer) throws IOException {
+
+            lock.lock();
+
+            try {
+                queue.add(buffer);
+            } finally {
+                lock.unlock();
+            }
+
+            // Delivers the buffers of a large entry while it is written
+            while (true) {
+
+                ByteBuffer next;
+
+                lock.lock();
+
+                try {
+                    while (!cancelled && demand == 0 && queue.size() > MAX_QUEUED) {
+                        demanded.await();
+                    }
+
+                    if (cancelled) {
+                        throw new AsynchronousCloseException();
+                    }
+
+                    if (demand == 0 || queue.isEmpty()) {
+                        return;
+                    }
+
+                    next = queue.poll();
+                    demand--;
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for demand");
+                } finally {
+                    lock.unlock();
+                }
+
+                subscriber.onNext(next);
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+
+            int length = src.remaining();
+
+            // The source reuses its buffer, data the archive does not own is copied
+            ByteBuffer copy = ByteBuffer.allocate(length);
+            copy.put(src).flip();
+            handoff(copy);
+
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+
+            lock.lock();
+
+            try {
+                return !cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            // Completion is signalled by the publisher
+        }
+    }
+}
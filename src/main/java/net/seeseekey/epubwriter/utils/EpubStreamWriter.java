@@ -0,0 +1,215 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentSource;
+import net.seeseekey.epubwriter.model.EpubBook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes an EPUB while its contents are still added.
+ * <p>
+ * The mimetype and the container.xml are written as soon as the writer is
+ * created. Every added content is compressed, written and flushed to the
+ * channel immediately, afterwards its payload is dropped and only its
+ * metadata is kept in the book. The navigation document and the OPF are
+ * written when the writer is closed, so the metadata of the book and the
+ * TOC links may be changed until then. Memory is bounded by the largest
+ * single content instead of the whole book.
+ * <p>
+ * The navigation document and the OPF follow the contents in the archive,
+ * which the EPUB specification allows as only the mimetype has a fixed
+ * position.
+ */
+public class EpubStreamWriter implements Closeable {
+
+    private final EpubBook book;
+
+    private final EpubWriter epubWriter;
+
+    private final WritableByteChannel channel;
+
+    private final ZipArchiveWriter archive;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a new instance of EpubStreamWriter, writing with a default
+     * EpubWriter
+     *
+     * @param book    the book providing the metadata, it must not contain contents
+     * @param channel the channel to write to, it is closed with the writer
+     * @throws IOException if the start of the EPUB could not be written
+     */
+    public EpubStreamWriter(EpubBook book, WritableByteChannel channel) throws IOException {
+        this(book, new EpubWriter(), channel);
+    }
+
+    /**
+     * Creates a new instance of EpubStreamWriter
+     *
+     * @param book       the book providing the metadata, it must not contain contents
+     * @param epubWriter the EpubWriter providing creators and compression policy
+     * @param out        the OutputStream to write to, it is closed with the writer
+     * @throws IOException if the start of the EPUB could not be written
+     */
+    public EpubStreamWriter(EpubBook book, EpubWriter epubWriter, OutputStream out) throws IOException {
+        this(book, epubWriter, Channels.newChannel(out));
+    }
+
+    /**
+     * Creates a new instance of EpubStreamWriter
+     *
+     * @param book       the book providing the metadata, it must not contain contents
+     * @param epubWriter the EpubWriter providing creators and compression policy
+     * @param channel    the channel to write to, it is closed with the writer
+     * @throws IOException if the start of the EPUB could not be written
+     */
+    public EpubStreamWriter(EpubBook book, EpubWriter epubWriter, WritableByteChannel channel) throws IOException {
+
+        if (!book.getContents().isEmpty()) {
+            throw new IllegalArgumentException("Book must not contain contents, add them to the EpubStreamWriter");
+        }
+
+        this.book = book;
+        this.epubWriter = epubWriter;
+        this.channel = channel;
+        this.archive = epubWriter.createArchive(channel, WriteObserver.start(epubWriter.getWriteListener(), book.getId()));
+
+        try {
+            epubWriter.addMimeType(archive);
+            epubWriter.addContainer(archive);
+            archive.flush();
+        } catch (IOException | RuntimeException e) {
+            archive.getObserver().failed(e);
+            archive.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds a content to the book and writes it
+     *
+     * @param content the content
+     * @return the written content without payload
+     * @throws IOException if the content could not be written
+     */
+    public Content addContent(Content content) throws IOException {
+
+        checkOpen();
+        book.addContent(content);
+        return write(content);
+    }
+
+    /**
+     * Adds a content to the book and writes it
+     *
+     * @param contents  the payload
+     * @param mediaType the media type
+     * @param href      the href
+     * @param toc       true if the content is part of the TOC
+     * @param spine     true if the content is part of the spine
+     * @return the written content without payload
+     * @throws IOException if the content could not be written
+     */
+    public Content addContent(byte[] contents, String mediaType, String href, boolean toc, boolean spine) throws IOException {
+
+        checkOpen();
+        return write(book.addContent(contents, mediaType, href, toc, spine));
+    }
+
+    /**
+     * Adds a XHTML text content to the book and writes it
+     *
+     * @param title   the title of the content
+     * @param href    the href
+     * @param content the body of the XHTML document
+     * @return the written content without payload
+     * @throws IOException if the content could not be written
+     */
+    public Content addTextContent(String title, String href, String content) throws IOException {
+
+        checkOpen();
+        return write(book.addTextContent(title, href, content));
+    }
+
+    /**
+     * Adds a generated XHTML text content to the book and writes it
+     *
+     * @param title     the title of the content
+     * @param href      the href
+     * @param generator writes the body of the XHTML document
+     * @return the written content without payload
+     * @throws IOException if the content could not be written
+     */
+    public Content addTextContent(String title, String href, ContentSource generator) throws IOException {
+
+        checkOpen();
+        return write(book.addTextContent(title, href, generator));
+    }
+
+    /**
+     * Writes the navigation document, the OPF and the central directory and
+     * closes the channel
+     *
+     * @throws IOException if the end of the EPUB could not be written
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try (channel) {
+            try {
+                EpubBook manifest = epubWriter.createManifest(book, archive.getObserver());
+                int tocContents = manifest.getContents().size() - book.getContents().size();
+
+                for (Content toc : manifest.getContents().subList(0, tocContents)) {
+                    epubWriter.addContent(archive, toc);
+                }
+
+                epubWriter.addOpf(archive, manifest);
+                epubWriter.finish(archive);
+
+            } catch (IOException | RuntimeException e) {
+                archive.getObserver().failed(e);
+                throw e;
+            } finally {
+                archive.release();
+            }
+        }
+    }
+
+    /**
+     * @return the book with the metadata of the written contents
+     */
+    public EpubBook getBook() {
+        return book;
+    }
+
+    private Content write(Content content) throws IOException {
+
+        epubWriter.addContent(archive, content);
+        archive.flush();
+
+        // Only the metadata is needed for the OPF and the navigation document
+        content.setContent(null);
+
+        return content;
+    }
+
+    private void checkOpen() {
+
+        if (closed) {
+            throw new IllegalStateException("EpubStreamWriter is closed");
+        }
+    }
+}
@@ -0,0 +1,588 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentSource;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.MetaTag;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Updates an existing EPUB without recompressing the entries which did not
+ * change.
+ * <p>
+ * The package document of the EPUB is read into an EpubBook, whose metadata
+ * and contents can be changed. When the update is written, the compressed
+ * data of all unchanged contents is copied verbatim from the existing
+ * archive, only changed or added contents are compressed. The package
+ * document is patched instead of being regenerated: metadata, manifest items
+ * and itemrefs which did not change are kept as they are, including elements
+ * and attributes EpubBook can not represent. Of repeated Dublin Core elements,
+ * like several creators, the book holds the first one. The navigation
+ * document is copied unless it must be regenerated, in which case the TOC
+ * links, landmarks or auto TOC of the book must be set.
+ * <p>
+ * The hrefs of the contents are the names of their entries relative to the
+ * folder of the package document. A percent-encoded href of the manifest is
+ * decoded if the archive holds the entry under the decoded name, the
+ * manifest keeps the original href.
+ * <p>
+ * Entries which are not part of the manifest, like META-INF/encryption.xml,
+ * are copied as they are.
+ */
+public class EpubUpdater implements Closeable {
+
+    private static final Logger log = Logging.getLogger();
+
+    private static final String DC_NAMESPACE = OpfPatcher.DC_NAMESPACE;
+
+    private static final String OPF_NAMESPACE = OpfPatcher.OPF_NAMESPACE;
+
+    private static final String CONTAINER_NAMESPACE = "urn:oasis:names:tc:opendocument:xmlns:container";
+
+    private final Path file;
+
+    private final ZipArchiveReader reader;
+
+    private final EpubWriter epubWriter = new EpubWriter();
+
+    private final EpubBook book;
+
+    /**
+     * Entries of the archive which are not part of the manifest
+     */
+    private final List<ArchiveEntrySource> additionalEntries = new ArrayList<>();
+
+    /**
+     * Ids of all contents, used to create unique ids for added contents
+     */
+    private final Set<String> contentIds = new HashSet<>();
+
+    /**
+     * The existing navigation document
+     */
+    private Content navigation;
+
+    /**
+     * Indicates whether the navigation document is created again by the
+     * TocCreator instead of being copied
+     */
+    private boolean regenerateNavigation = false;
+
+    private int addedContentId = 1;
+
+    /**
+     * Opens an existing EPUB for an update
+     *
+     * @param file the EPUB file
+     * @throws IOException if the file is not a readable EPUB
+     */
+    public EpubUpdater(Path file) throws IOException {
+
+        this.file = file;
+        this.reader = new ZipArchiveReader(file);
+
+        try {
+            String opfPath = readOpfPath();
+            int separator = opfPath.lastIndexOf('/');
+
+            if (separator <= 0) {
+                throw new ZipException("Package document must be located in a folder: " + opfPath);
+            }
+
+            epubWriter.setContentFolder(opfPath.substring(0, separator));
+            epubWriter.setOpfFileName(opfPath.substring(separator + 1));
+            epubWriter.setTocCreator(epubBook -> navigation);
+
+            Document opf = parse(readRequiredEntry(opfPath));
+
+            book = readBook(opf, opfPath);
+            epubWriter.setOpfCreator(new OpfPatcher(opf, book, navigation));
+            collectAdditionalEntries(opfPath);
+
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the book read from the package document. Metadata can be changed
+     * and contents can be changed or removed on it directly
+     *
+     * @return the book
+     */
+    public EpubBook getBook() {
+        return book;
+    }
+
+    /**
+     * Returns the content with the href
+     *
+     * @param href the href of the content relative to the package document,
+     *             it may be percent-encoded
+     * @return the content or null if there is none
+     */
+    public Content getContent(String href) {
+
+        Content content = book.getContentByHref(href);
+
+        if (content == null && href.indexOf('%') >= 0) {
+            content = book.getContentByHref(URLDecoder.decode(href, StandardCharsets.UTF_8));
+        }
+
+        return content;
+    }
+
+    /**
+     * Replaces the payload of a content
+     *
+     * @param href the href of the content
+     * @param data the new payload
+     * @return the changed content
+     */
+    public Content replaceContent(String href, byte[] data) {
+
+        Content content = requireContent(href);
+        content.setContent(data);
+        return content;
+    }
+
+    /**
+     * Replaces the payload of a content with a source
+     *
+     * @param href   the href of the content
+     * @param source the source of the new payload
+     * @return the changed content
+     */
+    public Content replaceContent(String href, ContentSource source) {
+
+        Content content = requireContent(href);
+        content.setSource(source);
+        return content;
+    }
+
+    /**
+     * Adds a content to the book. If it has no id, an id is created which
+     * does not collide with the ids of the existing contents
+     *
+     * @param content the content to add
+     */
+    public void addContent(Content content) {
+
+        while (content.getId() == null || contentIds.contains(content.getId())) {
+            content.setId("uid-update-" + addedContentId++);
+        }
+
+        contentIds.add(content.getId());
+        book.addContent(content);
+    }
+
+    /**
+     * Removes a content from the book
+     *
+     * @param href the href of the content
+     * @return true if the content existed
+     */
+    public boolean removeContent(String href) {
+
+        Content content = getContent(href);
+
+        if (content == null) {
+            return false;
+        }
+
+        book.removeContent(content);
+        contentIds.remove(content.getId());
+
+        return true;
+    }
+
+    /**
+     * Writes the updated EPUB. The target may be the file which is updated,
+     * it is then replaced atomically and the updater is closed afterwards
+     *
+     * @param target the file to write
+     * @throws IOException if the EPUB could not be written
+     */
+    public void writeTo(Path target) throws IOException {
+
+        boolean inPlace = Files.exists(target) && Files.isSameFile(file, target);
+        Path output = inPlace ? Files.createTempFile(target.toAbsolutePath().getParent(), "epub", ".tmp") : target;
+
+        try {
+            try (FileChannel channel = FileChannel.open(output,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                if (regenerateNavigation) {
+                    epubWriter.setTocCreator(new EpubWriter().getTocCreator());
+                }
+
+                epubWriter.writeEpubToChannel(book, channel, additionalEntries);
+            }
+
+            if (inPlace) {
+                reader.close();
+                Files.move(output, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+        } catch (IOException | RuntimeException e) {
+
+            if (inPlace) {
+                Files.deleteIfExists(output);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the EpubWriter used to write the update, it can be used to set
+     * executor or compression policy
+     *
+     * @return the epubWriter
+     */
+    public EpubWriter getEpubWriter() {
+        return epubWriter;
+    }
+
+    /**
+     * @return the existing navigation document
+     */
+    public Content getNavigation() {
+        return navigation;
+    }
+
+    /**
+     * @return the regenerateNavigation
+     */
+    public boolean isRegenerateNavigation() {
+        return regenerateNavigation;
+    }
+
+    /**
+     * Sets whether the navigation document is created again by the default
+     * TocCreator. This is needed if contents referenced by the TOC changed
+     *
+     * @param regenerateNavigation the regenerateNavigation to set
+     */
+    public void setRegenerateNavigation(boolean regenerateNavigation) {
+        this.regenerateNavigation = regenerateNavigation;
+    }
+
+    /**
+     * Closes the existing EPUB
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Content requireContent(String href) {
+
+        Content content = getContent(href);
+
+        if (content == null) {
+            throw new IllegalArgumentException("No content with href " + href);
+        }
+
+        return content;
+    }
+
+    /**
+     * Reads the path of the package document from the container.xml
+     */
+    private String readOpfPath() throws IOException {
+
+        Document container = parse(readRequiredEntry(EpubWriter.CONTAINER_ENTRY));
+        NodeList rootFiles = container.getElementsByTagNameNS(CONTAINER_NAMESPACE, "rootfile");
+
+        if (rootFiles.getLength() == 0) {
+            throw new ZipException("No rootfile in META-INF/container.xml");
+        }
+
+        return ((Element) rootFiles.item(0)).getAttribute("full-path");
+    }
+
+    /**
+     * Reads metadata, manifest and spine of the package document
+     */
+    private EpubBook readBook(Document opf, String opfPath) throws IOException {
+
+        Element root = opf.getDocumentElement();
+
+        EpubBook epubBook = new EpubBook();
+        epubBook.setAutoToc(false);
+
+        readMetadata(root, epubBook);
+
+        // Manifest
+        Map<String, Content> contentsById = new HashMap<>();
+        Map<Content, String> fallbacks = new HashMap<>();
+        List<Content> contents = new ArrayList<>();
+
+        for (Element item : children(root, "manifest", "item")) {
+
+            ArchiveEntrySource source = createSource(item.getAttribute("href"));
+            String href = source.getEntry().getName().substring(epubWriter.getContentFolder().length() + 1);
+            Content content = new Content(attribute(item, "media-type"), href, source);
+            content.setId(attribute(item, "id"));
+            content.setProperties(attribute(item, "properties"));
+            content.setSpine(false);
+
+            if (item.hasAttribute("fallback")) {
+                fallbacks.put(content, item.getAttribute("fallback"));
+            }
+
+            contentsById.put(content.getId(), content);
+            contentIds.add(content.getId());
+
+            if (navigation == null && content.getProperties() != null
+                    && List.of(content.getProperties().split("\\s+")).contains("nav")) {
+                navigation = content;
+            } else {
+                contents.add(content);
+            }
+        }
+
+        for (Map.Entry<Content, String> fallback : fallbacks.entrySet()) {
+
+            Content fallbackContent = contentsById.get(fallback.getValue());
+
+            if (fallbackContent != null) {
+                boolean spine = fallbackContent.isSpine();
+                fallback.getKey().setFallBack(fallbackContent);
+                fallbackContent.setSpine(spine);
+            }
+        }
+
+        // Spine, spine items keep the manifest slots but are ordered as in the spine
+        List<Content> spineContents = new ArrayList<>();
+
+        for (Element itemref : children(root, "spine", "itemref")) {
+
+            Content content = contentsById.get(itemref.getAttribute("idref"));
+
+            if (content != null && content.isSpine()) {
+                // Repeated itemrefs are kept in the package document as long as the spine is not changed
+                log.warn("Ignoring repeated itemref {} in the spine of {}", itemref.getAttribute("idref"), opfPath);
+            } else if (content != null && content != navigation) {
+                content.setSpine(true);
+                content.setLinear(!"no".equals(itemref.getAttribute("linear")));
+                spineContents.add(content);
+            }
+        }
+
+        int spineIndex = 0;
+
+        for (int i = 0; i < contents.size(); i++) {
+            if (contents.get(i).isSpine()) {
+                contents.set(i, spineContents.get(spineIndex++));
+            }
+        }
+
+        for (Content content : contents) {
+            epubBook.addContent(content);
+        }
+
+        if (navigation == null) {
+            throw new ZipException("No navigation document in the manifest of " + opfPath);
+        }
+
+        return epubBook;
+    }
+
+    private void readMetadata(Element root, EpubBook epubBook) {
+
+        String uniqueIdentifier = root.getAttribute("unique-identifier");
+        boolean isbn = false;
+
+        for (Element meta : children(root, "metadata", null)) {
+
+            if (DC_NAMESPACE.equals(meta.getNamespaceURI())) {
+
+                String value = meta.getTextContent().trim();
+
+                switch (meta.getLocalName()) {
+                    case "identifier" -> {
+                        if (epubBook.getId() == null || uniqueIdentifier.equals(meta.getAttribute("id"))) {
+                            epubBook.setId(value);
+                        }
+                    }
+                    case "title" -> epubBook.setTitle(first(epubBook.getTitle(), value));
+                    case "language" -> epubBook.setLanguage(first(epubBook.getLanguage(), value));
+                    case "creator" -> epubBook.setAuthor(first(epubBook.getAuthor(), value));
+                    case "publisher" -> epubBook.setPublisher(first(epubBook.getPublisher(), value));
+                    case "rights" -> epubBook.setRights(first(epubBook.getRights(), value));
+                    default -> {
+                        // Other Dublin Core elements are not part of EpubBook
+                    }
+                }
+
+            } else if ("meta".equals(meta.getLocalName())) {
+
+                if ("identifier-type".equals(meta.getAttribute("property"))
+                        && ("#" + uniqueIdentifier).equals(meta.getAttribute("refines"))) {
+                    isbn = true;
+                } else if (meta.hasAttribute("name")) {
+                    epubBook.addMetaTag(toMetaTag(meta));
+                }
+            }
+        }
+
+        if (isbn) {
+            epubBook.setIsbn(epubBook.getId());
+        }
+    }
+
+    private static String first(String current, String value) {
+        return current != null ? current : value;
+    }
+
+    /**
+     * Converts a meta element to a MetaTag, the name attribute comes first
+     */
+    private MetaTag toMetaTag(Element meta) {
+
+        MetaTag metaTag = new MetaTag();
+        metaTag.addAttribute("name", meta.getAttribute("name"));
+
+        NamedNodeMap attributes = meta.getAttributes();
+
+        for (int i = 0; i < attributes.getLength(); i++) {
+
+            Node attribute = attributes.item(i);
+
+            if (!"name".equals(attribute.getNodeName())) {
+                metaTag.addAttribute(attribute.getNodeName(), attribute.getNodeValue());
+            }
+        }
+
+        return metaTag;
+    }
+
+    /**
+     * Creates a source on the archive entry of a manifest item. The entry is
+     * looked up under the href as it is and then under the decoded href
+     */
+    private ArchiveEntrySource createSource(String href) throws ZipException {
+
+        String folder = epubWriter.getContentFolder() + "/";
+        ZipArchiveReader.Entry entry = reader.getEntry(folder + href);
+
+        if (entry == null) {
+            entry = reader.getEntry(folder + URLDecoder.decode(href, StandardCharsets.UTF_8));
+        }
+
+        if (entry == null) {
+            throw new ZipException("Manifest item " + href + " is missing in the archive");
+        }
+
+        return new ArchiveEntrySource(reader, entry);
+    }
+
+    /**
+     * Collects all entries which are not part of the manifest, except the
+     * mimetype and the package document
+     */
+    private void collectAdditionalEntries(String opfPath) {
+
+        Set<ZipArchiveReader.Entry> manifestEntries = new HashSet<>();
+
+        for (Content content : book.getContents()) {
+            manifestEntries.add(((ArchiveEntrySource) content.getSource()).getEntry());
+        }
+
+        manifestEntries.add(((ArchiveEntrySource) navigation.getSource()).getEntry());
+
+        for (ZipArchiveReader.Entry entry : reader.getEntries()) {
+
+            String name = entry.getName();
+
+            // The container.xml is kept, as it may name more than the package document
+            if (!manifestEntries.contains(entry) && !name.equals("mimetype") && !name.equals(opfPath)) {
+                additionalEntries.add(new ArchiveEntrySource(reader, entry));
+            }
+        }
+    }
+
+    private byte[] readRequiredEntry(String name) throws IOException {
+
+        ZipArchiveReader.Entry entry = reader.getEntry(name);
+
+        if (entry == null) {
+            throw new ZipException(name + " is missing in the archive");
+        }
+
+        return reader.readEntry(entry);
+    }
+
+    private static String attribute(Element element, String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    /**
+     * Returns the child elements with the local name of the first element
+     * with the parent name, all child elements if the name is null
+     */
+    private static List<Element> children(Element root, String parentName, String name) {
+
+        List<Element> parents = OpfPatcher.children(root, OPF_NAMESPACE, parentName);
+
+        if (parents.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Element> elements = new ArrayList<>();
+
+        for (Element element : OpfPatcher.children(parents.get(0), null, null)) {
+            if (name == null || name.equals(element.getLocalName())) {
+                elements.add(element);
+            }
+        }
+
+        return elements;
+    }
+
+    private static Document parse(byte[] xml) throws IOException {
+
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse XML of the EPUB", e);
+        }
+    }
+}
@@ -1,39 +1,128 @@
 package net.seeseekey.epubwriter.utils;
 
 import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.api.CompressionPolicy;
+import net.seeseekey.epubwriter.api.EpubWriteListener;
 import net.seeseekey.epubwriter.api.OpfCreator;
 import net.seeseekey.epubwriter.api.TocCreator;
-import net.seeseekey.epubwriter.impl.OpfCreatorDefault;
-import net.seeseekey.epubwriter.impl.TocCreatorDefault;
+import net.seeseekey.epubwriter.api.XhtmlNormalizer;
+import net.seeseekey.epubwriter.impl.CompressionPolicyDefault;
+import net.seeseekey.epubwriter.impl.OpfCreatorStreaming;
+import net.seeseekey.epubwriter.impl.TocCreatorStreaming;
+import net.seeseekey.epubwriter.jfr.EntryWrittenEvent;
+import net.seeseekey.epubwriter.jfr.OpfCreatedEvent;
+import net.seeseekey.epubwriter.jfr.TocCreatedEvent;
+import net.seeseekey.epubwriter.model.BufferContentSource;
 import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentSource;
 import net.seeseekey.epubwriter.model.EpubBook;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.zip.CRC32;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * The EpubWriter creates the EPUB zip bundle.
+ * <p>
+ * The EpubWriter is thread-safe and keeps no state between writes, so one
+ * instance can be shared by any number of books and threads. Its creators
+ * and compression policy must be thread-safe as well, which the default
+ * implementations are. Settings changed while a book is written may or may
+ * not apply to that book.
  */
 public class EpubWriter {
 
-    private String containerXML = EpubConstants.CONTAINER_XML;
+    /**
+     * The mimetype entry, which is the same for every book
+     */
+    private static final PreparedEntry MIMETYPE = PreparedEntry.stored("mimetype",
+            "application/epub+zip".getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * Name of the container entry pointing to the OPF
+     */
+    static final String CONTAINER_ENTRY = "META-INF/container.xml";
+
+    private volatile String containerXML = EpubConstants.CONTAINER_XML;
+
+    private volatile String contentFolder = EpubConstants.OPS_FOLDER;
+
+    private volatile String opfFileName = EpubConstants.OPF_FILE_NAME;
+
+    private volatile OpfCreator opfCreator = new OpfCreatorStreaming();
+
+    private volatile TocCreator tocCreator = new TocCreatorStreaming();
+
+    private volatile CompressionPolicy compressionPolicy = new CompressionPolicyDefault();
+
+    /**
+     * Cache of compressed entries shared between books, null if none is used
+     */
+    private volatile CompressedEntryCache entryCache;
 
-    private String contentFolder = EpubConstants.OPS_FOLDER;
+    /**
+     * Executor used to compress entries concurrently, null to compress them
+     * on the calling thread
+     */
+    private volatile Executor executor;
 
-    private String opfFileName = EpubConstants.OPF_FILE_NAME;
+    /**
+     * Maximum number of entries compressed ahead of the written entry
+     */
+    private volatile int maxPendingEntries = 64;
+
+    /**
+     * Indicates whether files are extended to the estimated size of the book
+     * before they are written
+     */
+    private volatile boolean preallocateFiles = false;
+
+    /**
+     * Pool of the Deflaters used to compress entries
+     */
+    private volatile DeflaterPool deflaterPool = new DeflaterPool();
+
+    /**
+     * Pool of the write buffers of the archives
+     */
+    private volatile BufferPool bufferPool = new BufferPool();
 
-    private OpfCreator opfCreator = new OpfCreatorDefault();
+    /**
+     * Listener receiving the events of all writes, null if none is attached
+     */
+    private volatile EpubWriteListener writeListener;
 
-    private TocCreator tocCreator = new TocCreatorDefault();
+    /**
+     * Normalizer of the XHTML contents, null to write them as they are
+     */
+    private volatile XhtmlNormalizer normalizer;
 
     /**
      * Writes the EPUB book zip container and contents to a file
@@ -44,13 +133,21 @@ public class EpubWriter {
      */
     public void writeEpubToFile(EpubBook book, String fileName) throws IOException {
 
-        try (FileOutputStream file = new FileOutputStream(fileName)) {
-            writeEpubToStream(book, file);
+        try (FileChannel channel = FileChannel.open(Path.of(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            if (preallocateFiles) {
+                preallocate(channel, book);
+            }
+
+            writeEpubToChannel(book, channel);
+            channel.truncate(channel.position());
         }
     }
 
     /**
-     * Writes the EPUB book zip container and contents to an OutputStream
+     * Writes the EPUB book zip container and contents to an OutputStream. The
+     * OutputStream is closed afterwards
      *
      * @param book the EpubBook
      * @param out  the OutputStream to write to
@@ -58,67 +155,566 @@ public class EpubWriter {
      */
     public void writeEpubToStream(EpubBook book, OutputStream out) throws IOException {
 
-        try (ZipOutputStream resultStream = new ZipOutputStream(out)) {
+        try (WritableByteChannel channel = Channels.newChannel(out)) {
+            writeEpubToChannel(book, channel);
+        }
+    }
+
+    /**
+     * Writes the EPUB book zip container and contents to a channel. The
+     * channel is not closed.
+     * <p>
+     * If an executor is set, the in memory content is compressed concurrently
+     * on the executor and the entries are written in spine order. The result
+     * is byte-identical to the sequential mode.
+     *
+     * @param book    the EpubBook
+     * @param channel the channel to write to
+     * @throws IOException if file could not be written
+     */
+    public void writeEpubToChannel(EpubBook book, WritableByteChannel channel) throws IOException {
+        writeEpubToChannel(book, channel, List.of());
+    }
+
+    /**
+     * Writes the EPUB book zip container and contents to an
+     * AsynchronousFileChannel, starting at position 0. The book is written on
+     * the executor, file writes are issued asynchronously while the next
+     * entry is compressed. The file is truncated to the size of the book, the
+     * channel is not closed
+     *
+     * @param book     the EpubBook
+     * @param channel  the channel to write to
+     * @param executor the executor the book is written on
+     * @return a future completed with the size of the written book
+     */
+    public CompletableFuture<Long> writeEpubToChannel(EpubBook book, AsynchronousFileChannel channel, Executor executor) {
+
+        return CompletableFuture.supplyAsync(() -> {
+
+            try {
+                AsynchronousFileChannelWriter writer = new AsynchronousFileChannelWriter(channel, 0);
+                writeEpubToChannel(book, writer);
+
+                long size = writer.finish();
+                channel.truncate(size);
+
+                return size;
+
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Creates a publisher of the EPUB book zip container and contents. The
+     * book is written on the executor entry by entry as the subscriber
+     * requests buffers, while the subscriber has no outstanding demand no
+     * thread is held, so a slow consumer applies back-pressure. The buffers
+     * belong to the subscriber and may be read-only. The publisher accepts a
+     * single subscriber
+     *
+     * @param book     the EpubBook
+     * @param executor the executor the book is written on
+     * @return the publisher of the buffers of the EPUB
+     */
+    public Flow.Publisher<ByteBuffer> createPublisher(EpubBook book, Executor executor) {
+        return new EpubPublisher(this, book, executor);
+    }
+
+    /**
+     * Writes the EPUB book to a channel, with additional entries of an
+     * existing archive which are not part of the manifest. An additional
+     * container.xml replaces the generated one
+     */
+    void writeEpubToChannel(EpubBook book, WritableByteChannel channel, List<ArchiveEntrySource> additionalEntries) throws IOException {
+
+        try (BookWrite write = new BookWrite(book, channel, additionalEntries)) {
+            while (write.writeNext()) {
+                // Every step writes the next entries of the book
+            }
+        }
+    }
+
+    /**
+     * Compiles the book into an immutable snapshot. The OPF, the navigation
+     * document and all in memory content are generated and compressed once,
+     * using the executor if one is set. Content with a source is streamed
+     * each time the snapshot is written
+     *
+     * @param book the EpubBook
+     * @return the compiled book
+     * @throws IOException if the content can not be compressed
+     */
+    public CompiledEpub compile(EpubBook book) throws IOException {
+
+        EpubBook manifest = createManifest(book, WriteObserver.NONE);
+
+        OpfCreator creator = getOpfCreator();
+        OpfCreatedEvent event = new OpfCreatedEvent();
+        event.begin();
+
+        String opf = creator.createOpfString(manifest);
+
+        commit(event, creator, manifest, () -> opf.getBytes(StandardCharsets.UTF_8).length);
+
+        List<CompiledEpub.Entry> entries = new ArrayList<>();
+        entries.add(new CompiledEpub.Entry(prepareString(CONTAINER_ENTRY, "application/xml",
+                MessageFormat.format(containerXML, contentFolder)), "application/xml"));
+        entries.add(new CompiledEpub.Entry(prepareString(contentFolder + "/" + getOpfFileName(),
+                "application/oebps-package+xml", opf), "application/oebps-package+xml"));
+
+        List<CompletableFuture<PreparedEntry>> futures = new ArrayList<>();
+        SharedPayloads shared = new SharedPayloads(manifest.getContents());
+
+        for (Content content : manifest.getContents()) {
+
+            if (content.isBuffered()) {
+
+                futures.add(shared.prepare(content, prepared -> {
 
-            List<Content> contents = book.getContents();
+                    // Later changes of the content do not matter, the trimmed entry holds its own copy of the data
+                    Content snapshot = new Content(prepared.getMediaType(), prepared.getHref(), prepared.getContent());
+                    snapshot.setProperties(prepared.getProperties());
 
-            addMimeType(resultStream);
-            contents.add(0, getTocCreator().createTocFromBook(book));
+                    return executor == null
+                            ? CompletableFuture.completedFuture(new TimedEntry(prepareContent(snapshot).trimmed(), 0))
+                            : CompletableFuture.supplyAsync(() -> new TimedEntry(prepareContent(snapshot).trimmed(), 0), executor);
+                }).thenApply(TimedEntry::entry));
+            } else {
+                futures.add(null);
+            }
+        }
+
+        List<Content> contents = manifest.getContents();
+
+        for (int i = 0; i < contents.size(); i++) {
+
+            Content content = contents.get(i);
 
-            addStringToZip(resultStream, "META-INF/container.xml", MessageFormat.format(containerXML, contentFolder));
-            addStringToZip(resultStream, contentFolder + "/" + getOpfFileName(), getOpfCreator().createOpfString(book));
+            if (futures.get(i) == null) {
+                entries.add(new CompiledEpub.Entry(contentFolder + "/" + content.getHref(), content.getMediaType(),
+                        content.getSource()));
+                continue;
+            }
 
-            addContent(resultStream, contents);
+            try {
+                entries.add(new CompiledEpub.Entry(futures.get(i).join(), content.getMediaType()));
+            } catch (CompletionException e) {
+
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+
+                throw new IOException("Could not compress " + content.getHref(), e.getCause());
+            }
         }
+
+        return new CompiledEpub(this, manifest.getId(), opf, contents.get(0), entries);
     }
 
     /**
-     * Adds the zip/EPUB mime type to the EPUB zip file
+     * Creates a copy of the book whose contents start with the navigation
+     * document and its continuation documents, the book itself is not changed
      */
-    private void addMimeType(ZipOutputStream resultStream) throws IOException {
+    EpubBook createManifest(EpubBook book, WriteObserver observer) throws IOException {
+
+        long start = observer.phaseStarted(EpubWriteListener.Phase.TOC);
+
+        TocCreator creator = getTocCreator();
+        TocCreatedEvent event = new TocCreatedEvent();
+        event.begin();
+
+        List<Content> tocContents = creator.createTocContents(book);
+
+        event.end();
+
+        if (event.shouldCommit()) {
 
-        ZipEntry mimetypeZipEntry = new ZipEntry("mimetype");
-        mimetypeZipEntry.setMethod(ZipEntry.STORED);
+            event.bookId = book.getId();
+            event.creator = creator.getClass();
+            event.documents = tocContents.size();
 
-        byte[] mimetypeBytes = "application/epub+zip".getBytes(StandardCharsets.UTF_8);
-        mimetypeZipEntry.setSize(mimetypeBytes.length);
-        mimetypeZipEntry.setCrc(calculateCrc(mimetypeBytes));
+            for (Content content : tocContents) {
+                event.bytes += countBytes(content);
+            }
 
-        resultStream.putNextEntry(mimetypeZipEntry);
-        resultStream.write(mimetypeBytes);
+            event.commit();
+        }
+
+        EpubBook manifest = book.copy();
+        manifest.getContents().addAll(0, tocContents);
+
+        observer.phaseFinished(EpubWriteListener.Phase.TOC, start);
+
+        return manifest;
     }
 
     /**
-     * Calculates the CRC32 of data for the zip entry
+     * Returns the size of a TOC document for its flight recorder event. A
+     * source of unknown length is rendered once more if it is repeatable,
+     * otherwise it is not counted
      */
-    private long calculateCrc(byte[] data) {
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        return crc.getValue();
+    private static long countBytes(Content content) throws IOException {
+
+        long length = content.getContentLength();
+
+        if (length >= 0 || !content.getSource().isRepeatable()) {
+            return Math.max(length, 0);
+        }
+
+        CountingOutputStream counter = new CountingOutputStream(OutputStream.nullOutputStream(), null);
+        content.writeContent(counter);
+
+        return counter.getCount();
+    }
+
+    /**
+     * Commits the flight recorder event of an OPF creation
+     */
+    private static void commit(OpfCreatedEvent event, OpfCreator creator, EpubBook book, LongSupplier bytes) {
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.bookId = book.getId();
+            event.creator = creator.getClass();
+            event.bytes = bytes.getAsLong();
+            event.commit();
+        }
+    }
+
+    /**
+     * Creates an archive on the channel using the pools of the writer. The
+     * archive must be released afterwards
+     */
+    ZipArchiveWriter createArchive(WritableByteChannel channel, WriteObserver observer) throws IOException {
+        return new ZipArchiveWriter(channel, System.currentTimeMillis(), observer, bufferPool, deflaterPool);
+    }
+
+    /**
+     * Writes the central directory and completes the write
+     */
+    void finish(ZipArchiveWriter archive) throws IOException {
+
+        WriteObserver observer = archive.getObserver();
+        long start = observer.phaseStarted(EpubWriteListener.Phase.CENTRAL_DIRECTORY);
+
+        archive.finish();
+
+        observer.phaseFinished(EpubWriteListener.Phase.CENTRAL_DIRECTORY, start);
+        observer.finished(archive.getPosition());
+    }
+
+    /**
+     * Extends the file to the estimated size of the book, the file is
+     * truncated to the real size after it has been written
+     */
+    private void preallocate(FileChannel channel, EpubBook book) throws IOException {
+
+        long size = 0;
+
+        for (Content content : book.getContents()) {
+            size += Math.max(0, content.getContentLength()) + 2 * content.getHref().length() + 128;
+        }
+
+        if (size > 0) {
+            channel.write(ByteBuffer.allocate(1), channel.position() + size - 1);
+        }
+    }
+
+    /**
+     * Adds the zip/EPUB mime type to the EPUB zip file
+     */
+    void addMimeType(ZipArchiveWriter archive) throws IOException {
+        writeEntry(archive, MIMETYPE, null, 0);
+    }
+
+    /**
+     * Adds the container.xml pointing to the OPF
+     */
+    void addContainer(ZipArchiveWriter archive) throws IOException {
+        addStringToZip(archive, CONTAINER_ENTRY, "application/xml",
+                MessageFormat.format(containerXML, contentFolder));
+    }
+
+    /**
+     * Adds the OPF of the book, the contents of the book must include the
+     * navigation document
+     */
+    void addOpf(ZipArchiveWriter archive, EpubBook manifest) throws IOException {
+
+        WriteObserver observer = archive.getObserver();
+        long start = observer.phaseStarted(EpubWriteListener.Phase.OPF);
+
+        String fileName = contentFolder + "/" + getOpfFileName();
+
+        OpfCreator creator = getOpfCreator();
+        OpfCreatedEvent event = new OpfCreatedEvent();
+        event.begin();
+
+        ByteArrayOutputStream opf = new ByteArrayOutputStream(8192);
+        creator.writeOpf(manifest, opf);
+
+        commit(event, creator, manifest, opf::size);
+
+        long compressionStart = observer.time();
+        PreparedEntry entry = prepareEntry(fileName, "application/oebps-package+xml", opf.toByteArray());
+        writeEntry(archive, entry, "application/oebps-package+xml", observer.elapsed(compressionStart));
+
+        observer.phaseFinished(EpubWriteListener.Phase.OPF, start);
     }
 
     /**
      * Adds string content as a zip entry with the specified file name
      */
-    private void addStringToZip(ZipOutputStream resultStream, String fileName, String content) throws IOException {
+    private void addStringToZip(ZipArchiveWriter archive, String fileName, String mediaType, String content) throws IOException {
 
-        resultStream.putNextEntry(new ZipEntry(fileName));
+        WriteObserver observer = archive.getObserver();
 
-        Writer out = new OutputStreamWriter(resultStream, StandardCharsets.UTF_8);
-        out.write(content);
-        out.flush();
+        long start = observer.time();
+        PreparedEntry entry = prepareString(fileName, mediaType, content);
+        writeEntry(archive, entry, mediaType, observer.elapsed(start));
     }
 
     /**
-     * Adds the content objects zip entries
+     * Writes a prepared entry and signals it to the observer of the archive
      */
-    private void addContent(ZipOutputStream resultStream, List<Content> contents) throws IOException {
+    void writeEntry(ZipArchiveWriter archive, PreparedEntry entry, String mediaType, long compressionNanos) throws IOException {
 
-        for (Content content : contents) {
+        WriteObserver observer = archive.getObserver();
+
+        EntryWrittenEvent event = new EntryWrittenEvent();
+        event.begin();
+
+        long start = observer.time();
+        archive.writeEntry(entry);
+        observer.entryWritten(archive, event, mediaType, compressionNanos, start);
+    }
 
-            resultStream.putNextEntry(new ZipEntry(contentFolder + "/" + content.getHref()));
-            resultStream.write(content.getContent());
+    /**
+     * Compresses string content for a zip entry with the specified file name
+     */
+    private PreparedEntry prepareString(String fileName, String mediaType, String content) {
+        return prepareEntry(fileName, mediaType, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the zip entry of a single content object
+     */
+    void addContent(ZipArchiveWriter archive, Content content) throws IOException {
+
+        if (!content.isBuffered()) {
+            addStreamedContent(archive, content);
+            return;
+        }
+
+        String fileName = contentFolder + "/" + content.getHref();
+        int level = compressionPolicy.getCompressionLevel(fileName, content.getMediaType());
+        byte[] data = payload(content);
+
+        WriteObserver observer = archive.getObserver();
+
+        // The compression policy must keep any deflated result, as the entry can not be stored instead once written
+        if (level == Deflater.NO_COMPRESSION || isCached(content.getMediaType(), level)
+                || !compressionPolicy.isCompressionWorthwhile(data.length, Long.MAX_VALUE)) {
+
+            long start = observer.time();
+            PreparedEntry entry = prepareEntry(fileName, level, data, content.getMediaType());
+            writeEntry(archive, entry, content.getMediaType(), observer.elapsed(start));
+            return;
+        }
+
+        EntryWrittenEvent event = new EntryWrittenEvent();
+        event.begin();
+
+        // Deflating and writing are interleaved, the whole time counts as compression
+        long start = observer.time();
+        archive.writeDeflatedEntry(fileName, level, data);
+        observer.entryWritten(archive, event, content.getMediaType(), observer.elapsed(start), start);
+    }
+
+    /**
+     * Writes the next entry in spine order, waiting for its compression if
+     * necessary
+     */
+    private void writePendingEntry(ZipArchiveWriter archive, PendingEntry entry) throws IOException {
+
+        if (entry.future == null) {
+            addContent(archive, entry.content);
+            return;
         }
+
+        try {
+            TimedEntry prepared = entry.future.join();
+            writeEntry(archive, prepared.entry, entry.content.getMediaType(), prepared.nanos);
+        } catch (CompletionException e) {
+
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+
+            throw new IOException("Could not compress " + entry.content.getHref(), e.getCause());
+        }
+    }
+
+    /**
+     * Compresses in memory content into a prepared zip entry, measuring the
+     * time if the observer is active
+     */
+    private TimedEntry prepareContent(Content content, WriteObserver observer) {
+
+        long start = observer.time();
+        PreparedEntry entry = prepareContent(content);
+
+        return new TimedEntry(entry, observer.elapsed(start));
+    }
+
+    /**
+     * Compresses in memory content into a prepared zip entry
+     */
+    private PreparedEntry prepareContent(Content content) {
+
+        String fileName = contentFolder + "/" + content.getHref();
+        int level = compressionPolicy.getCompressionLevel(fileName, content.getMediaType());
+
+        return prepareEntry(fileName, level, payload(content), content.getMediaType());
+    }
+
+    /**
+     * Compresses the payload of in memory content, through the entry cache if
+     * it holds entries of its media type
+     */
+    private PreparedEntry prepareEntry(String fileName, int level, byte[] data, String mediaType) {
+
+        if (isCached(mediaType, level)) {
+            return entryCache.getOrCompress(fileName, data, level, () -> prepareEntry(fileName, level, data));
+        }
+
+        return prepareEntry(fileName, level, data);
+    }
+
+    /**
+     * Returns the payload of in memory content, normalized if it is XHTML
+     */
+    private byte[] payload(Content content) {
+
+        byte[] payload = content.getContent() == null ? new byte[0] : content.getContent();
+        XhtmlNormalizer currentNormalizer = normalizer;
+
+        return currentNormalizer != null && isNormalized(content) ? currentNormalizer.normalize(payload) : payload;
+    }
+
+    /**
+     * Indicates whether entries of the media type are taken from the entry
+     * cache
+     */
+    private boolean isCached(String mediaType, int level) {
+        return entryCache != null && level != Deflater.NO_COMPRESSION && entryCache.isCacheable(mediaType);
+    }
+
+    /**
+     * Indicates whether a content is normalized. The navigation document is
+     * generated well-formed and left as it is
+     */
+    private static boolean isNormalized(Content content) {
+        return "application/xhtml+xml".equals(content.getMediaType())
+                && (content.getProperties() == null || !List.of(content.getProperties().split("\\s+")).contains("nav"));
+    }
+
+    /**
+     * Compresses data as the compression policy demands
+     */
+    private PreparedEntry prepareEntry(String fileName, String mediaType, byte[] data) {
+        return prepareEntry(fileName, compressionPolicy.getCompressionLevel(fileName, mediaType), data);
+    }
+
+    /**
+     * Compresses data with the compression level. Deflated data which the
+     * policy does not consider worthwhile is stored instead
+     */
+    private PreparedEntry prepareEntry(String fileName, int level, byte[] data) {
+
+        if (level == Deflater.NO_COMPRESSION) {
+            return PreparedEntry.stored(fileName, data);
+        }
+
+        PreparedEntry entry = PreparedEntry.deflated(fileName, data, level, deflaterPool);
+
+        if (!compressionPolicy.isCompressionWorthwhile(entry.getSize(), entry.getCompressedSize())) {
+            return PreparedEntry.stored(entry, data);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Copies the compressed data of an entry from an existing archive
+     */
+    private void addArchivedEntry(ZipArchiveWriter archive, String fileName, ArchiveEntrySource archived) throws IOException {
+
+        ZipArchiveReader.Entry entry = archived.getEntry();
+        archive.writeRawEntry(fileName, entry.getMethod(), entry.getCrc(), entry.getSize(), entry.getCompressedSize(), archived.raw());
+    }
+
+    /**
+     * Streams content with a source into a zip entry. Stored entries need the
+     * CRC in advance, so a repeatable source is read twice and then
+     * transferred. Other sources are stored in one pass if the archive can
+     * patch the local header, or deflated without compression instead
+     */
+    private void addStreamedContent(ZipArchiveWriter archive, Content content) throws IOException {
+        addStreamedContent(archive, contentFolder + "/" + content.getHref(), content.getMediaType(), content.getSource());
+    }
+
+    /**
+     * Streams a source into the zip entry with the specified file name
+     */
+    void addStreamedContent(ZipArchiveWriter archive, String fileName, String mediaType, ContentSource source) throws IOException {
+
+        WriteObserver observer = archive.getObserver();
+
+        EntryWrittenEvent event = new EntryWrittenEvent();
+        event.begin();
+
+        long start = observer.time();
+        writeStreamedContent(archive, fileName, mediaType, source);
+        observer.entryWritten(archive, event, mediaType, 0, start);
+    }
+
+    private void writeStreamedContent(ZipArchiveWriter archive, String fileName, String mediaType, ContentSource source) throws IOException {
+
+        if (source instanceof ArchiveEntrySource archived) {
+            addArchivedEntry(archive, fileName, archived);
+            return;
+        }
+
+        int level = compressionPolicy.getCompressionLevel(fileName, mediaType);
+
+        if (level == Deflater.NO_COMPRESSION) {
+
+            if (source instanceof BufferContentSource buffers) {
+                archive.writeStoredEntry(fileName, buffers.getCrc(), buffers.getLength(), source);
+                return;
+            }
+
+            if (source.isRepeatable()) {
+
+                CountingOutputStream checksum = new CountingOutputStream(OutputStream.nullOutputStream(), new CRC32());
+                source.writeTo(checksum);
+
+                archive.writeStoredEntry(fileName, checksum.getCrc(), checksum.getCount(), source);
+                return;
+            }
+
+            if (archive.isSeekable()) {
+                archive.writeStoredEntry(fileName, source);
+                return;
+            }
+        }
+
+        archive.writeStreamedEntry(fileName, level, source);
     }
 
     /**
@@ -190,4 +786,403 @@ public class EpubWriter {
     public void setTocCreator(TocCreator tocCreator) {
         this.tocCreator = tocCreator;
     }
+
+    /**
+     * @return the compressionPolicy
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * @param compressionPolicy the compressionPolicy to set
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+    /**
+     * @return the entryCache
+     */
+    public CompressedEntryCache getEntryCache() {
+        return entryCache;
+    }
+
+    /**
+     * Sets the cache of compressed entries. The same cache can be used by
+     * several EpubWriter instances at the same time
+     *
+     * @param entryCache the entryCache to set, null to disable caching
+     */
+    public void setEntryCache(CompressedEntryCache entryCache) {
+        this.entryCache = entryCache;
+    }
+
+    /**
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used to compress entries concurrently. If it is null
+     * all entries are compressed on the calling thread
+     *
+     * @param executor the executor to set
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the maxPendingEntries
+     */
+    public int getMaxPendingEntries() {
+        return maxPendingEntries;
+    }
+
+    /**
+     * Limits the number of entries which are compressed ahead of the entry
+     * currently written, this bounds the memory used for compressed data
+     *
+     * @param maxPendingEntries the maxPendingEntries to set
+     */
+    public void setMaxPendingEntries(int maxPendingEntries) {
+        this.maxPendingEntries = Math.max(1, maxPendingEntries);
+    }
+
+    /**
+     * @return the preallocateFiles
+     */
+    public boolean isPreallocateFiles() {
+        return preallocateFiles;
+    }
+
+    /**
+     * Sets whether writeEpubToFile extends the file to the estimated size of
+     * the book before it is written. This lets the file system allocate the
+     * file in one piece
+     *
+     * @param preallocateFiles the preallocateFiles to set
+     */
+    public void setPreallocateFiles(boolean preallocateFiles) {
+        this.preallocateFiles = preallocateFiles;
+    }
+
+    /**
+     * @return the deflaterPool
+     */
+    public DeflaterPool getDeflaterPool() {
+        return deflaterPool;
+    }
+
+    /**
+     * Sets the pool the Deflaters are taken from. A pool can be shared by
+     * several EpubWriter instances, a pool without idle Deflaters disables
+     * pooling
+     *
+     * @param deflaterPool the deflaterPool to set
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        this.deflaterPool = Objects.requireNonNull(deflaterPool);
+    }
+
+    /**
+     * @return the bufferPool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the pool the write buffers of the archives are taken from. A pool
+     * can be shared by several EpubWriter instances, a pool without idle
+     * buffers disables pooling
+     *
+     * @param bufferPool the bufferPool to set
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.bufferPool = Objects.requireNonNull(bufferPool);
+    }
+
+    /**
+     * @return the writeListener
+     */
+    public EpubWriteListener getWriteListener() {
+        return writeListener;
+    }
+
+    /**
+     * Sets the listener receiving the phases and entries of every write, e.g.
+     * a BuildReportCollector. Without a listener no events are created
+     *
+     * @param writeListener the writeListener to set, null to remove it
+     */
+    public void setWriteListener(EpubWriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    /**
+     * @return the normalizer
+     */
+    public XhtmlNormalizer getNormalizer() {
+        return normalizer;
+    }
+
+    /**
+     * Sets the normalizer of the XHTML contents. Contents held in memory are
+     * normalized before they are compressed, on the executor if one is set.
+     * Streamed contents and the navigation document are written as they are
+     *
+     * @param normalizer the normalizer to set, null to write XHTML contents as they are
+     */
+    public void setNormalizer(XhtmlNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * Write of a single book, performed step by step. The first step writes
+     * the mimetype, the container and the OPF, every further step writes one
+     * content and the last step writes the central directory. If an executor
+     * is set, in memory content is compressed on it while at most
+     * maxPendingEntries entries are compressed ahead of the entry currently
+     * written. The write must be closed afterwards, which cancels pending
+     * compressions and releases the archive
+     */
+    final class BookWrite implements Closeable {
+
+        private final EpubBook book;
+
+        private final List<ArchiveEntrySource> additionalEntries;
+
+        private final WriteObserver observer;
+
+        private final ZipArchiveWriter archive;
+
+        private final Executor executor = EpubWriter.this.executor;
+
+        private final Deque<PendingEntry> pending = new ArrayDeque<>();
+
+        private Iterator<Content> contents;
+
+        private SharedPayloads shared;
+
+        private long contentsStart;
+
+        private boolean finished;
+
+        /**
+         * @param book              the book
+         * @param channel           the channel to write to, it is not closed
+         * @param additionalEntries entries of an existing archive which are
+         *                          not part of the manifest
+         * @throws IOException if the archive can not be created on the channel
+         */
+        BookWrite(EpubBook book, WritableByteChannel channel, List<ArchiveEntrySource> additionalEntries) throws IOException {
+            this.book = book;
+            this.additionalEntries = additionalEntries;
+            this.observer = WriteObserver.start(writeListener, book.getId());
+            this.archive = createArchive(channel, observer);
+        }
+
+        /**
+         * Performs the next step of the write
+         *
+         * @return false if the book has been written completely
+         * @throws IOException if an entry could not be written
+         */
+        boolean writeNext() throws IOException {
+
+            if (finished) {
+                return false;
+            }
+
+            try {
+                if (contents == null) {
+                    writeHead();
+                    return true;
+                }
+
+                int ahead = executor == null ? 1 : maxPendingEntries;
+
+                while (pending.size() < ahead && contents.hasNext()) {
+                    pending.add(prepare(contents.next()));
+                }
+
+                PendingEntry entry = pending.poll();
+
+                if (entry != null) {
+                    writePendingEntry(archive, entry);
+                    return true;
+                }
+
+                observer.phaseFinished(EpubWriteListener.Phase.CONTENTS, contentsStart);
+                finish(archive);
+                finished = true;
+
+                return false;
+
+            } catch (IOException | RuntimeException e) {
+                finished = true;
+                observer.failed(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Writes the entries before the contents. An additional
+         * container.xml replaces the generated one
+         */
+        private void writeHead() throws IOException {
+
+            EpubBook manifest = createManifest(book, observer);
+            List<Content> manifestContents = manifest.getContents();
+
+            addMimeType(archive);
+
+            if (additionalEntries.stream().noneMatch(entry -> CONTAINER_ENTRY.equals(entry.getEntry().getName()))) {
+                addContainer(archive);
+            }
+
+            for (ArchiveEntrySource additionalEntry : additionalEntries) {
+                addStreamedContent(archive, additionalEntry.getEntry().getName(), null, additionalEntry);
+            }
+
+            addOpf(archive, manifest);
+
+            contentsStart = observer.phaseStarted(EpubWriteListener.Phase.CONTENTS);
+            shared = new SharedPayloads(manifestContents);
+            contents = manifestContents.iterator();
+        }
+
+        /**
+         * Starts the compression of in memory content, content with a source
+         * is streamed when it is written. Without executor only shared
+         * payloads are prepared, other in memory content is deflated while
+         * it is written
+         */
+        private PendingEntry prepare(Content content) {
+
+            CompletableFuture<TimedEntry> future = null;
+
+            if (content.isBuffered() && (executor != null || shared.isShared(content))) {
+                future = shared.prepare(content, prepared -> executor == null
+                        ? CompletableFuture.completedFuture(prepareContent(prepared, observer))
+                        : CompletableFuture.supplyAsync(() -> prepareContent(prepared, observer), executor));
+            }
+
+            return new PendingEntry(content, future);
+        }
+
+        @Override
+        public void close() {
+
+            for (PendingEntry entry : pending) {
+                if (entry.future != null) {
+                    entry.future.cancel(false);
+                }
+            }
+
+            pending.clear();
+            archive.release();
+        }
+    }
+
+    /**
+     * Content together with its compression in progress
+     */
+    private record PendingEntry(Content content, CompletableFuture<TimedEntry> future) {
+    }
+
+    /**
+     * Prepared entry together with the time spent compressing it
+     */
+    private record TimedEntry(PreparedEntry entry, long nanos) {
+    }
+
+    /**
+     * Payload array, compared by identity, together with its compression level
+     */
+    private record SharedKey(byte[] payload, int level) {
+    }
+
+    /**
+     * Payload arrays shared by several contents of one write, as held by a
+     * book deduplicating its payloads. A shared payload is compressed once
+     * and its entry is reused under the names of the other contents. The
+     * entry is kept only until the last content sharing it has been prepared
+     */
+    private final class SharedPayloads {
+
+        /**
+         * Number of contents still to prepare per shared payload
+         */
+        private final Map<SharedKey, Integer> remaining = new HashMap<>();
+
+        private final Map<SharedKey, CompletableFuture<TimedEntry>> prepared = new HashMap<>();
+
+        SharedPayloads(List<Content> contents) {
+
+            for (Content content : contents) {
+
+                SharedKey key = key(content);
+
+                if (key != null) {
+                    remaining.merge(key, 1, Integer::sum);
+                }
+            }
+
+            remaining.values().removeIf(count -> count == 1);
+        }
+
+        /**
+         * Prepares the entry of a content with the preparer, unless a content
+         * sharing its payload has been prepared before
+         */
+        CompletableFuture<TimedEntry> prepare(Content content, Function<Content, CompletableFuture<TimedEntry>> preparer) {
+
+            SharedKey key = remaining.isEmpty() ? null : key(content);
+
+            if (key == null || !remaining.containsKey(key)) {
+                return preparer.apply(content);
+            }
+
+            CompletableFuture<TimedEntry> future = prepared.get(key);
+
+            if (future == null) {
+                future = preparer.apply(content);
+                prepared.put(key, future);
+            } else {
+                String fileName = contentFolder + "/" + content.getHref();
+                future = future.thenApply(entry -> new TimedEntry(entry.entry.withName(fileName), 0));
+            }
+
+            if (remaining.merge(key, -1, Integer::sum) == 0) {
+                remaining.remove(key);
+                prepared.remove(key);
+            }
+
+            return future;
+        }
+
+        /**
+         * Indicates whether the content shares its payload with a content
+         * still to prepare
+         */
+        boolean isShared(Content content) {
+            return !remaining.isEmpty() && remaining.containsKey(key(content));
+        }
+
+        private SharedKey key(Content content) {
+
+            if (!content.isBuffered() || content.getContent() == null) {
+                return null;
+            }
+
+            int level = compressionPolicy.getCompressionLevel(contentFolder + "/" + content.getHref(), content.getMediaType());
+
+            return new SharedKey(content.getContent(), level);
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream handed to content sources while a zip entry is open. Closing it
+ * only flushes, so a generator can not close the underlying zip stream.
+ */
+class NonClosingOutputStream extends FilterOutputStream {
+
+    NonClosingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        out.write(data, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,570 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.api.OpfCreator;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.MetaTag;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * OpfCreator of the EpubUpdater, which patches the package document of the
+ * existing EPUB instead of generating a new one.
+ * <p>
+ * All elements and attributes of the package document are kept as they are.
+ * Only the metadata represented by EpubBook which changed since the document
+ * was read is rewritten, manifest items and itemrefs are added, removed or
+ * changed for the contents which were added, removed or changed, and the
+ * dcterms:modified date is updated. Elements EpubBook does not know, like
+ * further creators, subjects, the guide or the page progression direction
+ * of the spine, are copied unchanged.
+ */
+class OpfPatcher implements OpfCreator {
+
+    static final String DC_NAMESPACE = "http://purl.org/dc/elements/1.1/";
+
+    static final String OPF_NAMESPACE = "http://www.idpf.org/2007/opf";
+
+    /**
+     * Format of the dcterms:modified date, always in UTC
+     */
+    private static final DateTimeFormatter MODIFIED_FORMAT = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    /**
+     * The package document as it was read, it is never changed
+     */
+    private final Document document;
+
+    /**
+     * The metadata of the book as it was read
+     */
+    private final Metadata metadata;
+
+    /**
+     * Manifest item of each content as it was read
+     */
+    private final Map<Content, Item> items = new IdentityHashMap<>();
+
+    /**
+     * Spine of the book as it was read
+     */
+    private final List<SpineItem> spine = new ArrayList<>();
+
+    /**
+     * Creates a patcher for the package document the book has been read from
+     *
+     * @param document   the package document
+     * @param book       the book read from the package document
+     * @param navigation the navigation document of the book
+     */
+    OpfPatcher(Document document, EpubBook book, Content navigation) {
+
+        this.document = document;
+        this.metadata = Metadata.of(book);
+
+        items.put(navigation, new Item(navigation.getId(), navigation.getHref()));
+
+        for (Content content : book.getContents()) {
+
+            items.put(content, new Item(content.getId(), content.getHref()));
+
+            if (content.isSpine()) {
+                spine.add(new SpineItem(content, content.getId(), content.isLinear()));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String createOpfString(EpubBook book) {
+
+        Document opf;
+
+        // Even reading a DOM is not thread-safe
+        synchronized (document) {
+            opf = (Document) document.cloneNode(true);
+        }
+
+        Element root = opf.getDocumentElement();
+
+        patchMetadata(root, book);
+        patchManifest(root, book);
+        patchSpine(root, book);
+
+        return serialize(opf);
+    }
+
+    private void patchMetadata(Element root, EpubBook book) {
+
+        Element element = child(root, OPF_NAMESPACE, "metadata");
+
+        if (element == null) {
+            throw new IllegalStateException("The package document has no metadata");
+        }
+
+        Metadata current = Metadata.of(book);
+
+        if (!Objects.equals(metadata.identifier(), current.identifier())) {
+            patchIdentifier(root, element, current.identifier());
+        }
+
+        patchDublinCore(element, "title", metadata.title(), current.title());
+        patchDublinCore(element, "language", metadata.language(), current.language());
+        patchDublinCore(element, "creator", metadata.author(), current.author());
+        patchDublinCore(element, "publisher", metadata.publisher(), current.publisher());
+        patchDublinCore(element, "rights", metadata.rights(), current.rights());
+
+        String uniqueIdentifier = root.getAttribute("unique-identifier");
+
+        if (current.isbn() != metadata.isbn()) {
+
+            if (current.isbn()) {
+                Element type = createMeta(element, "15");
+                type.setAttribute("refines", "#" + uniqueIdentifier);
+                type.setAttribute("property", "identifier-type");
+                type.setAttribute("scheme", "onix:codelist5");
+                append(element, type);
+            } else {
+                for (Element meta : children(element, OPF_NAMESPACE, "meta")) {
+                    if ("identifier-type".equals(meta.getAttribute("property"))
+                            && ("#" + uniqueIdentifier).equals(meta.getAttribute("refines"))) {
+                        remove(meta);
+                    }
+                }
+            }
+        }
+
+        if (!metadata.metaTags().equals(current.metaTags())) {
+
+            for (Element meta : children(element, OPF_NAMESPACE, "meta")) {
+                if (meta.hasAttribute("name")) {
+                    remove(meta);
+                }
+            }
+
+            for (Map<String, String> attributes : current.metaTags()) {
+
+                Element meta = createMeta(element, null);
+                attributes.forEach(meta::setAttribute);
+                append(element, meta);
+            }
+        }
+
+        Element modified = null;
+
+        for (Element meta : children(element, OPF_NAMESPACE, "meta")) {
+            if ("dcterms:modified".equals(meta.getAttribute("property")) && !meta.hasAttribute("refines")) {
+                modified = meta;
+                break;
+            }
+        }
+
+        if (modified == null) {
+            modified = createMeta(element, null);
+            modified.setAttribute("property", "dcterms:modified");
+            append(element, modified);
+        }
+
+        modified.setTextContent(MODIFIED_FORMAT.format(Instant.now()));
+    }
+
+    /**
+     * Sets the unique identifier, the identifier element is created if there
+     * is none
+     */
+    private static void patchIdentifier(Element root, Element metadata, String value) {
+
+        String uniqueIdentifier = root.getAttribute("unique-identifier");
+        Element identifier = null;
+
+        for (Element element : children(metadata, DC_NAMESPACE, "identifier")) {
+            if (identifier == null || !uniqueIdentifier.isEmpty() && uniqueIdentifier.equals(element.getAttribute("id"))) {
+                identifier = element;
+            }
+        }
+
+        if (value == null) {
+            if (identifier != null) {
+                identifier.setTextContent("");
+            }
+            return;
+        }
+
+        if (identifier == null) {
+
+            if (uniqueIdentifier.isEmpty()) {
+                uniqueIdentifier = "uid";
+                root.setAttribute("unique-identifier", uniqueIdentifier);
+            }
+
+            identifier = createDublinCore(metadata, "identifier");
+            identifier.setAttribute("id", uniqueIdentifier);
+            append(metadata, identifier);
+        }
+
+        identifier.setTextContent(value);
+    }
+
+    /**
+     * Changes the first Dublin Core element of the name if its value changed
+     */
+    private static void patchDublinCore(Element metadata, String name, String previous, String value) {
+
+        if (Objects.equals(previous, value)) {
+            return;
+        }
+
+        Element element = child(metadata, DC_NAMESPACE, name);
+
+        if (value == null) {
+            if (element != null) {
+                remove(element);
+            }
+        } else {
+
+            if (element == null) {
+                element = createDublinCore(metadata, name);
+                append(metadata, element);
+            }
+
+            element.setTextContent(value);
+        }
+    }
+
+    private void patchManifest(Element root, EpubBook book) {
+
+        Element manifest = child(root, OPF_NAMESPACE, "manifest");
+
+        if (manifest == null) {
+            throw new IllegalStateException("The package document has no manifest");
+        }
+
+        Map<String, Element> elementsById = new HashMap<>();
+
+        for (Element element : children(manifest, OPF_NAMESPACE, "item")) {
+            elementsById.putIfAbsent(element.getAttribute("id"), element);
+        }
+
+        Set<Element> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (Content content : book.getContents()) {
+
+            Item item = items.get(content);
+            Element element = item == null ? null : elementsById.get(item.id());
+
+            if (element == null) {
+                element = manifest.getOwnerDocument().createElementNS(OPF_NAMESPACE, qualifiedName(manifest, "item"));
+                element.setAttribute("href", content.getHref());
+                append(manifest, element);
+            } else if (!Objects.equals(item.href(), content.getHref())) {
+                // The original href is kept as it is written, it may be percent-encoded
+                element.setAttribute("href", content.getHref());
+            }
+
+            kept.add(element);
+
+            setAttribute(element, "id", content.getId());
+            setAttribute(element, "media-type", content.getMediaType());
+            setAttribute(element, "properties", content.getProperties());
+
+            if (content.hasFallBack()) {
+                setAttribute(element, "fallback", content.getFallBack().getId());
+            }
+        }
+
+        for (Element element : children(manifest, OPF_NAMESPACE, "item")) {
+            if (!kept.contains(element)) {
+                remove(element);
+            }
+        }
+    }
+
+    private void patchSpine(Element root, EpubBook book) {
+
+        List<SpineItem> current = new ArrayList<>();
+
+        for (Content content : book.getContents()) {
+            if (content.isSpine()) {
+                current.add(new SpineItem(content, content.getId(), content.isLinear()));
+            }
+        }
+
+        Element element = child(root, OPF_NAMESPACE, "spine");
+
+        if (current.equals(spine) && (element != null || spine.isEmpty())) {
+            return;
+        }
+
+        if (element == null) {
+            element = root.getOwnerDocument().createElementNS(OPF_NAMESPACE, qualifiedName(root, "spine"));
+            append(root, element);
+        }
+
+        Map<String, Content> contentsById = new HashMap<>();
+
+        for (Map.Entry<Content, Item> item : items.entrySet()) {
+            contentsById.put(item.getValue().id(), item.getKey());
+        }
+
+        Set<Content> originalSpine = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Content> currentSpine = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        spine.forEach(item -> originalSpine.add(item.content()));
+        current.forEach(item -> currentSpine.add(item.content()));
+
+        // Reuse the itemref of each content, itemrefs of other items like the navigation document keep their position
+        Map<Content, Element> itemrefs = new IdentityHashMap<>();
+        Map<Integer, Element> others = new LinkedHashMap<>();
+        List<Element> originalItemrefs = children(element, OPF_NAMESPACE, "itemref");
+        String indent = indent(originalItemrefs.isEmpty() ? null : originalItemrefs.get(0));
+
+        for (int i = 0; i < originalItemrefs.size(); i++) {
+
+            Element itemref = originalItemrefs.get(i);
+            Content content = contentsById.get(itemref.getAttribute("idref"));
+
+            if (content == null || !originalSpine.contains(content) && !currentSpine.contains(content)) {
+                others.put(i, itemref);
+            } else if (currentSpine.contains(content)) {
+                itemrefs.putIfAbsent(content, itemref);
+            }
+
+            remove(itemref);
+        }
+
+        List<Element> patched = new ArrayList<>();
+
+        for (SpineItem item : current) {
+
+            Element itemref = itemrefs.remove(item.content());
+
+            if (itemref == null) {
+                itemref = element.getOwnerDocument().createElementNS(OPF_NAMESPACE, qualifiedName(element, "itemref"));
+            }
+
+            itemref.setAttribute("idref", item.id());
+
+            if (!item.linear()) {
+                itemref.setAttribute("linear", "no");
+            } else if ("no".equals(itemref.getAttribute("linear"))) {
+                itemref.removeAttribute("linear");
+            }
+
+            patched.add(itemref);
+        }
+
+        others.forEach((index, itemref) -> patched.add(Math.min(index, patched.size()), itemref));
+
+        for (Element itemref : patched) {
+            append(element, itemref, indent);
+        }
+    }
+
+    private static String serialize(Document opf) {
+
+        try {
+            TransformerFactory factory = TransformerFactory.newInstance();
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+
+            Transformer transformer = factory.newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+            // The declaration is written separately, the transformer adds no line break behind it
+            StringWriter out = new StringWriter();
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            transformer.transform(new DOMSource(opf), new StreamResult(out));
+
+            return out.toString();
+
+        } catch (TransformerException e) {
+            throw new IllegalStateException("Could not write the package document", e);
+        }
+    }
+
+    private static Element createDublinCore(Element metadata, String name) {
+
+        String prefix = metadata.lookupPrefix(DC_NAMESPACE);
+
+        if (prefix == null) {
+            prefix = "dc";
+            metadata.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "xmlns:dc", DC_NAMESPACE);
+        }
+
+        return metadata.getOwnerDocument().createElementNS(DC_NAMESPACE, prefix + ":" + name);
+    }
+
+    private static Element createMeta(Element metadata, String value) {
+
+        Element meta = metadata.getOwnerDocument().createElementNS(OPF_NAMESPACE, qualifiedName(metadata, "meta"));
+
+        if (value != null) {
+            meta.setTextContent(value);
+        }
+
+        return meta;
+    }
+
+    /**
+     * Returns the name of an element in the OPF namespace with the prefix of
+     * the parent
+     */
+    private static String qualifiedName(Element parent, String name) {
+        return parent.getPrefix() == null ? name : parent.getPrefix() + ":" + name;
+    }
+
+    private static void setAttribute(Element element, String name, String value) {
+
+        if (value == null) {
+            element.removeAttribute(name);
+        } else if (!value.equals(element.getAttribute(name)) || !element.hasAttribute(name)) {
+            element.setAttribute(name, value);
+        }
+    }
+
+    /**
+     * Appends an element behind the last element child, with the same
+     * indentation
+     */
+    private static void append(Element parent, Element child) {
+
+        List<Element> elements = children(parent, null, null);
+        append(parent, child, indent(elements.isEmpty() ? null : elements.get(elements.size() - 1)));
+    }
+
+    private static void append(Element parent, Element child, String indent) {
+
+        Node last = parent.getLastChild();
+        Node trailing = isWhitespace(last) ? last : null;
+
+        parent.insertBefore(parent.getOwnerDocument().createTextNode(indent), trailing);
+        parent.insertBefore(child, trailing);
+
+        if (trailing == null) {
+            parent.appendChild(parent.getOwnerDocument().createTextNode("\n"));
+        }
+    }
+
+    /**
+     * Returns the whitespace in front of an element
+     */
+    private static String indent(Element element) {
+
+        Node previous = element == null ? null : element.getPreviousSibling();
+        return isWhitespace(previous) ? previous.getNodeValue() : "\n\t\t";
+    }
+
+    /**
+     * Removes an element together with the whitespace in front of it
+     */
+    private static void remove(Element element) {
+
+        Node parent = element.getParentNode();
+        Node previous = element.getPreviousSibling();
+
+        if (isWhitespace(previous)) {
+            parent.removeChild(previous);
+        }
+
+        parent.removeChild(element);
+    }
+
+    private static boolean isWhitespace(Node node) {
+        return node != null && node.getNodeType() == Node.TEXT_NODE && node.getNodeValue().isBlank();
+    }
+
+    private static Element child(Element parent, String namespace, String name) {
+
+        List<Element> elements = children(parent, namespace, name);
+        return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    /**
+     * Returns the child elements with the namespace and local name, all child
+     * elements if the name is null
+     */
+    static List<Element> children(Element parent, String namespace, String name) {
+
+        List<Element> elements = new ArrayList<>();
+        NodeList children = parent.getChildNodes();
+
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element element
+                    && (name == null || name.equals(element.getLocalName()) && namespace.equals(element.getNamespaceURI()))) {
+                elements.add(element);
+            }
+        }
+
+        return elements;
+    }
+
+    /**
+     * The metadata of a book which is written to the package document
+     */
+    private record Metadata(String identifier, String title, String language, String author, String publisher,
+                            String rights, boolean isbn, List<Map<String, String>> metaTags) {
+
+        static Metadata of(EpubBook book) {
+
+            List<Map<String, String>> metaTags = new ArrayList<>();
+
+            for (MetaTag metaTag : book.getMetaTags()) {
+                metaTags.add(new LinkedHashMap<>(metaTag.getAttributes()));
+            }
+
+            return new Metadata(book.getIsbn() != null ? book.getIsbn() : book.getId(), book.getTitle(),
+                    book.getLanguage(), book.getAuthor(), book.getPublisher(), book.getRights(),
+                    book.getIsbn() != null, metaTags);
+        }
+    }
+
+    /**
+     * A manifest item as it was read
+     */
+    private record Item(String id, String href) {
+    }
+
+    /**
+     * An itemref of the spine
+     */
+    private record SpineItem(Content content, String id, boolean linear) {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SpineItem other && content == other.content
+                    && Objects.equals(id, other.id) && linear == other.linear;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(content), id, linear);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip entry whose data has already been compressed, together with the CRC
+ * and sizes needed for the local file header.
+ */
+class PreparedEntry {
+
+    /**
+     * Name of the entry inside the archive
+     */
+    private final String name;
+
+    /**
+     * ZipEntry.STORED or ZipEntry.DEFLATED
+     */
+    private final int method;
+
+    /**
+     * CRC32 of the uncompressed data
+     */
+    private final long crc;
+
+    /**
+     * Size of the uncompressed data
+     */
+    private final long size;
+
+    /**
+     * The entry data as it is written to the archive, only the first length
+     * bytes are used
+     */
+    private final byte[] data;
+
+    /**
+     * Number of used bytes in data
+     */
+    private final int length;
+
+    PreparedEntry(String name, int method, long crc, long size, byte[] data, int length) {
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.size = size;
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Creates an uncompressed entry
+     */
+    static PreparedEntry stored(String name, byte[] data) {
+        return new PreparedEntry(name, ZipEntry.STORED, calculateCrc(data), data.length, data, data.length);
+    }
+
+    /**
+     * Creates an uncompressed entry from the data of a deflated entry
+     */
+    static PreparedEntry stored(PreparedEntry deflated, byte[] data) {
+        return new PreparedEntry(deflated.name, ZipEntry.STORED, deflated.crc, data.length, data, data.length);
+    }
+
+    /**
+     * Creates an entry whose data is compressed with a raw Deflater of the
+     * given level, taken from the pool
+     */
+    static PreparedEntry deflated(String name, byte[] data, int level, DeflaterPool deflaterPool) {
+
+        Deflater deflater = deflaterPool.acquire(level);
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] buffer = new byte[Math.max(256, data.length / 2)];
+            int length = 0;
+
+            while (!deflater.finished()) {
+
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            return new PreparedEntry(name, ZipEntry.DEFLATED, calculateCrc(data), data.length, buffer, length);
+
+        } finally {
+            deflaterPool.release(deflater, level);
+        }
+    }
+
+    /**
+     * Returns the same entry data under another name
+     */
+    PreparedEntry withName(String name) {
+        return new PreparedEntry(name, method, crc, size, data, length);
+    }
+
+    /**
+     * Returns the entry with a data array of its own of exactly the used
+     * length, to keep it beyond the write. The data of a stored entry is the
+     * payload of its content, so it is always copied
+     */
+    PreparedEntry trimmed() {
+
+        if (method != ZipEntry.STORED && data.length == length) {
+            return this;
+        }
+
+        return new PreparedEntry(name, method, crc, size, Arrays.copyOf(data, length), length);
+    }
+
+    /**
+     * Calculates the CRC32 of data for the zip entry
+     */
+    static long calculateCrc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getMethod() {
+        return method;
+    }
+
+    long getCrc() {
+        return crc;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getCompressedSize() {
+        return length;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+}
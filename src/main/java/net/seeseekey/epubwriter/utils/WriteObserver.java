@@ -0,0 +1,141 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.api.EpubWriteListener;
+import net.seeseekey.epubwriter.jfr.EntryWrittenEvent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+
+/**
+ * Delivers the events of one write to an EpubWriteListener and to the flight
+ * recorder. Without a listener the observer is inactive, it neither reads the
+ * clock nor creates listener events.
+ */
+final class WriteObserver {
+
+    /**
+     * Observer of writes without a listener
+     */
+    static final WriteObserver NONE = new WriteObserver(null, 0, null);
+
+    private static final AtomicLong WRITE_IDS = new AtomicLong();
+
+    private final EpubWriteListener listener;
+
+    private final long writeId;
+
+    private final String bookId;
+
+    private final long start;
+
+    private WriteObserver(EpubWriteListener listener, long writeId, String bookId) {
+        this.listener = listener;
+        this.writeId = writeId;
+        this.bookId = bookId;
+        this.start = listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Starts observing the write of a book
+     *
+     * @param listener the listener, may be null
+     * @param bookId   the id of the book
+     * @return the observer of the write
+     */
+    static WriteObserver start(EpubWriteListener listener, String bookId) {
+
+        if (listener == null) {
+            return new WriteObserver(null, 0, bookId);
+        }
+
+        WriteObserver observer = new WriteObserver(listener, WRITE_IDS.incrementAndGet(), bookId);
+        listener.bookStarted(observer.writeId, bookId);
+
+        return observer;
+    }
+
+    /**
+     * @return the current time if the observer is active, otherwise 0
+     */
+    long time() {
+        return listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * @return the time since start if the observer is active, otherwise 0
+     */
+    long elapsed(long start) {
+        return listener == null ? 0 : System.nanoTime() - start;
+    }
+
+    /**
+     * Signals the start of a phase
+     *
+     * @return the start time of the phase
+     */
+    long phaseStarted(EpubWriteListener.Phase phase) {
+
+        if (listener == null) {
+            return 0;
+        }
+
+        listener.phaseStarted(writeId, phase);
+        return System.nanoTime();
+    }
+
+    void phaseFinished(EpubWriteListener.Phase phase, long start) {
+
+        if (listener != null) {
+            listener.phaseFinished(writeId, phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Signals the entry written last to the archive. The flight recorder
+     * event must have been begun before the entry was written
+     */
+    void entryWritten(ZipArchiveWriter archive, EntryWrittenEvent event, String mediaType, long compressionNanos,
+                      long writeStart) {
+
+        event.end();
+
+        if (event.shouldCommit()) {
+
+            ZipArchiveWriter.CentralEntry entry = archive.getLastEntry();
+
+            event.bookId = bookId;
+            event.href = entry.getName();
+            event.mediaType = mediaType;
+            event.method = entry.getMethod() == ZipEntry.DEFLATED ? "DEFLATED" : "STORED";
+            event.bytes = entry.getSize();
+            event.compressedBytes = entry.getCompressedSize();
+            event.compressionNanos = compressionNanos;
+            event.commit();
+        }
+
+        if (listener == null) {
+            return;
+        }
+
+        long writeNanos = System.nanoTime() - writeStart;
+        ZipArchiveWriter.CentralEntry entry = archive.getLastEntry();
+
+        listener.entryWritten(writeId, new EpubWriteListener.Entry(entry.getName(), mediaType,
+                entry.getMethod() == ZipEntry.DEFLATED, entry.getSize(), entry.getCompressedSize(),
+                compressionNanos, writeNanos));
+    }
+
+    void finished(long bytes) {
+
+        if (listener != null) {
+            listener.bookFinished(writeId, bytes, System.nanoTime() - start);
+        }
+    }
+
+    void failed(Throwable failure) {
+
+        if (listener != null) {
+            listener.bookFailed(writeId, failure);
+        }
+    }
+}
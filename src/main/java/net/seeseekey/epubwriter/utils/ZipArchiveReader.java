@@ -0,0 +1,370 @@
+package net.seeseekey.epubwriter.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip archive and gives access to the raw,
+ * still compressed data of its entries, so they can be copied into another
+ * archive without recompressing them.
+ */
+class ZipArchiveReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+
+    /**
+     * Size of the end of central directory record without comment
+     */
+    private static final int END_SIZE = 22;
+
+    private final FileChannel channel;
+
+    /**
+     * Entries by name in archive order
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    ZipArchiveReader(Path file) throws IOException {
+
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the entries in archive order
+     */
+    Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * @return the entry with the name or null
+     */
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Opens a stream on the uncompressed data of the entry
+     */
+    InputStream openStream(Entry entry) throws IOException {
+
+        InputStream raw = Channels.newInputStream(new RegionChannel(channel, dataOffset(entry), entry.compressedSize));
+
+        if (entry.method == ZipEntry.STORED) {
+            return raw;
+        }
+
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("Unsupported compression method " + entry.method + " of " + entry.name);
+        }
+
+        Inflater inflater = new Inflater(true);
+
+        return new InflaterInputStream(raw, inflater, 8192) {
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    /**
+     * Reads the uncompressed data of the entry
+     */
+    byte[] readEntry(Entry entry) throws IOException {
+
+        try (InputStream in = openStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Transfers the raw compressed data of the entry to the channel
+     */
+    void transferRawTo(Entry entry, WritableByteChannel target) throws IOException {
+
+        long position = dataOffset(entry);
+        long end = position + entry.compressedSize;
+
+        while (position < end) {
+
+            long transferred = channel.transferTo(position, end - position, target);
+
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of the archive in entry " + entry.name);
+            }
+
+            position += transferred;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Offset of the entry data, behind the local file header
+     */
+    private long dataOffset(Entry entry) throws IOException {
+
+        if (entry.dataOffset < 0) {
+
+            ByteBuffer header = read(entry.localHeaderOffset, 30);
+
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header of " + entry.name);
+            }
+
+            entry.dataOffset = entry.localHeaderOffset + 30
+                    + Short.toUnsignedInt(header.getShort(26))
+                    + Short.toUnsignedInt(header.getShort(28));
+        }
+
+        return entry.dataOffset;
+    }
+
+    private void readCentralDirectory() throws IOException {
+
+        long size = channel.size();
+        long endOffset = findEnd(size);
+        ByteBuffer end = read(endOffset, END_SIZE);
+
+        long count = Short.toUnsignedInt(end.getShort(10));
+        long centralSize = Integer.toUnsignedLong(end.getInt(12));
+        long centralOffset = Integer.toUnsignedLong(end.getInt(16));
+
+        if (endOffset >= 20) {
+
+            ByteBuffer locator = read(endOffset - 20, 20);
+
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+
+                ByteBuffer zip64End = read(locator.getLong(8), 56);
+
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory");
+                }
+
+                count = zip64End.getLong(32);
+                centralSize = zip64End.getLong(40);
+                centralOffset = zip64End.getLong(48);
+            }
+        }
+
+        ByteBuffer central = read(centralOffset, (int) centralSize);
+
+        for (long i = 0; i < count; i++) {
+
+            if (central.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+
+            central.position(central.position() + 6);
+            int method = Short.toUnsignedInt(central.getShort());
+            central.position(central.position() + 4);
+            long crc = Integer.toUnsignedLong(central.getInt());
+            long compressedSize = Integer.toUnsignedLong(central.getInt());
+            long uncompressedSize = Integer.toUnsignedLong(central.getInt());
+            int nameLength = Short.toUnsignedInt(central.getShort());
+            int extraLength = Short.toUnsignedInt(central.getShort());
+            int commentLength = Short.toUnsignedInt(central.getShort());
+            central.position(central.position() + 8);
+            long localHeaderOffset = Integer.toUnsignedLong(central.getInt());
+
+            byte[] name = new byte[nameLength];
+            central.get(name);
+
+            // Sizes and offset overflowing 32 bit are taken from the zip64 extra field
+            int extraEnd = central.position() + extraLength;
+
+            while (central.position() + 4 <= extraEnd) {
+
+                int id = Short.toUnsignedInt(central.getShort());
+                int length = Short.toUnsignedInt(central.getShort());
+                int next = central.position() + length;
+
+                if (id == ZIP64_EXTRA_ID) {
+
+                    if (uncompressedSize == MAX_32) {
+                        uncompressedSize = central.getLong();
+                    }
+
+                    if (compressedSize == MAX_32) {
+                        compressedSize = central.getLong();
+                    }
+
+                    if (localHeaderOffset == MAX_32) {
+                        localHeaderOffset = central.getLong();
+                    }
+                }
+
+                central.position(next);
+            }
+
+            central.position(extraEnd + commentLength);
+
+            Entry entry = new Entry(new String(name, StandardCharsets.UTF_8), method, crc,
+                    uncompressedSize, compressedSize, localHeaderOffset);
+            entries.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * Searches the end of central directory record, which may be followed by
+     * an archive comment
+     */
+    private long findEnd(long size) throws IOException {
+
+        if (size < END_SIZE) {
+            throw new ZipException("File is not a zip archive");
+        }
+
+        int length = (int) Math.min(size, END_SIZE + 0xFFFF);
+        ByteBuffer tail = read(size - length, length);
+
+        for (int i = length - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                return size - length + i;
+            }
+        }
+
+        throw new ZipException("End of central directory not found");
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip archive");
+            }
+        }
+
+        return buffer.flip();
+    }
+
+    /**
+     * An entry of the central directory
+     */
+    static class Entry {
+
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final long localHeaderOffset;
+        private long dataOffset = -1;
+
+        Entry(String name, int method, long crc, long size, long compressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getMethod() {
+            return method;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+
+    /**
+     * Read only channel on a region of the archive
+     */
+    private static class RegionChannel implements ReadableByteChannel {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionChannel(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+
+            if (position >= end) {
+                return -1;
+            }
+
+            ByteBuffer limited = target.slice(target.position(), (int) Math.min(target.remaining(), end - position));
+            int read = channel.read(limited, position);
+
+            if (read > 0) {
+                position += read;
+                target.position(target.position() + read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The archive channel is closed by the reader
+        }
+    }
+}
@@ -0,0 +1,797 @@
+package net.seeseekey.epubwriter.utils;
+
+import net.seeseekey.epubwriter.model.BufferContentSource;
+import net.seeseekey.epubwriter.model.ContentSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * EPUB specific zip writer on top of a WritableByteChannel.
+ * <p>
+ * Prepared entries carry their CRC and sizes in the local file header and are
+ * written together with the buffered headers in one gathering write. Streamed
+ * entries are patched in place when the target is a FileChannel, otherwise
+ * they are followed by a data descriptor. Stored entries are transferred with
+ * ContentSource.transferTo, which is a zero-copy FileChannel.transferTo for
+ * files. A BufferHandoffChannel takes over the filled buffers instead of
+ * copying them.
+ */
+class ZipArchiveWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int ZIP64_VERSION = 45;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    /**
+     * Offset of the CRC field in the local file header
+     */
+    private static final int LOCAL_HEADER_CRC_OFFSET = 14;
+
+    private final WritableByteChannel channel;
+
+    /**
+     * Set if the target is a FileChannel, used to patch local headers of
+     * streamed entries
+     */
+    private final FileChannel fileChannel;
+
+    /**
+     * Position of the FileChannel when the archive was started
+     */
+    private final long fileOffset;
+
+    /**
+     * Buffer collecting headers and streamed data before they are written to
+     * the channel
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Set if the target takes over the buffers instead of having them
+     * written to it
+     */
+    private final BufferHandoffChannel handoffChannel;
+
+    /**
+     * Stream view on the buffer, used for streamed entry data
+     */
+    private final OutputStream bufferStream = new BufferOutputStream();
+
+    /**
+     * Modification time of all entries in MS-DOS format
+     */
+    private final long dosTime;
+
+    /**
+     * Entries written so far, used for the central directory
+     */
+    private final List<CentralEntry> entries = new ArrayList<>();
+
+    /**
+     * Number of bytes written to the archive, including the buffered bytes
+     */
+    private long position;
+
+    private boolean finished;
+
+    private boolean released;
+
+    /**
+     * Observer of the write the archive belongs to
+     */
+    private final WriteObserver observer;
+
+    /**
+     * Pool the write buffer is taken from
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * Pool of the Deflaters for streamed entries
+     */
+    private final DeflaterPool deflaterPool;
+
+    /**
+     * @param channel      the channel the archive is written to, it is not
+     *                     closed by the writer
+     * @param time         modification time of all entries in milliseconds
+     * @param observer     the observer of the write
+     * @param bufferPool   the pool the write buffer is taken from, the buffer
+     *                     is returned by release. Not used if the channel is a
+     *                     BufferHandoffChannel
+     * @param deflaterPool the pool of Deflaters for streamed entries
+     * @throws IOException if the position of a FileChannel can not be read
+     */
+    ZipArchiveWriter(WritableByteChannel channel, long time, WriteObserver observer, BufferPool bufferPool,
+                     DeflaterPool deflaterPool) throws IOException {
+
+        this.channel = channel;
+        this.observer = observer;
+        this.bufferPool = bufferPool;
+        this.deflaterPool = deflaterPool;
+        this.handoffChannel = channel instanceof BufferHandoffChannel handoff ? handoff : null;
+        this.buffer = (handoffChannel != null ? handoffChannel.nextBuffer() : bufferPool.acquire())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.dosTime = toDosTime(time);
+
+        if (channel instanceof FileChannel file) {
+            this.fileChannel = file;
+            this.fileOffset = file.position();
+        } else {
+            this.fileChannel = null;
+            this.fileOffset = 0;
+        }
+    }
+
+    /**
+     * Indicates whether local headers can be patched after the entry data has
+     * been written
+     *
+     * @return true if the target is a FileChannel
+     */
+    boolean isSeekable() {
+        return fileChannel != null;
+    }
+
+    /**
+     * @return the number of bytes written to the archive
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the observer of the write
+     */
+    WriteObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * @return the entry written last
+     */
+    CentralEntry getLastEntry() {
+        return entries.get(entries.size() - 1);
+    }
+
+    /**
+     * Writes an entry whose data has already been prepared. The data is
+     * inserted as it is, so it may also be raw deflated data taken from
+     * another archive
+     */
+    void writeEntry(PreparedEntry entry) throws IOException {
+
+        CentralEntry central = new CentralEntry(entry.getName(), entry.getMethod(), FLAG_UTF8, position);
+        central.crc = entry.getCrc();
+        central.size = entry.getSize();
+        central.compressedSize = entry.getCompressedSize();
+
+        checkSize(central);
+        writeLocalHeader(central);
+        write(ByteBuffer.wrap(entry.getData(), 0, (int) entry.getCompressedSize()));
+
+        entries.add(central);
+    }
+
+    /**
+     * Writes an entry whose data is deflated while it is streamed from the
+     * source. On a FileChannel the local header is patched with CRC and
+     * sizes afterwards, otherwise they are written in a data descriptor
+     */
+    void writeStreamedEntry(String name, int level, ContentSource source) throws IOException {
+
+        int flags = isSeekable() ? FLAG_UTF8 : FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        CentralEntry central = new CentralEntry(name, ZipEntry.DEFLATED, flags, position);
+        writeLocalHeader(central);
+
+        Deflater deflater = deflaterPool.acquire(level);
+
+        try {
+            if (source instanceof BufferContentSource buffers) {
+                deflateBuffers(central, deflater, buffers.getBuffers());
+                return;
+            }
+
+            CountingOutputStream compressed = new CountingOutputStream(bufferStream, null);
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater, 8192);
+            CountingOutputStream uncompressed = new CountingOutputStream(deflaterStream, new CRC32());
+
+            source.writeTo(uncompressed);
+            deflaterStream.finish();
+
+            central.crc = uncompressed.getCrc();
+            central.size = uncompressed.getCount();
+            central.compressedSize = compressed.getCount();
+
+        } finally {
+            deflaterPool.release(deflater, level);
+        }
+
+        checkSize(central);
+        completeEntry(central);
+    }
+
+    /**
+     * Writes an entry whose in memory data is deflated straight into the
+     * write buffer, without a compressed copy on the heap. On a FileChannel
+     * the local header is patched with CRC and sizes afterwards, otherwise
+     * they are written in a data descriptor
+     */
+    void writeDeflatedEntry(String name, int level, byte[] data) throws IOException {
+
+        int flags = isSeekable() ? FLAG_UTF8 : FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        CentralEntry central = new CentralEntry(name, ZipEntry.DEFLATED, flags, position);
+        writeLocalHeader(central);
+
+        Deflater deflater = deflaterPool.acquire(level);
+
+        try {
+            deflateBuffers(central, deflater, new ByteBuffer[]{ByteBuffer.wrap(data)});
+        } finally {
+            deflaterPool.release(deflater, level);
+        }
+    }
+
+    /**
+     * Deflates the buffers directly into the write buffer, without copying
+     * them through the heap
+     */
+    private void deflateBuffers(CentralEntry central, Deflater deflater, ByteBuffer[] inputs) throws IOException {
+
+        CRC32 crc = new CRC32();
+        long start = position;
+
+        for (ByteBuffer input : inputs) {
+
+            crc.update(input.duplicate());
+            deflater.setInput(input);
+
+            while (!deflater.needsInput()) {
+                deflateIntoBuffer(deflater);
+            }
+        }
+
+        deflater.finish();
+
+        while (!deflater.finished()) {
+            deflateIntoBuffer(deflater);
+        }
+
+        central.crc = crc.getValue();
+        central.size = deflater.getBytesRead();
+        central.compressedSize = position - start;
+
+        checkSize(central);
+        completeEntry(central);
+    }
+
+    private void deflateIntoBuffer(Deflater deflater) throws IOException {
+
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+
+        position += deflater.deflate(buffer);
+    }
+
+    /**
+     * Writes an uncompressed entry streamed from the source. CRC and size
+     * must have been calculated before, as they are part of the local header
+     */
+    void writeStoredEntry(String name, long crc, long size, ContentSource source) throws IOException {
+        writeRawEntry(name, ZipEntry.STORED, crc, size, size, source);
+    }
+
+    /**
+     * Writes an entry whose data is transferred as it is from the source. The
+     * data must already be compressed with the method, e.g. deflated data
+     * copied from another archive
+     */
+    void writeRawEntry(String name, int method, long crc, long size, long compressedSize, ContentSource data) throws IOException {
+
+        CentralEntry central = new CentralEntry(name, method, FLAG_UTF8, position);
+        central.crc = crc;
+        central.size = size;
+        central.compressedSize = compressedSize;
+
+        checkSize(central);
+        writeLocalHeader(central);
+        flush();
+
+        long written;
+
+        if (isSeekable()) {
+
+            // Transfer directly, so FileChannel.transferTo can copy between the files
+            long start = fileChannel.position();
+            data.transferTo(fileChannel);
+            written = fileChannel.position() - start;
+
+        } else {
+
+            // Buffers handed over must be full, so the data is collected in the write buffer
+            CountingChannel target = new CountingChannel(handoffChannel != null ? new BufferChannel() : channel);
+            data.transferTo(target);
+            written = target.count;
+        }
+
+        position += written;
+
+        if (written != compressedSize) {
+            throw new ZipException("Entry " + name + " changed while it was written, " + written
+                    + " bytes were transferred instead of " + compressedSize);
+        }
+
+        entries.add(central);
+    }
+
+    /**
+     * Writes an uncompressed entry streamed from the source, whose CRC is
+     * calculated while it is written. Only possible if the archive is
+     * seekable
+     */
+    void writeStoredEntry(String name, ContentSource source) throws IOException {
+
+        if (!isSeekable()) {
+            throw new ZipException("Entry " + name + " can not be stored without CRC on a stream");
+        }
+
+        CentralEntry central = new CentralEntry(name, ZipEntry.STORED, FLAG_UTF8, position);
+        writeLocalHeader(central);
+
+        CountingOutputStream data = new CountingOutputStream(bufferStream, new CRC32());
+        source.writeTo(data);
+
+        central.crc = data.getCrc();
+        central.size = data.getCount();
+        central.compressedSize = data.getCount();
+
+        checkSize(central);
+        completeEntry(central);
+    }
+
+    /**
+     * Writes the central directory. No entries can be added afterwards
+     */
+    void finish() throws IOException {
+
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+
+        long centralStart = position;
+
+        for (CentralEntry entry : entries) {
+            writeCentralHeader(entry);
+        }
+
+        long centralSize = position - centralStart;
+        long count = entries.size();
+
+        if (count > MAX_16 || centralStart > MAX_32 || centralSize > MAX_32) {
+            writeZip64End(count, centralStart, centralSize);
+        }
+
+        ByteBuffer end = header(22);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(count, MAX_16));
+        end.putShort((short) Math.min(count, MAX_16));
+        end.putInt((int) Math.min(centralSize, MAX_32));
+        end.putInt((int) Math.min(centralStart, MAX_32));
+        end.putShort((short) 0);
+
+        flush();
+    }
+
+    /**
+     * Returns the write buffer to its pool. Must be called once the archive
+     * is finished or abandoned, the archive can not be used afterwards
+     */
+    void release() {
+
+        if (!released) {
+            released = true;
+
+            if (handoffChannel == null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Stores CRC and sizes of a streamed entry, either by patching the local
+     * header or by appending a data descriptor
+     */
+    private void completeEntry(CentralEntry entry) throws IOException {
+
+        if ((entry.flags & FLAG_DATA_DESCRIPTOR) != 0) {
+
+            ByteBuffer descriptor = header(16);
+            descriptor.putInt(DATA_DESCRIPTOR_SIGNATURE);
+            descriptor.putInt((int) entry.crc);
+            descriptor.putInt((int) entry.compressedSize);
+            descriptor.putInt((int) entry.size);
+
+        } else {
+
+            flush();
+
+            ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            patch.putInt((int) entry.crc);
+            patch.putInt((int) entry.compressedSize);
+            patch.putInt((int) entry.size);
+            patch.flip();
+
+            long patchPosition = fileOffset + entry.offset + LOCAL_HEADER_CRC_OFFSET;
+
+            while (patch.hasRemaining()) {
+                patchPosition += fileChannel.write(patch, patchPosition);
+            }
+        }
+
+        entries.add(entry);
+    }
+
+    private void writeLocalHeader(CentralEntry entry) throws IOException {
+
+        ByteBuffer header = header(30 + entry.name.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) entry.version());
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0);
+        header.put(entry.name);
+    }
+
+    private void writeCentralHeader(CentralEntry entry) throws IOException {
+
+        boolean zip64 = entry.offset > MAX_32;
+        int extraLength = zip64 ? 12 : 0;
+        int version = zip64 ? ZIP64_VERSION : entry.version();
+
+        ByteBuffer header = header(46 + entry.name.length + extraLength);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) version);
+        header.putShort((short) version);
+        header.putShort((short) entry.flags);
+        header.putShort((short) entry.method);
+        header.putInt((int) dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.size);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putShort((short) 0);
+        header.putInt(0);
+        header.putInt((int) (zip64 ? MAX_32 : entry.offset));
+        header.put(entry.name);
+
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 8);
+            header.putLong(entry.offset);
+        }
+    }
+
+    private void writeZip64End(long count, long centralStart, long centralSize) throws IOException {
+
+        long endStart = position;
+
+        ByteBuffer end = header(56 + 20);
+        end.putInt(ZIP64_END_SIGNATURE);
+        end.putLong(44);
+        end.putShort((short) ZIP64_VERSION);
+        end.putShort((short) ZIP64_VERSION);
+        end.putInt(0);
+        end.putInt(0);
+        end.putLong(count);
+        end.putLong(count);
+        end.putLong(centralSize);
+        end.putLong(centralStart);
+
+        end.putInt(ZIP64_LOCATOR_SIGNATURE);
+        end.putInt(0);
+        end.putLong(endStart);
+        end.putInt(1);
+    }
+
+    /**
+     * Entries larger than 4 GB are not supported
+     */
+    private void checkSize(CentralEntry entry) throws ZipException {
+
+        if (entry.size > MAX_32 || entry.compressedSize > MAX_32) {
+            throw new ZipException("Entry " + new String(entry.name, StandardCharsets.UTF_8) + " is larger than 4 GB");
+        }
+    }
+
+    /**
+     * Reserves space for a header in the buffer. The returned view must be
+     * filled completely by the caller
+     */
+    private ByteBuffer header(int length) throws IOException {
+
+        if (buffer.remaining() < length) {
+            flush();
+        }
+
+        ByteBuffer header = buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(buffer.position() + length);
+        position += length;
+
+        return header;
+    }
+
+    /**
+     * Writes data after the buffered bytes. Small data is copied into the
+     * buffer, large data is written together with the buffer in one
+     * gathering write
+     */
+    private void write(ByteBuffer data) throws IOException {
+
+        position += data.remaining();
+
+        if (data.remaining() <= buffer.remaining()) {
+            buffer.put(data);
+            return;
+        }
+
+        if (handoffChannel != null) {
+
+            if (buffer.position() > 0) {
+                flush();
+            }
+
+            handoffChannel.handoff(data.asReadOnlyBuffer());
+            return;
+        }
+
+        buffer.flip();
+        ByteBuffer[] sources = {buffer, data};
+
+        if (channel instanceof GatheringByteChannel gathering) {
+
+            while (data.hasRemaining()) {
+                gathering.write(sources);
+            }
+
+        } else {
+
+            writeFully(buffer);
+            writeFully(data);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered bytes to the channel
+     */
+    void flush() throws IOException {
+
+        buffer.flip();
+
+        if (handoffChannel != null) {
+
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                return;
+            }
+
+            handoffChannel.handoff(buffer);
+            buffer = handoffChannel.nextBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            return;
+        }
+
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Converts milliseconds to the MS-DOS date and time format
+     */
+    private static long toDosTime(long time) {
+
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return ((long) (date.getYear() - 1980) << 25)
+                | ((long) date.getMonthValue() << 21)
+                | ((long) date.getDayOfMonth() << 16)
+                | ((long) date.getHour() << 11)
+                | ((long) date.getMinute() << 5)
+                | ((long) date.getSecond() >> 1);
+    }
+
+    /**
+     * Writes streamed entry data into the buffer
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int data) throws IOException {
+
+            if (!buffer.hasRemaining()) {
+                ZipArchiveWriter.this.flush();
+            }
+
+            buffer.put((byte) data);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+
+            position += length;
+
+            while (length > 0) {
+
+                if (!buffer.hasRemaining()) {
+                    ZipArchiveWriter.this.flush();
+                }
+
+                int chunk = Math.min(length, buffer.remaining());
+                buffer.put(data, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+
+    /**
+     * Writes transferred entry data into the buffer, the position is counted
+     * by the caller
+     */
+    private class BufferChannel implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+
+            int length = source.remaining();
+
+            while (source.hasRemaining()) {
+
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+
+                int chunk = Math.min(source.remaining(), buffer.remaining());
+                buffer.put(source.slice(source.position(), chunk));
+                source.position(source.position() + chunk);
+            }
+
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The archive channel is owned by the caller
+        }
+    }
+
+    /**
+     * Counts the bytes transferred to the channel
+     */
+    private static class CountingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private long count;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = channel.write(source);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // The archive channel is owned by the caller
+        }
+    }
+
+    /**
+     * Data of a written entry needed for its central directory header
+     */
+    static class CentralEntry {
+
+        private final byte[] name;
+        private final int method;
+        private final int flags;
+        private final long offset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+
+        CentralEntry(String name, int method, int flags, long offset) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.flags = flags;
+            this.offset = offset;
+        }
+
+        int version() {
+            return method == ZipEntry.STORED ? 10 : 20;
+        }
+
+        String getName() {
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        int getMethod() {
+            return method;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.api.EpubWriteListener;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.BuildReport;
+import net.seeseekey.epubwriter.utils.BuildReportCollector;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildReportCollectorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testReportMatchesWrittenArchive() throws Exception {
+
+        BuildReportCollector collector = new BuildReportCollector();
+        collector.setMaxSlowestEntries(3);
+
+        EpubWriter writer = new EpubWriter();
+        writer.setWriteListener(collector);
+
+        EpubBook book = createBook();
+        Path file = tempDir.resolve("book.epub");
+        writer.writeEpubToFile(book, file.toString());
+
+        BuildReport report = collector.takeReport(book.getId());
+        assertNotNull(report);
+        assertNull(collector.takeReport(book.getId()));
+
+        assertEquals(Files.size(file), report.getBytes());
+        assertEquals(EpubWriteListener.Phase.values().length, report.getPhaseNanos().size());
+        assertTrue(report.getCompressionRatio() < 1.0);
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            assertEquals(entries.size(), report.getEntryCount());
+            assertEquals(entries.stream().mapToLong(ZipEntry::getSize).sum(), report.getSize());
+            assertEquals(entries.stream().mapToLong(ZipEntry::getCompressedSize).sum(), report.getCompressedSize());
+        }
+
+        List<EpubWriteListener.Entry> slowest = report.getSlowestEntries();
+        assertEquals(3, slowest.size());
+        assertTrue(slowest.get(0).nanos() >= slowest.get(1).nanos());
+        assertTrue(slowest.get(1).nanos() >= slowest.get(2).nanos());
+
+        String json = report.toJson();
+        assertTrue(json.startsWith("{\"bookId\":\"" + book.getId() + "\""));
+        assertTrue(json.contains("\"CENTRAL_DIRECTORY\":"));
+    }
+
+    @Test
+    void testReportsOfConcurrentWrites() throws Exception {
+
+        List<BuildReport> reports = Collections.synchronizedList(new ArrayList<>());
+
+        EpubWriter writer = new EpubWriter();
+        writer.setWriteListener(new BuildReportCollector(reports::add));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            writer.setExecutor(executor);
+
+            EpubBook book = createBook();
+            long expectedEntries = book.getContents().size() + 4;
+
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+                Path file = tempDir.resolve("book-" + i + ".epub");
+                threads.add(new Thread(() -> {
+                    try {
+                        writer.writeEpubToFile(book, file.toString());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+
+            threads.forEach(Thread::start);
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(4, reports.size());
+
+            for (BuildReport report : reports) {
+                assertEquals(expectedEntries, report.getEntryCount());
+                assertTrue(report.getCompressionNanos() > 0);
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedWriteIsDropped() {
+
+        BuildReportCollector collector = new BuildReportCollector();
+
+        EpubWriter writer = new EpubWriter();
+        writer.setWriteListener(collector);
+
+        EpubBook book = new EpubBook("en", "urn:uuid:failed", "Failed", "Tester");
+        book.addTextContent("Failing", "failing.xhtml", out -> {
+            throw new IOException("Source not available");
+        });
+
+        assertThrows(IOException.class, () -> writer.writeEpubToFile(book, tempDir.resolve("failed.epub").toString()));
+        assertTrue(collector.getReports().isEmpty());
+    }
+
+    private static EpubBook createBook() {
+
+        EpubBook book = TestBooks.book("Report");
+        TestBooks.addChapters(book, 20, i -> "Text of the chapter. ".repeat(100 * (i + 1)));
+
+        return book;
+    }
+}
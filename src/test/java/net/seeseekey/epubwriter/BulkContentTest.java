@@ -0,0 +1,143 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BulkContentTest {
+
+    private static final String BOOK_ID = "urn:isbn:978-3-16-148410-0";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAddFilesEqualsSequentialAdds() throws Exception {
+
+        List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < 300; i++) {
+
+            String name = i % 3 == 0 ? "styles/style-" + i + ".css" : "text/chapter-" + i + ".xhtml";
+            Path file = tempDir.resolve(name);
+
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, "content " + i);
+            files.add(file);
+        }
+
+        EpubBook bulk = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+        List<Content> added = bulk.addFiles(tempDir, files, false, true);
+
+        EpubBook sequential = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+
+        for (Path file : files) {
+            String href = tempDir.relativize(file).toString().replace('\\', '/');
+            sequential.addContent(Files.readAllBytes(file), null, href, false, true);
+        }
+
+        assertEquals(files.size(), added.size());
+        assertContentsEqual(sequential, bulk);
+        assertEquals("text/css", bulk.getContentByHref("styles/style-0.css").getMediaType());
+        assertEquals("uid-urn_isbn_978-3-16-148410-0_4", bulk.getContents().get(3).getId());
+    }
+
+    @Test
+    void testAddFilesKeepsMemoryBudget() throws Exception {
+
+        int size = 64 * 1024;
+        List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+
+            Path file = tempDir.resolve("data-" + i + ".bin");
+            byte[] data = new byte[size];
+            Arrays.fill(data, (byte) i);
+
+            Files.write(file, data);
+            files.add(file);
+        }
+
+        EpubBook book = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+        book.setMemoryBudget(3L * size);
+        book.setSpillDirectory(tempDir.resolve("spill"));
+
+        List<Content> added = book.addFiles(tempDir, files, false, false);
+
+        // Files beyond the budget are copied to the spill store instead of being read onto the heap
+        assertEquals(3L * size, book.getRetainedBytes());
+        assertEquals(3, added.stream().filter(Content::isBuffered).count());
+        assertEquals(7, book.getSpillStore().getFileCount());
+
+        for (int i = 0; i < files.size(); i++) {
+            assertArrayEquals(Files.readAllBytes(files.get(i)), added.get(i).getContent());
+        }
+
+        book.close();
+    }
+
+    @Test
+    void testAddContentsAssignsHrefsInOrder() {
+
+        EpubBook bulk = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+        bulk.setDeduplicatePayloads(true);
+        bulk.addContents(IntStream.range(0, 50).mapToObj(BulkContentTest::createContent));
+
+        EpubBook sequential = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+        sequential.setDeduplicatePayloads(true);
+        IntStream.range(0, 50).mapToObj(BulkContentTest::createContent).forEach(sequential::addContent);
+
+        assertContentsEqual(sequential, bulk);
+        assertEquals(sequential.getDeduplicatedBytes(), bulk.getDeduplicatedBytes());
+        assertSame(bulk.getContents().get(0).getContent(), bulk.getContents().get(5).getContent());
+    }
+
+    @Test
+    void testMissingFileFails() {
+
+        EpubBook book = new EpubBook("en", BOOK_ID, "Bulk", "Tester");
+        List<Path> files = List.of(tempDir.resolve("missing.xhtml"));
+
+        assertThrows(NoSuchFileException.class, () -> book.addFiles(tempDir, files, false, true));
+        assertEquals(0, book.getContents().size());
+    }
+
+    /**
+     * Creates contents whose hrefs repeat, so that unique hrefs are generated
+     */
+    private static Content createContent(int number) {
+        return new Content("chapter-" + number % 10 + ".xhtml",
+                ("Chapter " + number % 5).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertContentsEqual(EpubBook expected, EpubBook actual) {
+
+        assertEquals(expected.getContents().size(), actual.getContents().size());
+
+        for (int i = 0; i < expected.getContents().size(); i++) {
+
+            Content expectedContent = expected.getContents().get(i);
+            Content actualContent = actual.getContents().get(i);
+
+            assertEquals(expectedContent.getId(), actualContent.getId());
+            assertEquals(expectedContent.getHref(), actualContent.getHref());
+            assertEquals(expectedContent.getMediaType(), actualContent.getMediaType());
+            assertArrayEquals(expectedContent.getContent(), actualContent.getContent());
+        }
+    }
+}
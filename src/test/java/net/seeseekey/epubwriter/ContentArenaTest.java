@@ -0,0 +1,84 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.ContentArena;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.BufferPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentArenaTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testOffHeapBookMatchesHeapBook() throws Exception {
+
+        BufferPool slabPool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 8);
+        ContentArena arena = new ContentArena(slabPool);
+
+        EpubBook offHeap = createBook(arena);
+        EpubBook heap = createBook(null);
+
+        // The image spans several slabs
+        assertTrue(arena.getAllocatedBytes() > 3L * BufferPool.DEFAULT_BUFFER_SIZE);
+        assertTrue(offHeap.getContents().stream().noneMatch(content -> content.isBuffered()));
+
+        Path offHeapFile = tempDir.resolve("off-heap.epub");
+        Path heapFile = tempDir.resolve("heap.epub");
+
+        offHeap.writeToFile(offHeapFile.toString());
+        heap.writeToFile(heapFile.toString());
+
+        try (ZipFile expected = new ZipFile(heapFile.toFile());
+             ZipFile actual = new ZipFile(offHeapFile.toFile())) {
+
+            assertEquals(expected.size(), actual.size());
+
+            for (ZipEntry entry : Collections.list(expected.entries())) {
+
+                ZipEntry actualEntry = actual.getEntry(entry.getName());
+                assertEquals(entry.getMethod(), actualEntry.getMethod(), entry.getName());
+
+                if (!entry.getName().endsWith(".opf")) {
+                    assertEquals(entry.getCrc(), actualEntry.getCrc(), entry.getName());
+                    assertArrayEquals(expected.getInputStream(entry).readAllBytes(),
+                            actual.getInputStream(actualEntry).readAllBytes(), entry.getName());
+                }
+            }
+        }
+
+        // Writing the book released the arena
+        assertFalse(arena.isOpen());
+        assertEquals(0, slabPool.getInUse());
+        assertThrows(IllegalStateException.class, () -> offHeap.writeToFile(tempDir.resolve("again.epub").toString()));
+    }
+
+    private EpubBook createBook(ContentArena arena) throws Exception {
+
+        EpubBook book = TestBooks.book("Arena");
+        book.setContentArena(arena);
+        TestBooks.addChapters(book, 10, i -> "Kapitel über €. ".repeat(2000 * i + 1));
+
+        byte[] image = new byte[400_000];
+        new Random(7).nextBytes(image);
+
+        book.addContent(image, "image/png", "images/image.png", false, false);
+        book.addContent(new ByteArrayInputStream("body { margin: 0; }".repeat(500).getBytes()), "text/css", "style.css", false, false);
+
+        return book;
+    }
+}
@@ -0,0 +1,160 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.ContentList;
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentListTest {
+
+    @Test
+    void testOperationsKeepOrderAndIndexes() {
+
+        ContentList contents = new ContentList();
+        List<Content> expected = new ArrayList<>();
+        Random random = new Random(11);
+
+        for (int i = 0; i < 20000; i++) {
+
+            int operation = expected.isEmpty() ? 0 : random.nextInt(4);
+
+            switch (operation) {
+                case 0 -> {
+                    Content content = createContent(i);
+                    int index = random.nextInt(expected.size() + 1);
+                    contents.add(index, content);
+                    expected.add(index, content);
+                }
+                case 1 -> {
+                    int index = random.nextInt(expected.size());
+                    assertSame(expected.remove(index), contents.remove(index));
+                }
+                case 2 -> {
+                    Content content = expected.get(random.nextInt(expected.size()));
+                    int index = random.nextInt(expected.size());
+                    assertTrue(contents.move(content, index));
+                    expected.remove(content);
+                    expected.add(index, content);
+                }
+                default -> {
+                    // Appends outweigh removals, so the list spans several blocks
+                    Content content = createContent(i);
+                    contents.add(content);
+                    expected.add(content);
+                }
+            }
+        }
+
+        assertTrue(expected.size() > 4096);
+        assertEquals(expected, contents);
+
+        for (int i = 0; i < expected.size(); i += 97) {
+            Content content = expected.get(i);
+            assertEquals(i, contents.indexOf(content));
+            assertSame(content, contents.getById(content.getId()));
+            assertSame(content, contents.getByHref(content.getHref()));
+        }
+
+        assertEquals(expected.size(), contents.getHrefs().size());
+    }
+
+    @Test
+    void testIndexesFollowChanges() {
+
+        ContentList contents = new ContentList();
+        Content content = createContent(1);
+        contents.add(content);
+
+        content.setHref("renamed.xhtml");
+        content.setId("renamed");
+
+        assertNull(contents.getByHref("chapter-1.xhtml"));
+        assertSame(content, contents.getByHref("renamed.xhtml"));
+        assertSame(content, contents.getById("renamed"));
+
+        assertThrows(IllegalArgumentException.class, () -> contents.add(content));
+
+        assertTrue(contents.remove(content));
+        assertFalse(contents.containsHref("renamed.xhtml"));
+        assertNull(contents.getById("renamed"));
+
+        // A removed content no longer updates the list
+        content.setHref("removed.xhtml");
+        assertTrue(contents.getHrefs().isEmpty());
+    }
+
+    @Test
+    void testSharedHrefsStayIndexed() {
+
+        ContentList contents = new ContentList();
+        Content first = createContent(1);
+        Content second = createContent(2);
+        Content third = createContent(3);
+        second.setHref(first.getHref());
+        third.setHref(first.getHref());
+
+        contents.add(first);
+        contents.add(second);
+        contents.add(third);
+
+        assertSame(third, contents.getByHref(first.getHref()));
+
+        // Removing one of the contents sharing the href keeps the others indexed
+        assertTrue(contents.remove(second));
+        assertSame(third, contents.getByHref(first.getHref()));
+
+        assertTrue(contents.remove(third));
+        assertSame(first, contents.getByHref(first.getHref()));
+
+        third.setHref("third.xhtml");
+        contents.add(0, third);
+        first.setHref("renamed.xhtml");
+
+        assertNull(contents.getByHref("chapter-1.xhtml"));
+        assertSame(first, contents.getByHref("renamed.xhtml"));
+        assertEquals(List.of(third, first), contents);
+    }
+
+    @Test
+    void testBookLookupAndRemoval() {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:5e6f7081-92a3-4b4c-8d5e-6f708192a3b4", "Index", "Tester");
+        Content first = book.addTextContent("First", "chapter.xhtml", "<p>1</p>");
+        Content second = book.addTextContent("Second", "second.xhtml", "<p>2</p>");
+        Content third = book.addTextContent("Third", "third.xhtml", "<p>3</p>");
+
+        assertSame(second, book.getContentById(second.getId()));
+        assertSame(third, book.getContentByHref("third.xhtml"));
+
+        assertTrue(book.moveContent(third, 0));
+        assertEquals(List.of(third, first, second), book.getContents());
+
+        // The copy of a book shares the contents but is indexed separately
+        EpubBook copy = book.copy();
+        assertTrue(book.removeContent(first));
+        assertSame(first, copy.getContentByHref("chapter.xhtml"));
+
+        // A href is free again once its content has been removed
+        Content replacement = book.addTextContent("Replacement", "chapter.xhtml", "<p>4</p>");
+        assertEquals("chapter.xhtml", replacement.getHref());
+        assertEquals(3, book.getUniqueHrefs().size());
+    }
+
+    private static Content createContent(int number) {
+
+        Content content = new Content("application/xhtml+xml", "chapter-" + number + ".xhtml", new byte[0]);
+        content.setId("chapter-" + number);
+        return content;
+    }
+}
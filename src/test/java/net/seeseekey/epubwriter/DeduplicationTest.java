@@ -0,0 +1,136 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.api.CompressionPolicy;
+import net.seeseekey.epubwriter.impl.CompressionPolicyDefault;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.CompiledEpub;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DeduplicationTest {
+
+    private static final String ORNAMENT = "svg { fill: #336699; stroke: #000000; } ".repeat(200);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testIdenticalPayloadsAreShared() {
+
+        EpubBook book = createBook(true);
+        List<Content> ornaments = book.getContents().subList(1, 4);
+
+        assertSame(ornaments.get(0).getContent(), ornaments.get(1).getContent());
+        assertSame(ornaments.get(0).getContent(), ornaments.get(2).getContent());
+        assertEquals(2L * ORNAMENT.length(), book.getDeduplicatedBytes());
+
+        EpubBook plain = createBook(false);
+
+        assertNotSame(plain.getContents().get(1).getContent(), plain.getContents().get(2).getContent());
+        assertEquals(0, plain.getDeduplicatedBytes());
+    }
+
+    @Test
+    void testSharedPayloadsAreCompressedOnce() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+
+                CountingPolicy policy = new CountingPolicy();
+                EpubWriter writer = new EpubWriter();
+                writer.setCompressionPolicy(policy);
+                writer.setExecutor(parallel ? executor : null);
+
+                Path file = tempDir.resolve("book-" + parallel + ".epub");
+                writer.writeEpubToFile(createBook(true), file.toString());
+
+                // Container, OPF, chapter and one ornament, the navigation document is streamed
+                assertEquals(4, policy.compressions.get());
+                assertOrnaments(file);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCompiledBookSharesEntries() throws Exception {
+
+        CountingPolicy policy = new CountingPolicy();
+        EpubWriter writer = new EpubWriter();
+        writer.setCompressionPolicy(policy);
+
+        CompiledEpub compiled = writer.compile(createBook(true));
+
+        assertEquals(4, policy.compressions.get());
+
+        Path file = tempDir.resolve("compiled.epub");
+        compiled.writeToFile(file.toString());
+
+        assertOrnaments(file);
+    }
+
+    private EpubBook createBook(boolean deduplicate) {
+
+        EpubBook book = TestBooks.book("Ornaments");
+        book.setDeduplicatePayloads(deduplicate);
+        book.addTextContent("Chapter", "chapter.xhtml", "<p>Text</p>");
+
+        for (int i = 0; i < 3; i++) {
+            // Every copy is a new array with the same bytes
+            book.addContent(ORNAMENT.getBytes(StandardCharsets.UTF_8), "text/css", "ornament-" + i + ".css", false, false);
+        }
+
+        return book;
+    }
+
+    private static void assertOrnaments(Path file) throws IOException {
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+
+            for (int i = 0; i < 3; i++) {
+                assertArrayEquals(ORNAMENT.getBytes(StandardCharsets.UTF_8),
+                        zip.getInputStream(zip.getEntry("OPS/ornament-" + i + ".css")).readAllBytes());
+            }
+        }
+    }
+
+    /**
+     * Counts the compressed entries, the policy is asked once per deflated entry
+     */
+    private static class CountingPolicy implements CompressionPolicy {
+
+        private final CompressionPolicy policy = new CompressionPolicyDefault();
+
+        private final AtomicInteger compressions = new AtomicInteger();
+
+        @Override
+        public int getCompressionLevel(String href, String mediaType) {
+            return policy.getCompressionLevel(href, mediaType);
+        }
+
+        @Override
+        public boolean isCompressionWorthwhile(long size, long compressedSize) {
+            compressions.incrementAndGet();
+            return policy.isCompressionWorthwhile(size, compressedSize);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.EpubBatchWriter;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EpubBatchWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testBatchReportsEveryBook() throws Exception {
+
+        EpubBatchWriter batchWriter = new EpubBatchWriter();
+        batchWriter.setMemoryBudget(1024 * 1024);
+
+        EpubBatchWriter.BatchResult result = batchWriter.writeAll(IntStream.range(0, 20).mapToObj(i -> (Supplier<EpubBook>) () -> {
+
+            if (i == 7) {
+                throw new IllegalStateException("Broken book");
+            }
+
+            EpubBook book = new EpubBook("en", "urn:uuid:book-" + i, "Book " + i, "Tester");
+            book.addTextContent("Chapter", "chapter.xhtml", "<p>" + "Text ".repeat(10000) + "</p>").setToc(true);
+            return book;
+
+        }), book -> tempDir.resolve(book.getTitle() + ".epub"));
+
+        assertEquals(20, result.getBooks().size());
+        assertEquals(19, result.getSucceeded());
+        assertEquals(1, result.getFailed());
+        assertFalse(result.getBooks().get(7).isSuccess());
+        assertTrue(result.getBytesWritten() > 0);
+
+        for (EpubBatchWriter.BookResult book : result.getBooks()) {
+            assertEquals(book.getIndex() != 7, book.isSuccess());
+
+            if (book.isSuccess()) {
+                assertEquals(Files.size(book.getTarget()), book.getSize());
+            }
+        }
+    }
+
+    @Test
+    void testBooksLargerThanExpectedWaitForMemory() throws Exception {
+
+        AtomicInteger writing = new AtomicInteger();
+        AtomicInteger maxWriting = new AtomicInteger();
+
+        EpubBatchWriter batchWriter = new EpubBatchWriter();
+        batchWriter.setMemoryBudget(3 * 1024 * 1024);
+        batchWriter.setMaxConcurrentBooks(8);
+        batchWriter.setEpubWriter(new EpubWriter() {
+            @Override
+            public void writeEpubToFile(EpubBook book, String fileName) throws IOException {
+
+                maxWriting.accumulateAndGet(writing.incrementAndGet(), Math::max);
+
+                try {
+                    Thread.sleep(20);
+                    super.writeEpubToFile(book, fileName);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    writing.decrementAndGet();
+                }
+            }
+        });
+
+        // The first book is small, so the average admits all books before the large ones are known
+        EpubBatchWriter.BatchResult result = batchWriter.writeAll(IntStream.range(0, 8).mapToObj(i -> (Supplier<EpubBook>) () -> {
+
+            EpubBook book = new EpubBook("en", "urn:uuid:large-" + i, "Large " + i, "Tester");
+            book.setDeduplicatePayloads(true);
+
+            // Two identical payloads, counted once
+            byte[] payload = new byte[i == 0 ? 1024 : 512 * 1024];
+            book.addContent(payload, "image/png", "images/first.png", false, false);
+            book.addContent(payload.clone(), "image/png", "images/second.png", false, false);
+            return book;
+
+        }), book -> tempDir.resolve(book.getTitle() + ".epub"));
+
+        assertEquals(8, result.getSucceeded());
+
+        // Each large book needs 1.25 MiB, so at most two fit into the budget
+        assertTrue(maxWriting.get() <= 2, "Books written at the same time: " + maxWriting.get());
+    }
+
+    @Test
+    void testEstimateCountsSharedPayloadsOnce() {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:shared", "Shared", "Tester");
+        book.setDeduplicatePayloads(true);
+
+        for (int i = 0; i < 4; i++) {
+            book.addContent("body { margin: 0; }".repeat(1000).getBytes(StandardCharsets.UTF_8), "text/css", "css/style-" + i + ".css", false, false);
+        }
+
+        EpubBatchWriter batchWriter = new EpubBatchWriter();
+        EpubBook single = new EpubBook("en", "urn:uuid:single", "Single", "Tester");
+        single.addContent("body { margin: 0; }".repeat(1000).getBytes(StandardCharsets.UTF_8), "text/css", "css/style.css", false, false);
+
+        assertEquals(batchWriter.estimateMemory(single), batchWriter.estimateMemory(book));
+    }
+}
@@ -6,10 +6,12 @@ import net.seeseekey.epubwriter.model.TocLink;
 import net.seeseekey.epubwriter.utils.DataUtils;
 import net.seeseekey.epubwriter.utils.Logging;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -22,10 +24,13 @@ class EpubCreatorTest {
 
     private static final Logger log = Logging.getLogger();
 
+    @TempDir
+    Path tempDir;
+
     @Test
     void testEpubCreate() {
 
-        try (FileOutputStream file = new FileOutputStream("test.epub")) {
+        try (FileOutputStream file = new FileOutputStream(tempDir.resolve("test.epub").toFile())) {
 
             // Create book and set information
             EpubBook book = new EpubBook("de", UUID.randomUUID().toString(), "Der Fall der Welt", "Avonia");
@@ -133,7 +138,7 @@ class EpubCreatorTest {
             assertEquals("Avonia", book.getAuthor());
             assertEquals("de", book.getLanguage());
 
-            assertEquals(6, book.getContents().size());
+            assertEquals(5, book.getContents().size());
             assertEquals(5, book.getUniqueHrefs().size());
 
             assertNotNull(coverResourceStream);
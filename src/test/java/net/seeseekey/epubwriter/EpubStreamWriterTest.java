@@ -0,0 +1,70 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.utils.EpubStreamWriter;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EpubStreamWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testContentsAreWrittenWhenAdded() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EpubBook book = new EpubBook("en", "urn:uuid:0d4c2b6a-8e1f-4a3b-9c5d-7e6f8a9b0c1d", "Streamed", "Tester");
+
+        try (EpubStreamWriter writer = new EpubStreamWriter(book, new EpubWriter(), out)) {
+
+            // mimetype and container.xml are available immediately
+            int written = out.size();
+            assertTrue(written > 0);
+
+            for (int i = 0; i < 3; i++) {
+
+                Content chapter = writer.addTextContent("Chapter " + i, "chapter-" + i + ".xhtml",
+                        "<p>" + "Text ".repeat(1000) + "</p>");
+                chapter.setToc(true);
+
+                assertTrue(out.size() > written);
+                assertNull(chapter.getContent());
+                written = out.size();
+            }
+
+            book.setRights("Public domain");
+        }
+
+        Path file = tempDir.resolve("streamed.epub");
+        Files.write(file, out.toByteArray());
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+
+            assertEquals("mimetype", zip.entries().nextElement().getName());
+            assertNotNull(zip.getEntry("OPS/chapter-2.xhtml"));
+
+            String opf = new String(zip.getInputStream(zip.getEntry("OPS/" + EpubConstants.OPF_FILE_NAME)).readAllBytes(),
+                    StandardCharsets.UTF_8);
+            assertTrue(opf.contains("chapter-1.xhtml"));
+            assertTrue(opf.contains("Public domain"));
+
+            String toc = new String(zip.getInputStream(zip.getEntry("OPS/toc.xhtml")).readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(toc.contains("chapter-2.xhtml"));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.utils.EpubUpdater;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EpubUpdaterTest {
+
+    private static final String CONTAINER = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <container version="1.0" xmlns="urn:oasis:names:tc:opendocument:xmlns:container">
+                <rootfiles>
+                    <rootfile full-path="OPS/package.opf" media-type="application/oebps-package+xml"/>
+                </rootfiles>
+            </container>
+            """;
+
+    private static final String PACKAGE = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <package xmlns="http://www.idpf.org/2007/opf" version="3.0" unique-identifier="pub-id" dir="ltr">
+                <metadata xmlns:dc="http://purl.org/dc/elements/1.1/">
+                    <dc:identifier id="pub-id">urn:uuid:0a1b2c3d-4e5f-4a6b-8c7d-8e9f0a1b2c3d</dc:identifier>
+                    <dc:title>Crafted</dc:title>
+                    <dc:language>en</dc:language>
+                    <dc:creator id="first">First Author</dc:creator>
+                    <dc:creator id="second">Second Author</dc:creator>
+                    <dc:subject>Fiction</dc:subject>
+                    <dc:description>Written by hand</dc:description>
+                    <dc:date>2020-01-01</dc:date>
+                    <meta property="dcterms:modified">2020-01-01T00:00:00Z</meta>
+                </metadata>
+                <manifest>
+                    <item id="nav" href="nav.xhtml" media-type="application/xhtml+xml" properties="nav"/>
+                    <item id="c1" href="my%20chapter.xhtml" media-type="application/xhtml+xml" media-overlay="c1-overlay"/>
+                    <item id="c2" href="second.xhtml" media-type="application/xhtml+xml"/>
+                    <item id="c1-overlay" href="c1.smil" media-type="application/smil+xml"/>
+                </manifest>
+                <spine page-progression-direction="rtl">
+                    <itemref idref="c1" properties="page-spread-right"/>
+                    <itemref idref="c2"/>
+                    <itemref idref="c1"/>
+                </spine>
+            </package>
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testUpdateCopiesUnchangedEntries() throws Exception {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:7b2c9d4e-1f3a-4b5c-8d6e-9f0a1b2c3d4e", "Test", "Tester");
+
+        for (int i = 0; i < 5; i++) {
+            book.addTextContent("Chapter " + i, "chapter-" + i + ".xhtml",
+                    "<p>" + "Chapter " + i + " text. ".repeat(100) + "</p>").setToc(true);
+        }
+
+        Path file = tempDir.resolve("book.epub");
+        new EpubWriter().writeEpubToFile(book, file.toString());
+
+        ZipEntry originalChapter;
+        ZipEntry originalNavigation;
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            originalChapter = zip.getEntry("OPS/chapter-3.xhtml");
+            originalNavigation = zip.getEntry("OPS/toc.xhtml");
+        }
+
+        byte[] replacement = "<p>Replaced</p>".getBytes(StandardCharsets.UTF_8);
+
+        try (EpubUpdater updater = new EpubUpdater(file)) {
+
+            EpubBook update = updater.getBook();
+
+            assertEquals("Test", update.getTitle());
+            assertEquals(5, update.getContents().size());
+            assertEquals("chapter-0.xhtml", update.getContents().get(0).getHref());
+
+            update.setRights("All rights reserved");
+            updater.replaceContent("chapter-1.xhtml", replacement);
+            assertTrue(updater.removeContent("chapter-2.xhtml"));
+            assertFalse(updater.removeContent("chapter-9.xhtml"));
+
+            updater.writeTo(file);
+        }
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+
+            assertEquals("mimetype", zip.entries().nextElement().getName());
+            assertNull(zip.getEntry("OPS/chapter-2.xhtml"));
+            assertArrayEquals(replacement, zip.getInputStream(zip.getEntry("OPS/chapter-1.xhtml")).readAllBytes());
+
+            // Unchanged entries are copied without recompressing them
+            ZipEntry chapter = zip.getEntry("OPS/chapter-3.xhtml");
+            assertEquals(originalChapter.getCrc(), chapter.getCrc());
+            assertEquals(originalChapter.getCompressedSize(), chapter.getCompressedSize());
+
+            ZipEntry navigation = zip.getEntry("OPS/toc.xhtml");
+            assertNotNull(navigation);
+            assertEquals(originalNavigation.getCrc(), navigation.getCrc());
+
+            ZipEntry opfEntry = zip.getEntry("OPS/" + EpubConstants.OPF_FILE_NAME);
+            String opf = new String(zip.getInputStream(opfEntry).readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(opf.contains("All rights reserved"));
+            assertFalse(opf.contains("chapter-2.xhtml"));
+        }
+
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testUpdateKeepsPackageDocument() throws Exception {
+
+        Path file = tempDir.resolve("crafted.epub");
+        byte[] chapter = "<html><body><p>Chapter</p></body></html>".getBytes(StandardCharsets.UTF_8);
+
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file))) {
+
+            byte[] mimetype = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(mimetype);
+
+            ZipEntry entry = new ZipEntry("mimetype");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(mimetype.length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(mimetype);
+
+            write(zip, "META-INF/container.xml", CONTAINER.getBytes(StandardCharsets.UTF_8));
+            write(zip, "OPS/package.opf", PACKAGE.getBytes(StandardCharsets.UTF_8));
+            write(zip, "OPS/nav.xhtml", "<html><body><nav/></body></html>".getBytes(StandardCharsets.UTF_8));
+            write(zip, "OPS/my chapter.xhtml", chapter);
+            write(zip, "OPS/second.xhtml", chapter);
+            write(zip, "OPS/c1.smil", "<smil/>".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path updated = tempDir.resolve("updated.epub");
+
+        try (EpubUpdater updater = new EpubUpdater(file)) {
+
+            EpubBook book = updater.getBook();
+
+            assertEquals("First Author", book.getAuthor());
+            assertSame(updater.getContent("my chapter.xhtml"), updater.getContent("my%20chapter.xhtml"));
+            assertEquals(2, book.getContents().stream().filter(Content::isSpine).count());
+
+            book.setRights("All rights reserved");
+            updater.replaceContent("second.xhtml", "<p>Second</p>".getBytes(StandardCharsets.UTF_8));
+            updater.writeTo(updated);
+        }
+
+        String opf = readOpf(updated);
+
+        try (ZipFile zip = new ZipFile(updated.toFile())) {
+            assertArrayEquals(chapter, zip.getInputStream(zip.getEntry("OPS/my chapter.xhtml")).readAllBytes());
+            assertNull(zip.getEntry("OPS/my%20chapter.xhtml"));
+        }
+
+        assertTrue(opf.contains(">Second Author</dc:creator>"));
+        assertTrue(opf.contains("<dc:subject>Fiction</dc:subject>"));
+        assertTrue(opf.contains("<dc:description>Written by hand</dc:description>"));
+        assertTrue(opf.contains("<dc:date>2020-01-01</dc:date>"));
+        assertTrue(opf.contains("<dc:rights>All rights reserved</dc:rights>"));
+        assertTrue(opf.contains("page-progression-direction=\"rtl\""));
+        assertTrue(opf.contains("media-overlay=\"c1-overlay\""));
+        assertTrue(opf.contains("href=\"my%20chapter.xhtml\""));
+        assertFalse(opf.contains("2020-01-01T00:00:00Z"));
+
+        // The spine did not change, so the repeated itemref is kept
+        assertEquals(2, opf.split("idref=\"c1\"", -1).length - 1);
+
+        try (EpubUpdater updater = new EpubUpdater(updated)) {
+
+            EpubBook book = updater.getBook();
+            book.moveContent(updater.getContent("second.xhtml"), 0);
+            updater.writeTo(updated);
+        }
+
+        opf = readOpf(updated);
+
+        assertEquals(1, opf.split("idref=\"c1\"", -1).length - 1);
+        assertTrue(opf.indexOf("idref=\"c2\"") < opf.indexOf("idref=\"c1\""));
+        assertTrue(opf.contains("page-spread-right"));
+        assertTrue(opf.contains("page-progression-direction=\"rtl\""));
+        assertTrue(opf.contains("<dc:rights>All rights reserved</dc:rights>"));
+    }
+
+    private static void write(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+    }
+
+    private static String readOpf(Path file) throws IOException {
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            return new String(zip.getInputStream(zip.getEntry("OPS/package.opf")).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,611 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.impl.OpfCreatorDefault;
+import net.seeseekey.epubwriter.impl.TocCreatorDefault;
+import net.seeseekey.epubwriter.model.ContentSource;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.TocLink;
+import net.seeseekey.epubwriter.utils.BufferPool;
+import net.seeseekey.epubwriter.utils.CompiledEpub;
+import net.seeseekey.epubwriter.utils.CompressedEntryCache;
+import net.seeseekey.epubwriter.utils.DeflaterPool;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EpubWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testParallelWriteMatchesSequentialWrite() throws Exception {
+
+        Path sequential = write(createBook(), null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Path parallel = write(createBook(), executor);
+
+            try (ZipFile sequentialZip = new ZipFile(sequential.toFile());
+                 ZipFile parallelZip = new ZipFile(parallel.toFile())) {
+
+                List<? extends ZipEntry> sequentialEntries = Collections.list(sequentialZip.entries());
+                List<? extends ZipEntry> parallelEntries = Collections.list(parallelZip.entries());
+
+                assertEquals(sequentialEntries.size(), parallelEntries.size());
+                assertEquals("mimetype", sequentialEntries.get(0).getName());
+                assertEquals(ZipEntry.STORED, sequentialEntries.get(0).getMethod());
+
+                for (int i = 0; i < sequentialEntries.size(); i++) {
+
+                    ZipEntry expected = sequentialEntries.get(i);
+                    ZipEntry actual = parallelEntries.get(i);
+
+                    assertEquals(expected.getName(), actual.getName());
+
+                    // The OPF contains the modification date
+                    if (!expected.getName().endsWith(".opf")) {
+                        assertEquals(expected.getCrc(), actual.getCrc());
+                        assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+                        assertArrayEquals(sequentialZip.getInputStream(expected).readAllBytes(),
+                                parallelZip.getInputStream(actual).readAllBytes());
+                    }
+                }
+
+                // Local headers and data descriptors must be readable as well
+                try (ZipInputStream in = new ZipInputStream(Files.newInputStream(parallel))) {
+
+                    int count = 0;
+
+                    while (in.getNextEntry() != null) {
+                        in.readAllBytes();
+                        count++;
+                    }
+
+                    assertEquals(parallelEntries.size(), count);
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFileWriteHasCompleteLocalHeaders() throws Exception {
+
+        EpubBook book = createBook();
+
+        byte[] png = Files.readAllBytes(tempDir.resolve("image.png"));
+        book.addContent(new ContentSource() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(png);
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return false;
+            }
+        }, "image/png", "images/once.png", false, false);
+
+        EpubWriter writer = new EpubWriter();
+        writer.setPreallocateFiles(true);
+
+        Path file = tempDir.resolve("file.epub");
+        writer.writeEpubToFile(book, file.toString());
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(file))) {
+
+            ZipEntry entry;
+
+            while ((entry = in.getNextEntry()) != null) {
+
+                byte[] data = in.readAllBytes();
+
+                // Without data descriptor the sizes are known from the local header
+                assertEquals(data.length, entry.getSize(), entry.getName());
+
+                if (entry.getName().endsWith("once.png")) {
+                    assertEquals(ZipEntry.STORED, entry.getMethod());
+                    assertArrayEquals(png, data);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testEntryCacheIsSharedBetweenBooks() throws Exception {
+
+        CompressedEntryCache cache = new CompressedEntryCache(1024 * 1024, tempDir.resolve("cache"));
+        byte[] css = "body { margin: 0; }".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < 2; i++) {
+
+            EpubBook book = createBook();
+            book.addContent(css, "text/css", "css/style.css", false, false);
+
+            EpubWriter writer = new EpubWriter();
+            writer.setEntryCache(cache);
+            writer.writeEpubToStream(book, OutputStream.nullOutputStream());
+        }
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        // A new cache finds the entry in the on disk tier
+        CompressedEntryCache restarted = new CompressedEntryCache(1024 * 1024, tempDir.resolve("cache"));
+
+        EpubBook book = createBook();
+        book.addContent(css, "text/css", "css/style.css", false, false);
+
+        EpubWriter writer = new EpubWriter();
+        writer.setEntryCache(restarted);
+
+        Path file = tempDir.resolve("cached.epub");
+        writer.writeEpubToFile(book, file.toString());
+
+        assertEquals(1, restarted.getDiskHits());
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertArrayEquals(css, zip.getInputStream(zip.getEntry("OPS/css/style.css")).readAllBytes());
+        }
+    }
+
+    @Test
+    void testEntryCacheDiskTierIsBoundedAndVerified() throws Exception {
+
+        Path directory = tempDir.resolve("bounded");
+        List<byte[]> styles = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            styles.add(("p.s" + i + " { margin: " + i + "px; }").repeat(200).getBytes(StandardCharsets.UTF_8));
+        }
+
+        CompressedEntryCache cache = new CompressedEntryCache(1024 * 1024, directory, 300);
+        writeStyles(cache, styles);
+
+        // Only the newest files fit into the limit
+        assertTrue(cache.getDiskBytes() <= 300);
+        assertTrue(cache.getDiskEvictions() > 0);
+
+        try (var files = Files.list(directory)) {
+            assertEquals(cache.getDiskBytes(), files.mapToLong(file -> file.toFile().length()).sum());
+        }
+
+        // Corrupt every file, a new cache must not use them
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                byte[] data = Files.readAllBytes(file);
+                data[data.length - 1] ^= 0x55;
+                Files.write(file, data);
+            }
+        }
+
+        CompressedEntryCache restarted = new CompressedEntryCache(1024 * 1024, directory, 300);
+        Path file = writeStyles(restarted, styles);
+
+        assertEquals(0, restarted.getDiskHits());
+        assertEquals(styles.size(), restarted.getMisses());
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            for (int i = 0; i < styles.size(); i++) {
+                assertArrayEquals(styles.get(i), zip.getInputStream(zip.getEntry("OPS/css/style-" + i + ".css")).readAllBytes());
+            }
+        }
+    }
+
+    private Path writeStyles(CompressedEntryCache cache, List<byte[]> styles) throws IOException {
+
+        EpubBook book = createBook();
+
+        for (int i = 0; i < styles.size(); i++) {
+            book.addContent(styles.get(i), "text/css", "css/style-" + i + ".css", false, false);
+        }
+
+        EpubWriter writer = new EpubWriter();
+        writer.setEntryCache(cache);
+
+        Path file = tempDir.resolve("styles.epub");
+        writer.writeEpubToFile(book, file.toString());
+
+        return file;
+    }
+
+    @Test
+    void testAsynchronousChannelAndPublisherWriteTheSameEntries() throws Exception {
+
+        Path expected = write(createBook(), null);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Path asynchronous = tempDir.resolve("asynchronous.epub");
+
+            try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(asynchronous,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+                long size = new EpubWriter().writeEpubToChannel(createBook(), channel, executor).get();
+                assertEquals(size, channel.size());
+            }
+
+            // A subscriber requesting one buffer at a time
+            ByteArrayOutputStream published = new ByteArrayOutputStream();
+            CompletableFuture<Void> completed = new CompletableFuture<>();
+
+            new EpubWriter().createPublisher(createBook(), executor).subscribe(new Flow.Subscriber<>() {
+
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    byte[] bytes = new byte[item.remaining()];
+                    item.get(bytes);
+                    published.write(bytes, 0, bytes.length);
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completed.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.complete(null);
+                }
+            });
+
+            completed.get();
+
+            Path publisher = tempDir.resolve("publisher.epub");
+            Files.write(publisher, published.toByteArray());
+
+            assertSameEntries(expected, asynchronous);
+            assertSameEntries(expected, publisher);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPublisherReturnsThreadWithoutDemand() throws Exception {
+
+        // Without the image, every entry fits into the buffers held back by the publisher
+        EpubBook book = createBook();
+        book.getContents().removeIf(content -> content.getHref().equals("images/image.png"));
+
+        Path expected = write(book.copy(), null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            ByteArrayOutputStream published = new ByteArrayOutputStream();
+            CompletableFuture<Flow.Subscription> first = new CompletableFuture<>();
+            CompletableFuture<Void> completed = new CompletableFuture<>();
+
+            new EpubWriter().createPublisher(book, executor).subscribe(new Flow.Subscriber<>() {
+
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+
+                    byte[] bytes = new byte[item.remaining()];
+                    item.get(bytes);
+                    published.write(bytes, 0, bytes.length);
+
+                    first.complete(subscription);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completed.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.complete(null);
+                }
+            });
+
+            Flow.Subscription subscription = first.get(10, TimeUnit.SECONDS);
+
+            // The only thread of the executor is free while there is no demand
+            executor.submit(() -> null).get(10, TimeUnit.SECONDS);
+            assertFalse(completed.isDone());
+
+            subscription.request(Long.MAX_VALUE);
+            completed.get(10, TimeUnit.SECONDS);
+
+            Path publisher = tempDir.resolve("publisher.epub");
+            Files.write(publisher, published.toByteArray());
+
+            assertSameEntries(expected, publisher);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCompiledBookCanBeWrittenConcurrently() throws Exception {
+
+        EpubBook book = createBook();
+        int contents = book.getContents().size();
+
+        Path expected = write(book, null);
+        assertEquals(contents, book.getContents().size());
+
+        CompiledEpub compiled = book.compile();
+
+        // Changes of the book after compiling do not affect the snapshot
+        book.setTitle("Changed");
+        book.getContents().clear();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<CompletableFuture<byte[]>> writes = new ArrayList<>();
+
+            for (int i = 0; i < 8; i++) {
+                writes.add(CompletableFuture.supplyAsync(() -> {
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                    try {
+                        compiled.writeToStream(out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                    return out.toByteArray();
+
+                }, executor));
+            }
+
+            for (CompletableFuture<byte[]> write : writes) {
+
+                Path file = Files.createTempFile(tempDir, "compiled", ".epub");
+                Files.write(file, write.get());
+
+                assertSameEntries(expected, file);
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(compiled.getOpf().contains("<dc:title>Test</dc:title>"));
+    }
+
+    @Test
+    void testCompiledBookKeepsItsOwnPayloads() throws Exception {
+
+        byte[] image = new byte[1000];
+        Arrays.fill(image, (byte) 1);
+        byte[] original = image.clone();
+
+        EpubBook book = new EpubBook("en", "urn:uuid:compiled", "Compiled", "Tester");
+        book.setAutoToc(false);
+        book.addTextContent("Chapter", "chapter.xhtml", "<p>Chapter</p>");
+        book.addContent(image, "image/png", "i.png", false, false);
+
+        TocLink link = new TocLink("chapter.xhtml", "Chapter", null);
+        book.setTocLinks(List.of(link));
+
+        CompiledEpub compiled = book.compile();
+
+        // The stored entry and the navigation document do not depend on the book
+        Arrays.fill(image, (byte) 2);
+        link.setTitle("Changed");
+
+        Path file = tempDir.resolve("compiled.epub");
+        compiled.writeToFile(file.toString());
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+
+            ZipEntry entry = zip.getEntry("OPS/i.png");
+            assertEquals(ZipEntry.STORED, entry.getMethod());
+            assertEquals(crc(original), entry.getCrc());
+            assertArrayEquals(original, zip.getInputStream(entry).readAllBytes());
+
+            String navigation = new String(zip.getInputStream(zip.getEntry("OPS/toc.xhtml")).readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(navigation.contains(">Chapter</a>"));
+            assertFalse(navigation.contains("Changed"));
+        }
+    }
+
+    @Test
+    void testSharedWriterWithDefaultCreators() throws Exception {
+
+        EpubWriter shared = new EpubWriter();
+        shared.setOpfCreator(new OpfCreatorDefault());
+        shared.setTocCreator(new TocCreatorDefault());
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+
+            for (int i = 0; i < 32; i++) {
+
+                String title = "Book " + i;
+
+                writes.add(CompletableFuture.runAsync(() -> {
+
+                    EpubBook book = new EpubBook(shared, "en", "urn:uuid:book-" + title, title, "Tester");
+                    book.addTextContent("Chapter", "chapter.xhtml", "<p>" + title + "</p>").setToc(true);
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                    try {
+                        book.writeToStream(out);
+
+                        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+
+                            ZipEntry entry;
+
+                            while ((entry = in.getNextEntry()) != null) {
+
+                                String data = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+
+                                if (entry.getName().endsWith(".opf")) {
+                                    assertTrue(data.contains("<dc:title>" + title + "</dc:title>"));
+                                }
+                            }
+                        }
+
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                }, executor));
+            }
+
+            for (CompletableFuture<Void> write : writes) {
+                write.get();
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testPooledResourcesAreReused() throws Exception {
+
+        EpubWriter writer = new EpubWriter();
+        DeflaterPool deflaterPool = writer.getDeflaterPool();
+        BufferPool bufferPool = writer.getBufferPool();
+
+        Path first = tempDir.resolve("first.epub");
+        writer.writeEpubToFile(createBook(), first.toString());
+
+        long createdDeflaters = deflaterPool.getCreated();
+
+        for (int i = 0; i < 5; i++) {
+            Path file = tempDir.resolve("book-" + i + ".epub");
+            writer.writeEpubToFile(createBook(), file.toString());
+            assertSameEntries(first, file);
+        }
+
+        // Sequential writes need a single buffer and no further Deflaters
+        assertEquals(1, bufferPool.getCreated());
+        assertEquals(5, bufferPool.getReused());
+        assertEquals(0, bufferPool.getInUse());
+        assertEquals(createdDeflaters, deflaterPool.getCreated());
+        assertTrue(deflaterPool.getReused() > 0);
+        assertEquals(0, deflaterPool.getInUse());
+
+        // Without idle resources nothing is pooled
+        writer.setDeflaterPool(new DeflaterPool(0));
+        writer.setBufferPool(new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, 0));
+
+        Path unpooled = tempDir.resolve("unpooled.epub");
+        writer.writeEpubToFile(createBook(), unpooled.toString());
+        assertSameEntries(first, unpooled);
+
+        assertEquals(0, writer.getDeflaterPool().getIdle());
+        assertEquals(writer.getDeflaterPool().getCreated(), writer.getDeflaterPool().getDiscarded());
+        assertEquals(0, writer.getBufferPool().getIdle());
+    }
+
+    private void assertSameEntries(Path expected, Path actual) throws IOException {
+
+        try (ZipFile expectedZip = new ZipFile(expected.toFile());
+             ZipFile actualZip = new ZipFile(actual.toFile())) {
+
+            assertEquals(expectedZip.size(), actualZip.size());
+
+            for (ZipEntry entry : Collections.list(expectedZip.entries())) {
+
+                ZipEntry actualEntry = actualZip.getEntry(entry.getName());
+
+                if (!entry.getName().endsWith(".opf")) {
+                    assertArrayEquals(expectedZip.getInputStream(entry).readAllBytes(),
+                            actualZip.getInputStream(actualEntry).readAllBytes(), entry.getName());
+                }
+            }
+        }
+    }
+
+    private static long crc(byte[] data) {
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private EpubBook createBook() throws IOException {
+
+        EpubBook book = TestBooks.book("Test");
+        TestBooks.addChapters(book, 50, i -> "Chapter " + i + " text. ".repeat(200 + i));
+        book.getContents().forEach(chapter -> chapter.setToc(true));
+
+        Path image = TestBooks.copyCover(tempDir);
+
+        String generated = "<p>Generated</p>";
+        book.addTextContent("Generated", "generated.xhtml", out -> out.write(generated.getBytes(StandardCharsets.UTF_8)));
+        book.addContent(image, "image/png", "images/image.png", false, false);
+
+        return book;
+    }
+
+    private Path write(EpubBook book, ExecutorService executor) throws IOException {
+
+        EpubWriter writer = new EpubWriter();
+        writer.setExecutor(executor);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeEpubToStream(book, out);
+
+        Path file = Files.createTempFile(tempDir, "book", ".epub");
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+}
@@ -0,0 +1,84 @@
+package net.seeseekey.epubwriter;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.seeseekey.epubwriter.model.EpubBook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlightRecorderEventsTest {
+
+    private static final String BOOK_ID = "urn:uuid:9d2e4f60-1a3b-4c5d-8e7f-0a1b2c3d4e5f";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEventsAreRecorded() throws Exception {
+
+        Path recordingFile = tempDir.resolve("recording.jfr");
+
+        try (Recording recording = new Recording()) {
+
+            recording.enable("net.seeseekey.epubwriter.ContentAdded");
+            recording.enable("net.seeseekey.epubwriter.TocCreated");
+            recording.enable("net.seeseekey.epubwriter.OpfCreated");
+            recording.enable("net.seeseekey.epubwriter.EntryWritten");
+            recording.disable("net.seeseekey.epubwriter.OpfCreated");
+            recording.start();
+
+            EpubBook book = new EpubBook("en", BOOK_ID, "Recorded", "Tester");
+
+            for (int i = 0; i < 3; i++) {
+                book.addTextContent("Chapter " + i, "chapter-" + i + ".xhtml", "<p>" + "Text. ".repeat(100) + "</p>");
+            }
+
+            book.writeToFile(tempDir.resolve("book.epub").toString());
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> event.getEventType().getName().startsWith("net.seeseekey.epubwriter."))
+                .collect(Collectors.toList());
+
+        assertTrue(events.stream().allMatch(event -> BOOK_ID.equals(event.getString("bookId"))));
+
+        assertEquals(3, count(events, "ContentAdded"));
+        assertEquals(1, count(events, "TocCreated"));
+        assertEquals(0, count(events, "OpfCreated"));
+
+        // mimetype, container.xml, OPF, navigation document and chapters
+        List<RecordedEvent> entries = events.stream()
+                .filter(event -> event.getEventType().getName().endsWith("EntryWritten"))
+                .collect(Collectors.toList());
+
+        assertEquals(7, entries.size());
+        assertEquals("mimetype", entries.get(0).getString("href"));
+        assertEquals("STORED", entries.get(0).getString("method"));
+        assertTrue(entries.stream().anyMatch(event -> "DEFLATED".equals(event.getString("method"))
+                && event.getLong("compressedBytes") < event.getLong("bytes")));
+
+        // The streamed navigation document is counted as it is written
+        RecordedEvent toc = events.stream().filter(event -> event.getEventType().getName().endsWith(".TocCreated"))
+                .findFirst().orElseThrow();
+        RecordedEvent navigation = entries.stream().filter(event -> event.getString("href").endsWith("toc.xhtml"))
+                .findFirst().orElseThrow();
+
+        assertTrue(toc.getLong("bytes") > 0);
+        assertEquals(navigation.getLong("bytes"), toc.getLong("bytes"));
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().endsWith("." + name)).count();
+    }
+}
@@ -0,0 +1,53 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.impl.OpfCreatorDefault;
+import net.seeseekey.epubwriter.impl.OpfCreatorStreaming;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.MetaTag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpfCreatorStreamingTest {
+
+    @Test
+    void testOutputEqualsDefault() throws Exception {
+
+        EpubBook book = new EpubBook("de", "urn:uuid:5f1e2d3c-4b5a-6978-8a9b-0c1d2e3f4a5b", "Tom & Jerry <1>", "Avonia");
+        book.setIsbn("9781566199094");
+        book.setPublisher("A \"quoted\" publisher's");
+        book.setRights("© 2023 by Avonia");
+
+        book.addTextContent("Chapter", "chapter-1.xhtml", "<p>Text</p>").setToc(true);
+        book.addTextContent("Appendix", "appendix.xhtml", "<p>Text</p>").setLinear(false);
+
+        Content image = book.addContent(new byte[]{1, 2, 3}, "image/webp", "images/a&b.webp", false, false);
+        Content fallback = book.addContent(new byte[]{1, 2, 3}, "image/png", "images/a.png", false, false);
+        image.setFallBack(fallback);
+        image.setProperties("cover-image");
+
+        MetaTag cover = new MetaTag();
+        cover.addAttribute("name", "cover");
+        cover.addAttribute("content", image.getId());
+        book.addMetaTag(cover);
+
+        String expected = withoutModified(new OpfCreatorDefault().createOpfString(book));
+        String actual = new OpfCreatorStreaming().createOpfString(book);
+
+        assertTrue(actual.matches("(?s).*<meta property=\"dcterms:modified\">\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}Z</meta>.*"));
+        assertEquals(expected, withoutModified(actual));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new OpfCreatorStreaming().writeOpf(book, out);
+        assertEquals(expected, withoutModified(out.toString(StandardCharsets.UTF_8)));
+    }
+
+    private String withoutModified(String opf) {
+        return opf.replaceAll("<meta property=\"dcterms:modified\">[^<]*</meta>", "");
+    }
+}
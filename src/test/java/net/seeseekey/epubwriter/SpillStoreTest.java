@@ -0,0 +1,180 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.PathContentSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillStoreTest {
+
+    private static final int CHAPTER_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPayloadsBeyondBudgetAreSpilled() throws Exception {
+
+        Path spillDirectory = tempDir.resolve("spill");
+
+        EpubBook book = new EpubBook("en", "urn:uuid:7c8d9e0f-1a2b-4c3d-8e4f-5a6b7c8d9e0f", "Spill", "Tester");
+        book.setMemoryBudget(3L * CHAPTER_SIZE);
+        book.setSpillDirectory(spillDirectory);
+
+        byte[][] chapters = new byte[8][];
+        Random random = new Random(3);
+
+        for (int i = 0; i < chapters.length; i++) {
+
+            chapters[i] = new byte[CHAPTER_SIZE];
+            random.nextBytes(chapters[i]);
+
+            if (i % 2 == 0) {
+                book.addContent(chapters[i], "application/octet-stream", "data-" + i + ".bin", false, false);
+            } else {
+                book.addContent(new ByteArrayInputStream(chapters[i]), "application/octet-stream", "data-" + i + ".bin", false, false);
+            }
+        }
+
+        assertEquals(3L * CHAPTER_SIZE, book.getRetainedBytes());
+        assertEquals(3, book.getContents().stream().filter(Content::isBuffered).count());
+        assertEquals(5, book.getSpillStore().getFileCount());
+
+        Path file = tempDir.resolve("book.epub");
+        book.writeToFile(file.toString());
+
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            for (int i = 0; i < chapters.length; i++) {
+                assertArrayEquals(chapters[i], zip.getInputStream(zip.getEntry("OPS/data-" + i + ".bin")).readAllBytes());
+            }
+        }
+
+        assertTrue(isEmpty(spillDirectory));
+    }
+
+    @Test
+    void testRemovedContentsReleaseTheirBudget() throws Exception {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:removed", "Spill", "Tester");
+        book.setMemoryBudget(3L * CHAPTER_SIZE);
+        book.setSpillDirectory(tempDir.resolve("spill"));
+        book.setDeduplicatePayloads(true);
+
+        Content first = book.addContent(new byte[CHAPTER_SIZE], "application/octet-stream", "first.bin", false, false);
+        Content shared = book.addContent(new byte[CHAPTER_SIZE], "application/octet-stream", "shared.bin", false, false);
+        book.addContent(filled(1), "application/octet-stream", "second.bin", false, false);
+        Content third = book.addContent(filled(2), "application/octet-stream", "third.bin", false, false);
+
+        assertEquals(3L * CHAPTER_SIZE, book.getRetainedBytes());
+
+        // The payload is still held by the content sharing it
+        assertTrue(book.removeContent(first));
+        assertEquals(3L * CHAPTER_SIZE, book.getRetainedBytes());
+
+        assertTrue(book.removeContent(shared));
+        assertEquals(2L * CHAPTER_SIZE, book.getRetainedBytes());
+
+        // The released budget is available again, an equal payload is no longer shared
+        Content added = book.addContent(new byte[CHAPTER_SIZE], "application/octet-stream", "added.bin", false, false);
+        assertTrue(added.isBuffered());
+        assertEquals(3L * CHAPTER_SIZE, book.getRetainedBytes());
+
+        book.setContents(List.of(third, added));
+        assertEquals(2L * CHAPTER_SIZE, book.getRetainedBytes());
+
+        book.getContents().remove(third);
+        assertEquals(CHAPTER_SIZE, book.getRetainedBytes());
+
+        book.getContents().clear();
+        assertEquals(0, book.getRetainedBytes());
+    }
+
+    @Test
+    void testSpilledPayloadsAreDeletedOnFailure() throws Exception {
+
+        Path spillDirectory = tempDir.resolve("spill");
+
+        EpubBook book = new EpubBook("en", "urn:uuid:failed", "Spill", "Tester");
+        book.setMemoryBudget(0);
+        book.setSpillDirectory(spillDirectory);
+        book.addContent(new byte[1024], "application/octet-stream", "data.bin", false, false);
+        book.addTextContent("Failing", "failing.xhtml", out -> {
+            throw new IOException("Source not available");
+        });
+
+        assertFalse(isEmpty(spillDirectory));
+        assertThrows(IOException.class, () -> book.writeToFile(tempDir.resolve("failed.epub").toString()));
+        assertTrue(isEmpty(spillDirectory));
+    }
+
+    @Test
+    void testTruncatedFileFailsTheTransfer() throws Exception {
+
+        Path file = tempDir.resolve("truncated.bin");
+        Files.write(file, new byte[1024 * 1024]);
+
+        // Truncates the file once the first bytes have arrived
+        WritableByteChannel target = new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(src.remaining());
+                }
+
+                int length = src.remaining();
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to close
+            }
+        };
+
+        assertThrows(EOFException.class, () -> new PathContentSource(file).transferTo(target));
+    }
+
+    private static byte[] filled(int value) {
+
+        byte[] data = new byte[CHAPTER_SIZE];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.findAny().isEmpty();
+        }
+    }
+}
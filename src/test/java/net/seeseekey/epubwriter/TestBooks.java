@@ -0,0 +1,57 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.EpubBook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Books shared by the tests
+ */
+final class TestBooks {
+
+    private TestBooks() {
+    }
+
+    /**
+     * Creates an empty book whose identifier is derived from the title
+     */
+    static EpubBook book(String title) {
+        return new EpubBook("en", "urn:uuid:" + UUID.nameUUIDFromBytes(title.getBytes(StandardCharsets.UTF_8)), title, "Tester");
+    }
+
+    /**
+     * Adds the chapters chapter-0.xhtml to chapter-(count - 1).xhtml, each
+     * holding the text of its number in one paragraph
+     */
+    static void addChapters(EpubBook book, int count, IntFunction<String> text) {
+
+        for (int i = 0; i < count; i++) {
+            book.addTextContent("Chapter " + i, "chapter-" + i + ".xhtml", "<p>" + text.apply(i) + "</p>");
+        }
+    }
+
+    /**
+     * Copies the cover of the test resources into the directory, unless it
+     * has been copied before
+     *
+     * @return the copied cover
+     */
+    static Path copyCover(Path directory) throws IOException {
+
+        Path image = directory.resolve("image.png");
+
+        if (!Files.exists(image)) {
+            try (InputStream cover = TestBooks.class.getResourceAsStream("/cover.png")) {
+                Files.write(image, cover.readAllBytes());
+            }
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,127 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.impl.TocCreatorStreaming;
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.model.TocLink;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TocCreatorStreamingTest {
+
+    @Test
+    void testDeeplyNestedTocIsWellFormed() throws Exception {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:deep", "Deep", "Tester");
+        book.setAutoToc(false);
+
+        TocLink root = new TocLink("chapter.xhtml", "Level 0 & more", null);
+        TocLink parent = root;
+
+        for (int i = 1; i < 5000; i++) {
+
+            TocLink child = new TocLink("chapter.xhtml#level-" + i, "Level " + i, "Alternative " + i);
+            parent.setTocChildLinks(List.of(child));
+            parent = child;
+        }
+
+        book.setTocLinks(List.of(root));
+
+        List<Content> contents = new TocCreatorStreaming().createTocContents(book);
+        assertEquals(1, contents.size());
+        assertEquals("nav", contents.get(0).getProperties());
+
+        Document document = parse(contents.get(0).getContent());
+        assertEquals(5000, document.getElementsByTagName("li").getLength());
+        assertEquals(5000, document.getElementsByTagName("ol").getLength());
+        assertEquals("Level 0 & more", document.getElementsByTagName("a").item(0).getTextContent());
+    }
+
+    @Test
+    void testLargeTocIsSplit() throws Exception {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:split", "Split", "Tester");
+        book.setAutoToc(false);
+
+        List<TocLink> links = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+
+            book.addTextContent("Chapter " + i, "chapter-" + i + ".xhtml", "<p>Text</p>");
+
+            TocLink link = new TocLink("chapter-" + i + ".xhtml", "Chapter " + i, null);
+            link.setTocChildLinks(List.of(new TocLink("chapter-" + i + ".xhtml#section", "Section", null)));
+            links.add(link);
+        }
+
+        book.setTocLinks(links);
+
+        TocCreatorStreaming tocCreator = new TocCreatorStreaming();
+        tocCreator.setMaxLinksPerDocument(50);
+
+        List<Content> contents = tocCreator.createTocContents(book);
+        assertEquals(4, contents.size());
+
+        for (int i = 0; i < contents.size(); i++) {
+
+            Document document = parse(contents.get(i).getContent());
+            assertEquals(50, document.getElementsByTagName("li").getLength());
+
+            String html = new String(contents.get(i).getContent(), StandardCharsets.UTF_8);
+            assertEquals(i < 3, html.contains("toc-" + (i + 2) + ".xhtml"));
+        }
+
+        assertFalse(contents.get(1).isLinear());
+
+        EpubWriter writer = new EpubWriter();
+        writer.setTocCreator(tocCreator);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeEpubToStream(book, out);
+
+        String opf = null;
+        int tocDocuments = 0;
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+
+            ZipEntry entry;
+
+            while ((entry = in.getNextEntry()) != null) {
+
+                byte[] data = in.readAllBytes();
+
+                if (entry.getName().equals("OPS/" + EpubConstants.OPF_FILE_NAME)) {
+                    opf = new String(data, StandardCharsets.UTF_8);
+                } else if (entry.getName().startsWith("OPS/toc")) {
+                    tocDocuments++;
+                }
+            }
+        }
+
+        assertEquals(4, tocDocuments);
+        assertTrue(opf.contains("<itemref idref=\"toc-4\" linear=\"no\" />"));
+    }
+
+    private Document parse(byte[] xml) throws Exception {
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+}
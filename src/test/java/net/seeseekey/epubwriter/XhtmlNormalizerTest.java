@@ -0,0 +1,103 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.impl.XhtmlNormalizerDefault;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.utils.EpubWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XhtmlNormalizerTest {
+
+    private static final String MESSY = "<html><head><title>Messy</title></head>"
+            + "<body><p>Unclosed paragraph<br><p>Caf&eacute; &nbsp; <b><i>nested</b></i><img src=cover.png></body>";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testNormalizedDocumentIsWellFormed() throws Exception {
+
+        XhtmlNormalizerDefault normalizer = new XhtmlNormalizerDefault();
+        Document document = parse(normalizer.normalize(MESSY.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("http://www.w3.org/1999/xhtml", document.getDocumentElement().getNamespaceURI());
+        assertEquals(2, document.getElementsByTagName("p").getLength());
+        assertTrue(document.getDocumentElement().getTextContent().contains("Café"));
+    }
+
+    @Test
+    void testRebuildUsesCache() throws Exception {
+
+        XhtmlNormalizerDefault normalizer = new XhtmlNormalizerDefault();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            EpubWriter writer = new EpubWriter();
+            writer.setNormalizer(normalizer);
+            writer.setExecutor(executor);
+
+            for (int build = 0; build < 2; build++) {
+
+                Path file = tempDir.resolve("book-" + build + ".epub");
+                writer.writeEpubToFile(createBook(), file.toString());
+
+                try (ZipFile zip = new ZipFile(file.toFile())) {
+
+                    for (int i = 0; i < 20; i++) {
+                        parse(zip.getInputStream(zip.getEntry("OPS/chapter-" + i + ".xhtml")).readAllBytes());
+                    }
+
+                    // The navigation document is not normalized
+                    EpubBook plain = createBook();
+                    Path plainFile = tempDir.resolve("plain.epub");
+                    new EpubWriter().writeEpubToFile(plain, plainFile.toString());
+
+                    try (ZipFile plainZip = new ZipFile(plainFile.toFile())) {
+                        assertArrayEquals(plainZip.getInputStream(plainZip.getEntry("OPS/toc.xhtml")).readAllBytes(),
+                                zip.getInputStream(zip.getEntry("OPS/toc.xhtml")).readAllBytes());
+                    }
+                }
+            }
+
+            assertEquals(20, normalizer.getMisses());
+            assertEquals(20, normalizer.getHits());
+            assertTrue(normalizer.getCacheBytes() > 0);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static EpubBook createBook() {
+
+        EpubBook book = TestBooks.book("Messy");
+
+        for (int i = 0; i < 20; i++) {
+            book.addContent(MESSY.replace("Messy", "Chapter " + i).getBytes(StandardCharsets.UTF_8),
+                    "application/xhtml+xml", "chapter-" + i + ".xhtml", true, true);
+        }
+
+        return book;
+    }
+
+    private static Document parse(byte[] document) throws Exception {
+
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+    }
+}
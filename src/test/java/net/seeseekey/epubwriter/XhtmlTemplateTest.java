@@ -0,0 +1,84 @@
+package net.seeseekey.epubwriter;
+
+import net.seeseekey.epubwriter.model.Content;
+import net.seeseekey.epubwriter.model.EpubBook;
+import net.seeseekey.epubwriter.model.EpubConstants;
+import net.seeseekey.epubwriter.model.XhtmlTemplate;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class XhtmlTemplateTest {
+
+    @Test
+    void testRenderMatchesHtmlWrapper() {
+
+        String body = "<p>Plain chapter text</p>";
+
+        assertEquals(MessageFormat.format(EpubConstants.HTML_WRAPPER, "Chapter", body),
+                new String(XhtmlTemplate.DEFAULT.render("Chapter", body), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testQuotesBracesAndEscaping() {
+
+        XhtmlTemplate template = new XhtmlTemplate("<title>{0}</title>'{'<body>{1}</body>",
+                XhtmlTemplate.Escaping.TEXT, XhtmlTemplate.Escaping.TEXT);
+
+        String document = new String(template.render("Tom & Jerry's", "if (a < b) { c = \"d\"; }"), StandardCharsets.UTF_8);
+
+        assertEquals("<title>Tom &amp; Jerry&apos;s</title>'{'<body>if (a &lt; b) { c = &quot;d&quot;; }</body>", document);
+        assertThrows(IllegalArgumentException.class, () -> new XhtmlTemplate("<body>{1}{1}</body>"));
+        assertThrows(IllegalArgumentException.class, () -> new XhtmlTemplate("<body></body>"));
+    }
+
+    @Test
+    void testReaderAcrossChunksEqualsString() throws Exception {
+
+        // The surrogate pairs are split at the chunk boundaries of the reader
+        StringBuilder body = new StringBuilder();
+
+        for (int i = 0; i < 5000; i++) {
+            body.append("a📖 äöü € ");
+        }
+
+        String text = body.toString();
+        byte[] expected = MessageFormat.format(EpubConstants.HTML_WRAPPER, "Book", text).getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(expected, XhtmlTemplate.DEFAULT.render("Book", new StringReader(text)));
+        assertArrayEquals(expected, XhtmlTemplate.DEFAULT.render("Book", body));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XhtmlTemplate.DEFAULT.writeTo(out, "Book", new StringReader(text));
+        assertArrayEquals(expected, out.toByteArray());
+
+        out.reset();
+        XhtmlTemplate.DEFAULT.toSource("Book", body).writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    void testBookTextContents() throws Exception {
+
+        EpubBook book = new EpubBook("en", "urn:uuid:6f708192-a3b4-4c5d-9e6f-708192a3b4c5", "Template", "Tester");
+        Content text = book.addTextContent("Chapter", "chapter.xhtml", "<p>Text</p>");
+        Content read = book.addTextContent("Chapter", "read.xhtml", new StringReader("<p>Text</p>"));
+
+        assertArrayEquals(text.getContent(), read.getContent());
+
+        book.setTextTemplate(new XhtmlTemplate("<html><body><h1>{0}</h1>{1}</body></html>"));
+        Content generated = book.addTextContent("Title", "generated.xhtml", out -> out.write("<p>Generated</p>".getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generated.getSource().writeTo(out);
+
+        assertEquals("<html><body><h1>Title</h1><p>Generated</p></body></html>", out.toString(StandardCharsets.UTF_8));
+    }
+}